@@ -0,0 +1,355 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+
+package control;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Asynchronous logging pipeline of a {@link SimulationLog}: callers only copy the raw fields of a log entry into
+ * a preallocated slot of a bounded ring buffer, whereas a single background writer thread formats the entries and
+ * passes them to the {@link LogSink}s in batches. Sinks are therefore only ever called from the writer thread,
+ * including when they are closed: {@link #close(long)} stops accepting log entries and lets the writer thread close
+ * the sinks once it has written the entries enqueued before.
+ * <p>If the ring buffer is full, the configured {@link Backpressure} policy applies. Entries dropped as a
+ * consequence are counted and reported in the log itself.
+ */
+class AsyncLogWriter {
+    private static final DateTimeFormatter timeFormatter = timeFormatter(ZoneId.systemDefault());
+    private static final int BATCH_SIZE = 1024;
+    private static final int SAMPLE_RATE = 10;
+
+    private final Slot[] slots;
+    private final int mask;
+    private final Backpressure backpressure;
+    private final List<LogSink> sinks;
+    private final SimulationClock clock;
+    private final Thread writer;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    private long head = 0;
+    private long tail = 0;
+    private long flushedUpTo = 0;
+    private boolean flushRequested = false;
+    private boolean closeRequested = false;
+    private long dropped = 0;
+    private long sampleCounter = 0;
+
+    /**
+     * Policies for log entries arriving while the ring buffer is full.
+     */
+    enum Backpressure {
+        /** The caller waits until there is space: no log entry is ever lost. */
+        BLOCK,
+        /** The log entry is dropped. */
+        DROP,
+        /** Once the ring buffer is three quarters full, only every tenth log entry is kept; when full, log entries
+         * are dropped. */
+        SAMPLE
+    }
+
+    /**
+     * Mutable, preallocated log entry as passed from the callers to the writer thread.
+     */
+    private static class Slot {
+        String entryType;
+        String caseIdentifier;
+        String activity;
+        String resource;
+        long logTime;
+        long startTime;
+        String result;
+        double quality;
+    }
+
+    /** Create the pipeline and start its writer thread.
+     * @param capacity     number of log entries the ring buffer holds; rounded up to a power of two
+     * @param backpressure policy for log entries arriving while the ring buffer is full
+     * @param sinks        sinks to write to; the list may be extended while running
+     * @param clock        clock of the run, which time stamps the reports of dropped log entries
+     * @param threadName   name of the writer thread
+     */
+    AsyncLogWriter(int capacity, Backpressure backpressure, List<LogSink> sinks, SimulationClock clock,
+                   String threadName) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = size - 1;
+        this.backpressure = backpressure;
+        this.sinks = sinks;
+        this.clock = clock;
+
+        writer = new Thread(this::run, threadName);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** Enqueue a log entry; see {@link LoggerArtifact} for the meaning of the fields.
+     * @return false if the log entry was dropped as per backpressure policy, or because the log is being closed
+     */
+    boolean append(String entryType, String caseIdentifier, String activity, String resource, long logTime,
+                   long startTime, String result, double quality) {
+        lock.lock();
+        try {
+            if (closeRequested) {
+                return false;
+            }
+            if (tail - head > mask) {
+                if (backpressure != Backpressure.BLOCK) {
+                    dropped++;
+                    return false;
+                }
+                while (tail - head > mask && !closeRequested) {
+                    notFull.await();
+                }
+                if (closeRequested) {
+                    return false;
+                }
+            } else if (backpressure == Backpressure.SAMPLE && tail - head > mask * 3L / 4
+                    && sampleCounter++ % SAMPLE_RATE != 0) {
+                dropped++;
+                return false;
+            }
+
+            Slot slot = slots[(int) (tail & mask)];
+            slot.entryType = entryType;
+            slot.caseIdentifier = caseIdentifier;
+            slot.activity = activity;
+            slot.resource = resource;
+            slot.logTime = logTime;
+            slot.startTime = startTime;
+            slot.result = result;
+            slot.quality = quality;
+            if (tail++ == head) {
+                notEmpty.signal();
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ask the writer thread to flush the sinks once it has written all log entries enqueued so far, without
+     * waiting for that to happen; does nothing if all log entries have been flushed already.
+     */
+    void requestFlush() {
+        lock.lock();
+        try {
+            if (tail == flushedUpTo && dropped == 0) {
+                return;
+            }
+            flushRequested = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Wait until all log entries enqueued so far have been written and the sinks have been flushed.
+     * @param timeoutMillis maximum real world milliseconds to wait
+     */
+    void flush(long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        lock.lock();
+        try {
+            long target = tail;
+            flushRequested = true;
+            notEmpty.signal();
+            while (flushedUpTo < target) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    LoggerArtifact.logger.warning("Timeout while flushing the log.");
+                    return;
+                }
+                flushed.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Stop accepting log entries, and let the writer thread write the log entries enqueued so far and close the
+     * sinks; log entries arriving from now on are discarded.
+     * @param timeoutMillis maximum real world milliseconds to wait for the writer thread
+     */
+    void close(long timeoutMillis) {
+        lock.lock();
+        try {
+            closeRequested = true;
+            notEmpty.signal();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            writer.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            LoggerArtifact.logger.warning("Timeout while closing the log.");
+        }
+    }
+
+    /**
+     * Main loop of the writer thread: take batches of log entries from the ring buffer, format them and pass them
+     * to the sinks, until the log is closed.
+     */
+    private void run() {
+        boolean close = false;
+        while (!close) {
+            long from;
+            long to;
+            boolean flush;
+            long droppedEntries;
+
+            lock.lock();
+            try {
+                while (head == tail && !flushRequested && !closeRequested) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                from = head;
+                to = Math.min(tail, head + BATCH_SIZE);
+                // No log entries are enqueued once closing has been requested, so the ring buffer drains
+                close = closeRequested && to == tail;
+                flush = (flushRequested || close) && to == tail;
+                if (flush) {
+                    flushRequested = false;
+                }
+                droppedEntries = dropped;
+                dropped = 0;
+            } finally {
+                lock.unlock();
+            }
+
+            // The slots between head and tail are not touched by callers until head moves on
+            for (long i = from; i < to; i++) {
+                Slot slot = slots[(int) (i & mask)];
+                write(slot.entryType, slot.caseIdentifier, slot.activity, slot.resource, slot.logTime,
+                      slot.startTime, slot.result, slot.quality);
+                slot.activity = null;
+                slot.result = null;
+            }
+            if (droppedEntries > 0) {
+                write("ENVIRONMENT", "", "Log backpressure: " + droppedEntries + " entries dropped",
+                      AsyncLogWriter.class.getName(), clock.getSimulationTime(), -1, "", -1);
+            }
+            if (close) {
+                for (LogSink sink : sinks) {
+                    try {
+                        sink.close();
+                    } catch (RuntimeException e) {
+                        LoggerArtifact.logger.warning("Log sink failed to close: " + e);
+                    }
+                }
+            } else if (flush) {
+                for (LogSink sink : sinks) {
+                    try {
+                        sink.flush();
+                    } catch (RuntimeException e) {
+                        LoggerArtifact.logger.warning("Log sink failed to flush: " + e);
+                    }
+                }
+            }
+
+            lock.lock();
+            try {
+                head = to;
+                if (flush) {
+                    flushedUpTo = to;
+                    flushed.signalAll();
+                }
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Pass a log entry to all sinks: raw sinks get the fields as they are, all others the formatted strings, which
+     * are only built if needed.
+     */
+    private void write(String entryType, String caseIdentifier, String activity, String resource, long logTime,
+                       long startTime, String result, double quality) {
+        String[] logEntry = null;
+        for (LogSink sink : sinks) {
+            try {
+                if (sink instanceof RawLogSink) {
+                    ((RawLogSink) sink).write(entryType, caseIdentifier, activity, resource, logTime, startTime,
+                                              result, quality);
+                } else {
+                    if (logEntry == null) {
+                        logEntry = format(timeFormatter, entryType, caseIdentifier, activity, resource, logTime,
+                                          startTime, result, quality);
+                    }
+                    sink.write(logEntry);
+                }
+            } catch (RuntimeException e) {
+                LoggerArtifact.logger.warning("Log sink failed to write: " + e);
+            }
+        }
+    }
+
+    /** Create the formatter for the time stamps of log entries.
+     * @param zone time zone the time stamps are shown in
+     * @return formatter
+     */
+    static DateTimeFormatter timeFormatter(ZoneId zone) {
+        return DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss").withZone(zone);
+    }
+
+    /**
+     * Turn the raw fields of a log entry into the strings of the CSV fields. Numbers are formatted independently of
+     * the default locale, i.e. always with a decimal point.
+     */
+    static String[] format(DateTimeFormatter timeFormatter, String entryType, String caseIdentifier, String activity,
+                           String resource, long logTime, long startTime, String result, double quality) {
+        return new String[]{
+                entryType,
+                caseIdentifier,
+                activity,
+                timeFormatter.format(Instant.ofEpochMilli(logTime)),
+                resource,
+                startTime < 0 ? "" : timeFormatter.format(Instant.ofEpochMilli(startTime)),
+                startTime < 0 ? "" : formatSeconds(logTime - startTime),
+                result,
+                quality < 0 ? "" : String.format(Locale.ROOT, "%.03f", quality)};
+    }
+
+    /**
+     * Format milliseconds as seconds with three decimals, like
+     * {@code String.format(Locale.ROOT, "%.3f", millis / 1000.0)}.
+     */
+    static String formatSeconds(long millis) {
+        long absolute = Math.abs(millis);
+        long fraction = absolute % 1000;
+        return (millis < 0 ? "-" : "") + absolute / 1000 + (fraction < 10 ? ".00" : fraction < 100 ? ".0" : ".")
+                + fraction;
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+
+package control;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Converter of binary log files written by the {@link BinaryLogSink} into CSV log files with the very same fields
+ * as written by the {@link CsvLogSink}, so that process mining tools can be used on them. The binary log file is
+ * memory-mapped in windows and decoded block by block. Usage:
+ * <pre>{@code java -cp <classpath> control.BinaryLogConverter log/hi_simulator_log.bin [log/hi_simulator_log.csv]}</pre>
+ * If no CSV file name is given, the extension of the binary log file name is replaced by {@code .csv}.
+ */
+public class BinaryLogConverter {
+    private static final long WINDOW_SIZE = 1 << 28;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private final DateTimeFormatter timeFormatter;
+
+    // Decoding state carried from block to block
+    private final List<String> dictionary = new ArrayList<>();
+    private long previousLogTime = 0;
+
+    /** Open a binary log file and read its header.
+     * @param fileName file name of the binary log
+     * @throws IOException if the file cannot be read or is not a binary log
+     */
+    public BinaryLogConverter(String fileName) throws IOException {
+        channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        fileSize = channel.size();
+        map(0, 0);
+
+        byte[] magic = new byte[BinaryLogSink.MAGIC.length];
+        window.get(magic);
+        if (!Arrays.equals(magic, BinaryLogSink.MAGIC)) {
+            throw new IOException(fileName + " is not a binary log file");
+        }
+        int version = window.getInt();
+        if (version != BinaryLogSink.VERSION) {
+            throw new IOException("Unsupported binary log version " + version);
+        }
+        byte[] zoneId = new byte[window.getShort()];
+        window.get(zoneId);
+        timeFormatter = AsyncLogWriter.timeFormatter(ZoneId.of(new String(zoneId, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Map a window of the file such that it contains at least the given number of bytes from the given position.
+     */
+    private void map(long position, int minimumSize) throws IOException {
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                             Math.min(fileSize - position, Math.max(WINDOW_SIZE, minimumSize)));
+    }
+
+    /** Decode all log entries of the binary log and pass them to a log sink.
+     * @param sink sink to write the log entries to
+     * @return number of log entries converted
+     * @throws IOException if the file cannot be read or is truncated
+     */
+    public long convert(LogSink sink) throws IOException {
+        long converted = 0;
+
+        while (windowStart + window.position() < fileSize) {
+            if (window.remaining() < 4) {
+                map(windowStart + window.position(), 4);
+            }
+            int blockLength = window.getInt(window.position());
+            if (window.remaining() < 4 + blockLength) {
+                if (windowStart + window.position() + 4 + blockLength > fileSize) {
+                    throw new IOException("Binary log file is truncated");
+                }
+                map(windowStart + window.position(), 4 + blockLength);
+            }
+            window.position(window.position() + 4);
+            ByteBuffer block = window.slice();
+            block.limit(blockLength);
+            window.position(window.position() + blockLength);
+
+            converted += decodeBlock(block, sink);
+        }
+        sink.flush();
+        return converted;
+    }
+
+    private int decodeBlock(ByteBuffer block, LogSink sink) {
+        int rows = block.getInt();
+        if ((block.get() & BinaryLogSink.FLAG_DICTIONARY_RESET) != 0) {
+            dictionary.clear();
+        }
+        long newStrings = BinaryLogSink.getVarLong(block);
+        for (long i = 0; i < newStrings; i++) {
+            byte[] string = new byte[(int) BinaryLogSink.getVarLong(block)];
+            block.get(string);
+            dictionary.add(new String(string, StandardCharsets.UTF_8));
+        }
+
+        String[][] strings = new String[BinaryLogSink.STRING_COLUMNS][rows];
+        for (String[] column : strings) {
+            for (int i = 0; i < rows; i++) {
+                column[i] = dictionary.get((int) BinaryLogSink.getVarLong(block));
+            }
+        }
+        long[] logTimes = new long[rows];
+        for (int i = 0; i < rows; i++) {
+            previousLogTime += BinaryLogSink.unzigzag(BinaryLogSink.getVarLong(block));
+            logTimes[i] = previousLogTime;
+        }
+        long[] startTimes = new long[rows];
+        int bitmap = block.position();
+        block.position(bitmap + (rows + 7) / 8);
+        for (int i = 0; i < rows; i++) {
+            startTimes[i] = (block.get(bitmap + i / 8) & 1 << (i % 8)) == 0 ? -1
+                    : logTimes[i] - BinaryLogSink.unzigzag(BinaryLogSink.getVarLong(block));
+        }
+        double[] qualities = new double[rows];
+        bitmap = block.position();
+        block.position(bitmap + (rows + 7) / 8);
+        for (int i = 0; i < rows; i++) {
+            qualities[i] = (block.get(bitmap + i / 8) & 1 << (i % 8)) == 0 ? -1 : block.getDouble();
+        }
+
+        for (int i = 0; i < rows; i++) {
+            sink.write(AsyncLogWriter.format(timeFormatter, strings[0][i], strings[1][i], strings[2][i],
+                                             strings[3][i], logTimes[i], startTimes[i], strings[4][i],
+                                             qualities[i]));
+        }
+        return rows;
+    }
+
+    /**
+     * Convert a binary log file to a CSV log file.
+     * @param args binary log file name, optionally followed by the CSV file name
+     * @throws IOException if a file cannot be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: BinaryLogConverter <binary log file> [<CSV file>]");
+            System.exit(2);
+        }
+        String csvFileName = args.length > 1 ? args[1] : args[0].replaceFirst("(\\.[^.\\\\/]*)?$", ".csv");
+
+        BinaryLogConverter converter = new BinaryLogConverter(args[0]);
+        CsvLogSink csvSink = new CsvLogSink(csvFileName);
+        long converted = converter.convert(csvSink);
+        csvSink.close();
+        converter.channel.close();
+        System.out.println(converted + " log entries written to " + csvFileName);
+    }
+}
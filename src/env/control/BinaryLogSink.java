@@ -0,0 +1,234 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+
+package control;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Log sink writing log entries to a compact binary file in columnar blocks, as an alternative to the CSV log for
+ * long simulation runs. {@link BinaryLogConverter} turns such a file back into the CSV format.
+ * <p>The file starts with the magic bytes {@code HISIMLOG}, the format version (int) and the ID of the time zone
+ * the CSV time stamps are to be shown in (short length and UTF-8 bytes). Blocks of up to {@value #BLOCK_ROWS} log
+ * entries follow, each consisting of:
+ * <ul>
+ * <li>block length in bytes following this field (int), number of log entries (int), flags (byte; bit 0: the
+ * string dictionary is reset before this block)</li>
+ * <li>strings added to the dictionary by this block: count, then length and UTF-8 bytes of each string; strings
+ * get consecutive IDs in the order they are added</li>
+ * <li>one column each for entry type, case identifier, activity, resource and result: dictionary IDs</li>
+ * <li>time stamp column: milliseconds since the time stamp of the previous log entry (of the file)</li>
+ * <li>duration column: bitmap of the log entries that have a start time, then the durations in milliseconds</li>
+ * <li>quality column: bitmap of the log entries that have a quality, then the qualities as doubles</li>
+ * </ul>
+ * <p>Integers within blocks are stored as variable-length integers (7 bits per byte, least significant first),
+ * signed ones zigzag-encoded; fixed-size values are big-endian.
+ */
+public class BinaryLogSink implements RawLogSink {
+    static final byte[] MAGIC = "HISIMLOG".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final int BLOCK_ROWS = 4096;
+    static final byte FLAG_DICTIONARY_RESET = 1;
+    static final int STRING_COLUMNS = 5;
+    private static final int MAXIMUM_DICTIONARY_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final ZoneId zone;
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final List<byte[]> newStrings = new ArrayList<>();
+    private boolean dictionaryReset = false;
+    private long previousLogTime = 0;
+
+    // Columns of the current block
+    private final int[][] stringIds = new int[STRING_COLUMNS][BLOCK_ROWS];
+    private final long[] logTimes = new long[BLOCK_ROWS];
+    private final long[] startTimes = new long[BLOCK_ROWS];
+    private final double[] qualities = new double[BLOCK_ROWS];
+    private int rows = 0;
+
+    /** Create the binary log file and write the file header.
+     * @param fileName file name to write the binary log to
+     * @throws IOException if the file cannot be created
+     */
+    public BinaryLogSink(String fileName) throws IOException {
+        channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                   StandardOpenOption.TRUNCATE_EXISTING);
+        zone = ZoneId.systemDefault();
+
+        byte[] zoneId = zone.getId().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 6 + zoneId.length);
+        header.put(MAGIC).putInt(VERSION).putShort((short) zoneId.length).put(zoneId).flip();
+        writeFully(header);
+    }
+
+    @Override
+    public void write(String entryType, String caseIdentifier, String activity, String resource, long logTime,
+                      long startTime, String result, double quality) {
+        if (rows == 0 && dictionary.size() > MAXIMUM_DICTIONARY_SIZE) {
+            // Keep the memory footprint bounded if there are many distinct activities (e.g. with numbers in them)
+            dictionary.clear();
+            dictionaryReset = true;
+        }
+        stringIds[0][rows] = stringId(entryType);
+        stringIds[1][rows] = stringId(caseIdentifier);
+        stringIds[2][rows] = stringId(activity);
+        stringIds[3][rows] = stringId(resource);
+        stringIds[4][rows] = stringId(result);
+        logTimes[rows] = logTime;
+        startTimes[rows] = startTime;
+        qualities[rows] = quality;
+        if (++rows == BLOCK_ROWS) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Write a log entry given as formatted strings, e.g. as read from a CSV log; time stamps are interpreted in the
+     * default time zone, durations are used to the millisecond.
+     */
+    @Override
+    public void write(String[] logEntry) {
+        long logTime = LocalDateTime.parse(logEntry[3]).atZone(zone).toInstant().toEpochMilli();
+        long startTime = logEntry[6].isEmpty() ? -1 : logTime - Math.round(Double.parseDouble(logEntry[6]) * 1000);
+        double quality = logEntry[8].isEmpty() ? -1 : Double.parseDouble(logEntry[8]);
+        write(logEntry[0], logEntry[1], logEntry[2], logEntry[4], logTime, startTime, logEntry[7], quality);
+    }
+
+    private int stringId(String string) {
+        Integer id = dictionary.get(string);
+        if (id == null) {
+            id = dictionary.size();
+            dictionary.put(string, id);
+            newStrings.add(string.getBytes(StandardCharsets.UTF_8));
+        }
+        return id;
+    }
+
+    /**
+     * Encode the log entries collected so far as one block and write it to the file.
+     */
+    private void writeBlock() {
+        if (rows == 0) {
+            return;
+        }
+
+        // Upper bound of the block size: variable-length integers take at most 10 bytes
+        int bitmapLength = (rows + 7) / 8;
+        int capacity = 9 + 5 + rows * (STRING_COLUMNS * 5 + 10 + 10 + 8) + 2 * bitmapLength;
+        for (byte[] string : newStrings) {
+            capacity += 5 + string.length;
+        }
+        ByteBuffer block = ByteBuffer.allocate(capacity);
+
+        block.putInt(0).putInt(rows).put(dictionaryReset ? FLAG_DICTIONARY_RESET : 0);
+        putVarLong(block, newStrings.size());
+        for (byte[] string : newStrings) {
+            putVarLong(block, string.length);
+            block.put(string);
+        }
+        for (int[] column : stringIds) {
+            for (int i = 0; i < rows; i++) {
+                putVarLong(block, column[i]);
+            }
+        }
+        for (int i = 0; i < rows; i++) {
+            putVarLong(block, zigzag(logTimes[i] - previousLogTime));
+            previousLogTime = logTimes[i];
+        }
+        int bitmap = block.position();
+        block.position(bitmap + bitmapLength);
+        for (int i = 0; i < rows; i++) {
+            if (startTimes[i] >= 0) {
+                block.put(bitmap + i / 8, (byte) (block.get(bitmap + i / 8) | 1 << (i % 8)));
+                putVarLong(block, zigzag(logTimes[i] - startTimes[i]));
+            }
+        }
+        bitmap = block.position();
+        block.position(bitmap + bitmapLength);
+        for (int i = 0; i < rows; i++) {
+            if (qualities[i] >= 0) {
+                block.put(bitmap + i / 8, (byte) (block.get(bitmap + i / 8) | 1 << (i % 8)));
+                block.putDouble(qualities[i]);
+            }
+        }
+        block.putInt(0, block.position() - 4).flip();
+
+        writeFully(block);
+        rows = 0;
+        newStrings.clear();
+        dictionaryReset = false;
+    }
+
+    private void writeFully(ByteBuffer buffer) {
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Write the log entries collected so far as a (possibly short) block, so that they reach the file system.
+     */
+    @Override
+    public void flush() {
+        writeBlock();
+    }
+
+    @Override
+    public void close() {
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+
+package control;
+
+/**
+ * Enumeration of the ways the simulation timer may let simulated time progress.
+ */
+public enum ClockMode {
+    /** Simulated time follows real world time, multiplied by the simulation speed factor. */
+    WALL_CLOCK,
+    /** Like {@link #WALL_CLOCK}, but skipping idle periods: once the simulation is quiescent, simulated time jumps to
+     * the next pending event, usually the start of the next storybook task. */
+    IDLE_FAST_FORWARD,
+    /** Simulated time jumps to the next pending wakeup as soon as all parties are waiting ("as fast as possible"). */
+    DISCRETE_EVENT
+}
@@ -0,0 +1,215 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+
+package control;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Log sink writing log entries to a CSV file, quoting fields that contain commas or quotes. Lines are assembled in
+ * a reused buffer and written through a large write buffer, so that the file system sees few, large writes.
+ * <p>Optionally, the CSV file is gzip-compressed while being written, and the log is split into segments once a
+ * segment reaches a maximum file size or once the simulated day or hour changes. Every segment is a complete CSV
+ * file with header line; segments are numbered, e.g. {@code hi_simulator_log-0001.csv.gz}. A flush only reaches the
+ * file system if log entries have been written since the last flush; compressed output is sync-flushed, so that
+ * everything flushed can be decompressed even if the run gets killed.
+ */
+public class CsvLogSink implements LogSink {
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+    private static final int TIMESTAMP_FIELD = 3;
+
+    /**
+     * Simulated time periods that start a new segment of the log.
+     */
+    public enum RotationPeriod {
+        NONE(0), DAY(10), HOUR(13);
+
+        /** Length of the prefix of the ISO8601 timestamp that identifies the period */
+        private final int prefixLength;
+
+        RotationPeriod(int prefixLength) {
+            this.prefixLength = prefixLength;
+        }
+    }
+
+    private final String fileName;
+    private final boolean gzip;
+    private final long maximumSegmentBytes;
+    private final RotationPeriod rotationPeriod;
+    private final StringBuilder line = new StringBuilder(256);
+    private PrintWriter logWriter;
+    private CountingOutputStream segmentBytes;
+    private int segment = 0;
+    private String segmentPeriod = null;
+    private boolean dirty = false;
+
+    /** Create the CSV file and write the header line.
+     * @param fileName file name to write the CSV log to
+     * @throws IOException if the file cannot be created
+     */
+    public CsvLogSink(String fileName) throws IOException {
+        this(fileName, false, 0, RotationPeriod.NONE);
+    }
+
+    /** Create the first CSV file of a compressed and/or rotated log and write the header line.
+     * @param fileName            file name to write the CSV log to; with rotation, the segment number is inserted
+     *                            before the extension, and ".gz" is appended if compressed and not present yet
+     * @param gzip                true to compress the log with gzip
+     * @param maximumSegmentBytes file size in bytes after which a new segment is started, which segments may exceed
+     *                            by up to the size of the write buffer (64 KiB); 0 for no limit
+     * @param rotationPeriod      simulated time period after which a new segment is started
+     * @throws IOException if the file cannot be created
+     */
+    public CsvLogSink(String fileName, boolean gzip, long maximumSegmentBytes, RotationPeriod rotationPeriod)
+            throws IOException {
+        this.fileName = gzip && !fileName.endsWith(".gz") ? fileName + ".gz" : fileName;
+        this.gzip = gzip;
+        this.maximumSegmentBytes = maximumSegmentBytes;
+        this.rotationPeriod = rotationPeriod;
+        openSegment();
+    }
+
+    private boolean isRotating() {
+        return maximumSegmentBytes > 0 || rotationPeriod != RotationPeriod.NONE;
+    }
+
+    /**
+     * @return file name of the current segment
+     */
+    String getSegmentFileName() {
+        if (!isRotating()) {
+            return fileName;
+        }
+        String baseName = gzip ? fileName.substring(0, fileName.length() - 3) : fileName;
+        int extension = baseName.lastIndexOf('.');
+        if (extension <= Math.max(baseName.lastIndexOf('/'), baseName.lastIndexOf('\\'))) {
+            extension = baseName.length();
+        }
+        return baseName.substring(0, extension) + String.format("-%04d", segment) + baseName.substring(extension)
+                + (gzip ? ".gz" : "");
+    }
+
+    private void openSegment() throws IOException {
+        segment++;
+        segmentBytes = new CountingOutputStream(new FileOutputStream(getSegmentFileName()));
+        OutputStream out = gzip ? new GZIPOutputStream(segmentBytes, WRITE_BUFFER_SIZE, true) : segmentBytes;
+        logWriter = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8),
+                                                       WRITE_BUFFER_SIZE));
+        logWriter.println(String.join(",", LoggerArtifact.csvFields));
+        dirty = true;
+    }
+
+    @Override
+    public void write(String[] logEntry) {
+        if (isRotating()) {
+            rotateIfDue(logEntry[TIMESTAMP_FIELD]);
+        }
+
+        line.setLength(0);
+        for (int i = 0; i < logEntry.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            appendField(line, logEntry[i]);
+        }
+        logWriter.println(line);
+        dirty = true;
+    }
+
+    /**
+     * Start a new segment if the current one has reached its maximum size or the log entry belongs to a new period.
+     * The size is checked on the bytes that have reached the file, i.e. after buffering and compression.
+     */
+    private void rotateIfDue(String timestamp) {
+        String period = rotationPeriod == RotationPeriod.NONE ? null
+                : timestamp.substring(0, Math.min(timestamp.length(), rotationPeriod.prefixLength));
+        boolean newPeriod = period != null && segmentPeriod != null && !period.equals(segmentPeriod);
+        segmentPeriod = period;
+
+        if (newPeriod || (maximumSegmentBytes > 0 && segmentBytes.getCount() >= maximumSegmentBytes)) {
+            logWriter.close();
+            try {
+                openSegment();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /** Append a field to a CSV line, quoting it if it contains commas or quotes and doubling any quotes.
+     * @param line  CSV line being assembled
+     * @param field field value
+     */
+    public static void appendField(StringBuilder line, String field) {
+        if (field.indexOf('"') < 0 && field.indexOf(',') < 0) {
+            line.append(field);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        line.append('"');
+    }
+
+    /**
+     * Flush the log entries written since the last flush to the file system; does nothing if there are none.
+     */
+    @Override
+    public void flush() {
+        if (dirty) {
+            logWriter.flush();
+            dirty = false;
+        }
+    }
+
+    @Override
+    public void close() {
+        logWriter.close();
+    }
+
+    /**
+     * Output stream counting the bytes written to the file.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
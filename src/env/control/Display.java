@@ -0,0 +1,121 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+
+package control;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class for displaying logging data while simulations run.
+ * Note: For other environments, the sizing and positioning of GUI windows should be parameterised.
+ * <p>Log entries are collected as they come and handed over to the event dispatch thread in batches, at a fixed
+ * frame rate, so that a busy simulation cannot flood the event dispatch thread. Only the most recent log entries are
+ * kept (see {@link LogTableModel}); their number and the frame rate may be set with the system properties
+ * {@code hi_simulator.display.rows} (default 10000) and {@code hi_simulator.display.fps} (default 10). Check boxes
+ * at the top of the window show or hide log entries by entry type.
+ */
+class Display extends JFrame {
+    private static final int DEFAULT_ROWS = 10000;
+    private static final int DEFAULT_FRAMES_PER_SECOND = 10;
+    private static int n = 0;
+    private final int capacity = Math.max(1, Integer.getInteger("hi_simulator.display.rows", DEFAULT_ROWS));
+    private final LogTableModel table_model = new LogTableModel(capacity);
+    private final JTable table = new JTable(table_model);
+    private final JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+    private final JLabel rowCountLabel = new JLabel();
+    private final Map<String, JCheckBox> entryTypeFilters = new HashMap<>();
+
+    // Log entries not handed over to the event dispatch thread yet; guarded by itself
+    private final ArrayDeque<String[]> pending = new ArrayDeque<>();
+
+    /** Constructor for new GUI output window.
+     * @param name Name to be put as title of the GUI window
+     */
+    public Display(String name) {
+        setTitle(name);
+
+        table.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 14));
+        for (int i = 0; i < table.getColumnModel().getColumnCount(); i++) {
+            table.getColumnModel().getColumn(i).setPreferredWidth(String.format(LoggerArtifact.fieldFormats[i], "").length() * 10);
+        }
+
+        JScrollPane scroll = new JScrollPane(table);
+        scroll.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS);
+        scroll.setPreferredSize(new Dimension(1380, 250));
+        filterPanel.add(rowCountLabel);
+        add(filterPanel, BorderLayout.NORTH);
+        add(scroll, BorderLayout.CENTER);
+        pack();
+        setLocation(50, n * 300 + 40);
+        setVisible(true);
+        toFront();
+
+        int framesPerSecond = Math.max(1, Integer.getInteger("hi_simulator.display.fps", DEFAULT_FRAMES_PER_SECOND));
+        new Timer(1000 / framesPerSecond, event -> update()).start();
+
+        n++;
+    }
+
+    /**
+     * Method to add log entry to a GUI window; the window shows it with the next frame.
+     * @param logEntry Array of strings representing row to be added to GUI window; not modified.
+     */
+    public void addRow(String[] logEntry) {
+        synchronized (pending) {
+            // Entries beyond the capacity would be dropped by the table model right away anyway
+            if (pending.size() == capacity) {
+                pending.pollFirst();
+            }
+            pending.addLast(logEntry);
+        }
+    }
+
+    /**
+     * Hand the pending log entries over to the table in one batch; runs on the event dispatch thread.
+     */
+    private void update() {
+        List<String[]> batch;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+
+        for (String[] logEntry : batch) {
+            if (!entryTypeFilters.containsKey(logEntry[0])) {
+                addEntryTypeFilter(logEntry[0]);
+            }
+        }
+        table_model.addAll(batch);
+        rowCountLabel.setText(table_model.getRowCount() + " of " + table_model.getEntryCount() + " log entries shown");
+        table.scrollRectToVisible(table.getCellRect(table.getRowCount() - 1, 0, true));
+    }
+
+    /**
+     * Add a check box to show or hide the log entries of an entry type seen for the first time.
+     */
+    private void addEntryTypeFilter(String entryType) {
+        JCheckBox checkBox = new JCheckBox(entryType, true);
+        checkBox.addItemListener(event -> {
+            table_model.setEntryTypeShown(entryType, checkBox.isSelected());
+            rowCountLabel.setText(table_model.getRowCount() + " of " + table_model.getEntryCount()
+                                          + " log entries shown");
+        });
+        entryTypeFilters.put(entryType, checkBox);
+        filterPanel.add(checkBox, filterPanel.getComponentCount() - 1);
+        filterPanel.revalidate();
+    }
+}
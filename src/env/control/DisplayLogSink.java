@@ -0,0 +1,46 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+
+package control;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Log sink showing log entries in GUI windows: entries of resources (agents) that registered their own display
+ * go to that display, all others to the base display. Only instantiated if the logger is not headless, so that AWT
+ * is never loaded otherwise.
+ */
+public class DisplayLogSink implements LogSink {
+    private final Display baseDisplay;
+    private final ConcurrentHashMap<String, Display> displays = new ConcurrentHashMap<>();
+
+    /**
+     * @param name title of the base display window
+     */
+    public DisplayLogSink(String name) {
+        baseDisplay = new Display(name);
+    }
+
+    /** Register an independent display for a resource, unless it has one already.
+     * @param resource    name of the resource (agent) whose log entries are to be shown
+     * @param displayName title of the display window
+     */
+    public void addDisplay(String resource, String displayName) {
+        displays.computeIfAbsent(resource, key -> new Display(displayName));
+    }
+
+    @Override
+    public void write(String[] logEntry) {
+        displays.getOrDefault(logEntry[4], baseDisplay).addRow(logEntry);
+    }
+
+    @Override
+    public void flush() {
+        // Displays are updated by the event dispatch thread; nothing to persist
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+
+package control;
+
+import java.util.Arrays;
+
+/**
+ * Thread-safe histogram of non-negative values in the style of HdrHistogram: values below 32 are counted exactly,
+ * larger values in logarithmic buckets that are split into 16 linear sub-buckets each, so that percentiles are
+ * accurate to about 6% of the value over the whole range of long values. Recording is O(1) and the memory footprint
+ * is fixed (about 8 KiB), so that one histogram per composite task and operation can be kept for a whole run, and
+ * values such as wakeup lags can be recorded for every single wakeup without affecting the simulation.
+ */
+public class HdrHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final int SIZE = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+
+    private final long[] counts = new long[SIZE];
+    private long count = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+    private double sum = 0.0;
+
+    /**
+     * Record a value; negative values are recorded as zero.
+     * @param value value, e.g. a duration in milliseconds
+     */
+    public synchronized void record(long value) {
+        value = Math.max(0, value);
+        counts[indexOf(value)]++;
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        sum += value;
+    }
+
+    /**
+     * @return number of values recorded
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return smallest value recorded; 0 if nothing has been recorded
+     */
+    public synchronized long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * @return largest value recorded
+     */
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * @return mean of the values recorded; 0 if nothing has been recorded
+     */
+    public synchronized double getMean() {
+        return count == 0 ? 0.0 : sum / count;
+    }
+
+    /**
+     * Estimate a percentile of the recorded values, rounded up to the upper bound of its sub-bucket.
+     * @param percentile percentile between 0 and 100
+     * @return upper bound of the values; 0 if nothing has been recorded
+     */
+    public synchronized long getPercentile(double percentile) {
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < SIZE; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, upperBound(i));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Render count, mean, extremes and the usual percentiles as JSON object, with all values divided by a scale,
+     * e.g. 1000 to report milliseconds as seconds.
+     * @param scale divisor applied to all values
+     * @return JSON text
+     */
+    public synchronized String toJson(double scale) {
+        return "{\"count\": " + count
+                + ", \"mean\": " + getMean() / scale
+                + ", \"min\": " + getMin() / scale
+                + ", \"p50\": " + getPercentile(50) / scale
+                + ", \"p90\": " + getPercentile(90) / scale
+                + ", \"p95\": " + getPercentile(95) / scale
+                + ", \"p99\": " + getPercentile(99) / scale
+                + ", \"max\": " + max / scale + "}";
+    }
+
+    /**
+     * Copy the histogram and reset it, so that consecutive intervals can be reported separately.
+     * @return copy of the histogram before the reset
+     */
+    public synchronized HdrHistogram snapshotAndReset() {
+        HdrHistogram snapshot = new HdrHistogram();
+        System.arraycopy(counts, 0, snapshot.counts, 0, SIZE);
+        snapshot.count = count;
+        snapshot.min = min;
+        snapshot.max = max;
+        snapshot.sum = sum;
+        Arrays.fill(counts, 0);
+        count = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+        sum = 0.0;
+        return snapshot;
+    }
+
+    /**
+     * @return summary and non-empty sub-buckets, e.g. {@code n=12 p50=3 p95=41 p99=41 max=41 [0]=3 [3]=7 [40,41]=2}
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder(String.format("n=%d p50=%d p95=%d p99=%d max=%d", count,
+                                                                getPercentile(50), getPercentile(95),
+                                                                getPercentile(99), max));
+        for (int i = 0; i < SIZE; i++) {
+            if (counts[i] > 0) {
+                long lowerBound = i == 0 ? 0 : upperBound(i - 1) + 1;
+                builder.append(" [").append(lowerBound);
+                if (upperBound(i) != lowerBound) {
+                    builder.append(',').append(upperBound(i));
+                }
+                builder.append("]=").append(counts[i]);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) (value >>> shift) - HALF_SUB_BUCKETS;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        // For the topmost sub-bucket, the shift overflows to Long.MIN_VALUE, which yields Long.MAX_VALUE
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
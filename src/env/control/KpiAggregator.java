@@ -0,0 +1,161 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+
+package control;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Log sink aggregating key performance indicators online, from the very log entries written to the CSV log, so that
+ * they need not be derived from the CSV log after the run:
+ * <ul>
+ * <li>per composite task, from the ENVIRONMENT entries {@code Disposed: <composite task>} of the task artefacts:
+ * lead time histogram, counts and rates by final status, quality distribution and throughput</li>
+ * <li>per operation, from the DOMAIN entries of agents executing operations (entries with a start time):
+ * execution time histogram, counts and rates by result, quality distribution and throughput</li>
+ * </ul>
+ * <p>Durations are kept in milliseconds and qualities in thousandths, in {@link HdrHistogram}s. Throughput is
+ * reported per simulated hour, from the first to the last log entry seen. The aggregates may be queried as JSON at
+ * any time during the run.
+ */
+public class KpiAggregator implements RawLogSink {
+    private static final String DISPOSED_PREFIX = "Disposed: ";
+
+    private final Map<String, Kpis> compositeTasks = new TreeMap<>();
+    private final Map<String, Kpis> operations = new TreeMap<>();
+    private long firstLogTime = -1;
+    private long lastLogTime = -1;
+
+    /**
+     * Aggregates of one composite task or operation.
+     */
+    private static class Kpis {
+        final HdrHistogram durations = new HdrHistogram();
+        final HdrHistogram qualities = new HdrHistogram();
+        final Map<String, Long> results = new TreeMap<>();
+
+        void record(long duration, String result, double quality) {
+            durations.record(duration);
+            if (quality >= 0) {
+                qualities.record(Math.round(quality * 1000));
+            }
+            results.merge(result, 1L, Long::sum);
+        }
+
+        String toJson(String indent, double simulatedHours) {
+            long count = durations.getCount();
+            StringBuilder json = new StringBuilder("{\n");
+            json.append(indent).append("  \"count\": ").append(count).append(",\n");
+            json.append(indent).append("  \"throughput_per_hour\": ")
+                .append(simulatedHours > 0 ? count / simulatedHours : 0.0).append(",\n");
+            json.append(indent).append("  \"duration_seconds\": ").append(durations.toJson(1000.0)).append(",\n");
+            json.append(indent).append("  \"quality\": ").append(qualities.toJson(1000.0)).append(",\n");
+            json.append(indent).append("  \"results\": {");
+            String separator = "";
+            for (Map.Entry<String, Long> result : results.entrySet()) {
+                json.append(separator).append('\n').append(indent).append("    ").append(quote(result.getKey()))
+                    .append(": {\"count\": ").append(result.getValue())
+                    .append(", \"rate\": ").append((double) result.getValue() / count).append('}');
+                separator = ",";
+            }
+            json.append(results.isEmpty() ? "" : "\n" + indent + "  ").append("}\n");
+            return json.append(indent).append('}').toString();
+        }
+    }
+
+    @Override
+    public synchronized void write(String entryType, String caseIdentifier, String activity, String resource,
+                                   long logTime, long startTime, String result, double quality) {
+        if (firstLogTime < 0) {
+            firstLogTime = logTime;
+        }
+        lastLogTime = Math.max(lastLogTime, logTime);
+
+        if (startTime < 0) {
+            return;
+        }
+        if (entryType.equals("ENVIRONMENT") && activity.startsWith(DISPOSED_PREFIX)) {
+            compositeTasks.computeIfAbsent(activity.substring(DISPOSED_PREFIX.length()), key -> new Kpis())
+                          .record(logTime - startTime, result, quality);
+        } else if (entryType.equals("DOMAIN")) {
+            operations.computeIfAbsent(activity, key -> new Kpis()).record(logTime - startTime, result, quality);
+        }
+    }
+
+    /**
+     * Log entries passed as strings rather than raw fields do not come from the {@link LoggerArtifact}, hence they
+     * are not aggregated.
+     */
+    @Override
+    public void write(String[] logEntry) {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    /** Look up the number of composite tasks that ended with a given status so far.
+     * @param compositeTask name of the composite task
+     * @param status        final status, e.g. "COMPLETED" or "TIMEOUT"
+     * @return number of composite tasks
+     */
+    public synchronized long getCompositeTaskCount(String compositeTask, String status) {
+        Kpis kpis = compositeTasks.get(compositeTask);
+        return kpis == null ? 0 : kpis.results.getOrDefault(status, 0L);
+    }
+
+    /** Look up a percentile of the execution time of an operation so far.
+     * @param operation  name of the operation
+     * @param percentile percentile between 0 and 100
+     * @return execution time in milliseconds; 0 if the operation has not been executed
+     */
+    public synchronized long getOperationPercentile(String operation, double percentile) {
+        Kpis kpis = operations.get(operation);
+        return kpis == null ? 0 : kpis.durations.getPercentile(percentile);
+    }
+
+    /**
+     * Render all aggregates as JSON object.
+     * @return JSON text
+     */
+    public synchronized String toJson() {
+        double simulatedHours = firstLogTime < 0 ? 0.0 : (lastLogTime - firstLogTime) / 3600000.0;
+        return "{\n"
+                + "  \"simulated_hours\": " + simulatedHours + ",\n"
+                + "  \"composite_tasks\": " + toJson(compositeTasks, simulatedHours) + ",\n"
+                + "  \"operations\": " + toJson(operations, simulatedHours) + "\n"
+                + "}\n";
+    }
+
+    private static String toJson(Map<String, Kpis> kpis, double simulatedHours) {
+        StringBuilder json = new StringBuilder("{");
+        String separator = "";
+        for (Map.Entry<String, Kpis> entry : kpis.entrySet()) {
+            json.append(separator).append("\n    ").append(quote(entry.getKey())).append(": ")
+                .append(entry.getValue().toJson("    ", simulatedHours));
+            separator = ",";
+        }
+        return json.append(kpis.isEmpty() ? "}" : "\n  }").toString();
+    }
+
+    private static String quote(String string) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < ' ') {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+
+package control;
+
+/**
+ * Destination of log entries written by the {@link LoggerArtifact}, e.g. the CSV log file or the GUI windows. Log
+ * entries are passed as arrays of strings in the order of the CSV fields; sinks must not modify them, as the same
+ * array is passed to all sinks. Sinks are only ever called from the writer thread of the {@link AsyncLogWriter}.
+ */
+public interface LogSink {
+
+    /** Write a log entry.
+     * @param logEntry fields of the log entry in the order of the CSV fields
+     */
+    void write(String[] logEntry);
+
+    /**
+     * Make sure that log entries written so far are persisted.
+     */
+    void flush();
+
+    /**
+     * Flush and release any resources held by the sink at the end of the simulation.
+     */
+    default void close() {
+        flush();
+    }
+}
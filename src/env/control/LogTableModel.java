@@ -0,0 +1,129 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+
+package control;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Table model of a log display holding the most recent log entries in a ring buffer of fixed capacity, so that the
+ * memory footprint of a display does not grow with the length of the run. Log entries may be hidden by entry type;
+ * the rows shown are kept as a second ring buffer of positions in the first one. Fields are only formatted when a
+ * cell is rendered, i.e. for the rows actually visible. Must only be used on the event dispatch thread.
+ */
+class LogTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+
+    private final String[][] entries;
+    private final int[] view;
+    private final Set<String> hiddenEntryTypes = new HashSet<>();
+    private long first = 0;
+    private long next = 0;
+    private int viewHead = 0;
+    private int viewSize = 0;
+
+    /**
+     * @param capacity maximum number of log entries kept
+     */
+    LogTableModel(int capacity) {
+        entries = new String[capacity][];
+        view = new int[capacity];
+    }
+
+    /** Append a batch of log entries, dropping the oldest ones beyond the capacity, and notify the table per batch.
+     * @param batch log entries in the order of logging
+     */
+    void addAll(List<String[]> batch) {
+        int shown = viewSize;
+        int removed = 0;
+        int added = 0;
+
+        for (String[] logEntry : batch) {
+            if (next - first == entries.length) {
+                // Drop the oldest entry, and its row if it is shown: first the rows shown before, then new ones
+                int oldest = (int) (first % entries.length);
+                if (viewSize > 0 && view[viewHead] == oldest) {
+                    viewHead = (viewHead + 1) % view.length;
+                    viewSize--;
+                    if (removed < shown) {
+                        removed++;
+                    } else {
+                        added--;
+                    }
+                }
+                entries[oldest] = null;
+                first++;
+            }
+            int position = (int) (next % entries.length);
+            entries[position] = logEntry;
+            next++;
+            if (!hiddenEntryTypes.contains(logEntry[0])) {
+                view[(viewHead + viewSize) % view.length] = position;
+                viewSize++;
+                added++;
+            }
+        }
+
+        if (removed > 0) {
+            fireTableRowsDeleted(0, removed - 1);
+        }
+        if (added > 0) {
+            fireTableRowsInserted(viewSize - added, viewSize - 1);
+        }
+    }
+
+    /** Show or hide the log entries of an entry type.
+     * @param entryType entry type, e.g. "DOMAIN"
+     * @param shown     true to show, false to hide the log entries
+     */
+    void setEntryTypeShown(String entryType, boolean shown) {
+        if (shown ? !hiddenEntryTypes.remove(entryType) : !hiddenEntryTypes.add(entryType)) {
+            return;
+        }
+        viewHead = 0;
+        viewSize = 0;
+        for (long i = first; i < next; i++) {
+            int position = (int) (i % entries.length);
+            if (!hiddenEntryTypes.contains(entries[position][0])) {
+                view[viewSize++] = position;
+            }
+        }
+        fireTableDataChanged();
+    }
+
+    /**
+     * @return number of log entries kept, whether shown or not
+     */
+    int getEntryCount() {
+        return (int) (next - first);
+    }
+
+    @Override
+    public int getRowCount() {
+        return viewSize;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return LoggerArtifact.csvFields.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return LoggerArtifact.csvFields[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        String[] logEntry = entries[view[(viewHead + row) % view.length]];
+        return String.format(LoggerArtifact.fieldFormats[column], logEntry[column]);
+    }
+}
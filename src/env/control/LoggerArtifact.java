@@ -10,33 +10,48 @@ package control;
 
 import cartago.*;
 
-import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
-import java.awt.*;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.nio.charset.StandardCharsets;
-import java.text.SimpleDateFormat;
-import java.util.HashMap;
 
 /**
  * The logger artefact allows other artefacts and agents to add event information to the central CSV-file log.
  * Optionally, a caller may request displaying the log entries during simulation runs in separate windows.
+ * <p>Log entries are passed to a list of {@link LogSink}s. In headless mode, there are no GUI windows and AWT is
+ * never loaded; this is selected with a third parameter in the JaCaMo project file:
+ * <p>{@code
+ * artifact logger: control.LoggerArtifact("Base Logging Window", "log\hi_simulator_log.csv", "HEADLESS")
+ * }
+ * <p>or with the system property {@code -Dhi_simulator.headless=true}. Batch mode ({@code -Dhi_simulator.batch=true})
+ * implies headless mode, and so does a Java runtime without display.
+ * <p>Logging is asynchronous: callers merely enqueue the raw log entry into a bounded ring buffer, whereas a
+ * background writer formats it and writes to the sinks (see {@link AsyncLogWriter}). The capacity of the ring buffer
+ * and the policy applied when it is full ("BLOCK", "DROP" or "SAMPLE") may be passed as fourth and fifth parameter,
+ * or as system properties {@code hi_simulator.log.capacity} and {@code hi_simulator.log.backpressure}.
+ * <p>For long runs, a compact binary log can be written in addition to the CSV log by setting the system property
+ * {@code hi_simulator.log.binary} to its file name, e.g. {@code -Dhi_simulator.log.binary=log/hi_simulator_log.bin};
+ * {@link BinaryLogConverter} converts it to CSV afterwards. Key performance indicators are aggregated online from
+ * the log entries (see {@link KpiAggregator}); where they suffice, the CSV log may be switched off with the system
+ * property {@code -Dhi_simulator.log.csv=false}.
+ * <p>The CSV log is gzip-compressed if its file name ends with ".gz" or with
+ * {@code -Dhi_simulator.log.compression=gzip}, and split into segments with {@code -Dhi_simulator.log.rotate},
+ * either by size (e.g. "256MB") or by simulated time ("DAY" or "HOUR"); see {@link CsvLogSink}. Log entries reach the
+ * file system at the latest after the number of real world milliseconds given by
+ * {@code -Dhi_simulator.log.durability} (800 by default).
+ * <p>The logger configures the {@link SimulationLog} of its run (see {@link SimulationContext}); there may only be a
+ * single instance of that artefact per run (singleton). File names given as system properties get the run ID
+ * inserted for runs other than the default run. The static methods of this class act on the log of the default run.
  */
 public class LoggerArtifact extends Artifact {
 
-    static private final String[] csvFields = {"Entry_type", "Case_identifier", "Activity", "Timestamp", "Resource", "Start_time", "Duration", "Result", "Quality"};
-    static private final String[] fieldFormats = {"%-11s", "%-11s", "%-40s", "%-19s", "%-16s", "%-19s", "%8s", "%-16s", "%6s"};
+    static final String[] csvFields = {"Entry_type", "Case_identifier", "Activity", "Timestamp", "Resource", "Start_time", "Duration", "Result", "Quality"};
+    static final String[] fieldFormats = {"%-11s", "%-11s", "%-40s", "%-19s", "%-16s", "%-19s", "%8s", "%-16s", "%6s"};
     static java.util.logging.Logger logger = java.util.logging.Logger.getLogger("hi_simulator");
-    static private final HashMap<String, Display> display = new HashMap<>();
-    static private Display baseDisplay = null;
-    static private PrintWriter logWriter = null;
-    static private ArtifactId loggerArtifactId = null;
+    static private final int DEFAULT_CAPACITY = 65536;
+    static final long DEFAULT_DURABILITY_MILLIS = 800;
+    private SimulationLog simulationLog;
 
     /**
-     * Logging operation available internally for use by other CArtAgO artefacts (as a linkable operation or
-     * direct method call), and to agents.
+     * Logging operation available internally for use by other CArtAgO artefacts (as a linkable operation), and
+     * to agents. Other artefacts of the run may log directly through the {@link SimulationLog} of their run.
      * @param entryType usually "MANAGEMENT", "DOMAIN" (for domain tasks), or "MONITORING"
      * @param caseIdentifier in case log entries reference a specific composite task, ID of that task
      * @param activity activity performed
@@ -48,59 +63,28 @@ public class LoggerArtifact extends Artifact {
     @LINK
     @INTERNAL_OPERATION
     @OPERATION
-    static protected void log(String entryType, String caseIdentifier, String activity, String resource, long startTime, String result, double quality) {
-
-        // Calculate time-related fields
-        SimpleDateFormat timeFormatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-        long logTime = TimerArtifact.getSimulationTime();
-        String durationString = startTime < 0 ? "" : String.format("%.3f", (logTime - startTime) / 1000.0);
-        String endTimeISO = timeFormatter.format(logTime);
-        String startTimeISO = startTime < 0 ? "" : timeFormatter.format(startTime);
-
-        // Determine quality as string
-        String qualityString = quality < 0 ? "" : String.format("%.03f", quality);
-
-        String[] logEntry = {entryType, caseIdentifier, activity, endTimeISO, resource, startTimeISO, durationString, result, qualityString};
-
-        // Output to display and file:
-        if (baseDisplay != null && logWriter != null) {
-            if (display.containsKey(resource)) {
-                display.get(resource).addRow(logEntry);
-            } else {
-                baseDisplay.addRow(logEntry);
-            }
-            logEntry = logEntry.clone();
-            for (int i = 0; i < logEntry.length; i++) {
-                logEntry[i] = logEntry[i].replace("\"", "\"\"");
-                if (logEntry[i].matches(".*[\",].*")) {
-                    logEntry[i] = "\"" + logEntry[i] + "\"";
-                }
-            }
-            logWriter.println(String.join(",", logEntry));
-
-        } else {
-            logger.warning("CALL TO STATIC LOGGING ARTIFACT THAT IS NOT YET READY.");
-        }
+    protected void log(String entryType, String caseIdentifier, String activity, String resource, long startTime, String result, double quality) {
+        simulationLog.log(entryType, caseIdentifier, activity, resource, startTime, result, quality);
     }
 
-    /** Limited environmental log entry with just resource and activity.
+    /** Limited environmental log entry of the default run with just resource and activity.
      * @param resource should be class name of calling method
      * @param activity activity to be written to the log file
      */
     static public void env_log(String resource, String activity) {
-        log("ENVIRONMENT", "", activity, resource, -1, "", -1);
+        SimulationContext.getDefault().getLog().env_log(resource, activity);
     }
 
-    /** Limited environmental log entry.
+    /** Limited environmental log entry of the default run.
      * @param caseIdentifier Task name (string) a log entry should reference
      * @param resource should be class name of calling method
      * @param activity activity to be written to the log file
      */
     static public void env_log(String caseIdentifier, String resource, String activity) {
-        log("ENVIRONMENT", caseIdentifier, activity, resource, -1, "", -1);
+        SimulationContext.getDefault().getLog().env_log(caseIdentifier, resource, activity);
     }
 
-    /** Limited environmental log entry.
+    /** Limited environmental log entry of the default run.
      * @param caseIdentifier Task name (string) a log entry should reference
      * @param resource should be class name of calling method
      * @param activity activity to be written to the log file
@@ -108,10 +92,10 @@ public class LoggerArtifact extends Artifact {
      * @param result result
      */
     static public void env_log(String caseIdentifier, String resource, String activity, long startTime, String result) {
-        log("ENVIRONMENT", caseIdentifier, activity, resource, startTime, result, -1);
+        SimulationContext.getDefault().getLog().env_log(caseIdentifier, resource, activity, startTime, result);
     }
 
-    /** Full environmental log entry
+    /** Full environmental log entry of the default run
      * @param caseIdentifier Task name (string) a log entry should reference
      * @param resource should be class name of calling method
      * @param activity activity to be written to the log file
@@ -120,44 +104,73 @@ public class LoggerArtifact extends Artifact {
      * @param quality percentage of quality for executed operations, otherwise a negative value
      */
     static public void env_log(String caseIdentifier, String resource, String activity, long startTime, String result, Double quality) {
-        log("ENVIRONMENT", caseIdentifier, activity, resource, startTime, result, quality);
+        SimulationContext.getDefault().getLog().env_log(caseIdentifier, resource, activity, startTime, result, quality);
     }
 
     /**
-     * Method for actively flushing buffered log entries to log file.
+     * Method for actively flushing buffered log entries of the default run to log file: waits until all log
+     * entries logged so far have been written.
      */
     static public void flushBuffers() {
-        logWriter.flush();
+        SimulationContext.getDefault().getLog().flushBuffers();
+    }
+
+    /**
+     * @return key performance indicators of the default run aggregated from the log entries written so far
+     */
+    static public KpiAggregator getKpiAggregator() {
+        return SimulationContext.getDefault().getLog().getKpiAggregator();
+    }
+
+    /** Write the key performance indicators of the default run as JSON report.
+     * @param fileName file to write the report to
+     * @throws IOException if the file cannot be written
+     */
+    static public void writeKpiReport(String fileName) throws IOException {
+        SimulationContext.getDefault().getLog().writeKpiReport(fileName);
     }
 
     /**
-     * Initialise a new logger artefact: Intentionally, this is implemented as a singleton to allow only one logger.
+     * Initialise a new logger artefact: Intentionally, this is implemented as a singleton to allow only one logger
+     * per run.
      *
      * @param name     Display name to be shown at the top of the window.
      * @param fileName File name to write CSV log to.
      */
     void init(String name, String fileName) throws IOException, ArtifactAlreadyPresentException {
+        init(name, fileName, "");
+    }
 
-        if (loggerArtifactId != null) {
-            logger.warning("Multiple instances of logger not allowed (logger must be singleton).");
-            throw new ArtifactAlreadyPresentException("LoggerArtifact", "unknown workspace");
-        }
-
-        baseDisplay = new Display(name);
-        logWriter = new PrintWriter(new FileWriter(fileName, StandardCharsets.UTF_8));
-        logWriter.println(String.join(",", csvFields));
-        execInternalOp("flushTimer");
-        loggerArtifactId = this.getId();
+    /**
+     * Initialise a new logger artefact with or without GUI windows.
+     *
+     * @param name        Display name to be shown at the top of the window.
+     * @param fileName    File name to write CSV log to.
+     * @param displayMode "HEADLESS" for no GUI windows, "DISPLAY" for GUI windows, "" for the default as per
+     *                    system properties
+     */
+    void init(String name, String fileName, String displayMode) throws IOException, ArtifactAlreadyPresentException {
+        init(name, fileName, displayMode, Integer.getInteger("hi_simulator.log.capacity", DEFAULT_CAPACITY),
+             System.getProperty("hi_simulator.log.backpressure", AsyncLogWriter.Backpressure.BLOCK.name()));
     }
 
     /**
-     * Method that flushes buffered log entries to the file system at an interval of < 1 seconds to protect against loss of logging data in case of failure.
+     * Initialise a new logger artefact with a specific configuration of the asynchronous logging pipeline.
+     *
+     * @param name         Display name to be shown at the top of the window.
+     * @param fileName     File name to write CSV log to.
+     * @param displayMode  "HEADLESS" for no GUI windows, "DISPLAY" for GUI windows, "" for the default as per
+     *                     system properties
+     * @param capacity     Number of log entries buffered before backpressure applies.
+     * @param backpressure "BLOCK" to let callers wait, "DROP" to drop log entries, "SAMPLE" to keep only some
      */
-    @INTERNAL_OPERATION
-    void flushTimer() {
-        while (true) {
-            logWriter.flush();
-            await_time(800);
+    void init(String name, String fileName, String displayMode, int capacity, String backpressure) throws IOException, ArtifactAlreadyPresentException {
+
+        simulationLog = SimulationContext.of(getId()).getLog();
+        if (!simulationLog.configure(name, fileName, isHeadless(displayMode), capacity,
+                                     AsyncLogWriter.Backpressure.valueOf(backpressure.toUpperCase()))) {
+            logger.warning("Multiple instances of logger not allowed (logger must be singleton).");
+            throw new ArtifactAlreadyPresentException("LoggerArtifact", getId().getWorkspaceId().getName());
         }
     }
 
@@ -170,7 +183,7 @@ public class LoggerArtifact extends Artifact {
 
         String agentName = this.getCurrentOpAgentId().getAgentName();
 
-        log("MANAGEMENT", "", activity, agentName, -1, "", -1);
+        simulationLog.log("MANAGEMENT", "", activity, agentName, -1, "", -1);
     }
 
     /** Log entry by agent logging a non-MANAGEMENT activity with no more details.
@@ -182,7 +195,7 @@ public class LoggerArtifact extends Artifact {
 
         String agentName = this.getCurrentOpAgentId().getAgentName();
 
-        log(entryType, "", activity, agentName, -1, "", -1);
+        simulationLog.log(entryType, "", activity, agentName, -1, "", -1);
     }
 
     /** Log entry by agent logging an activity with reference to a specific task.
@@ -195,7 +208,7 @@ public class LoggerArtifact extends Artifact {
 
         String agentName = this.getCurrentOpAgentId().getAgentName();
 
-        log(entryType, caseId, activity, agentName, -1, "", -1);
+        simulationLog.log(entryType, caseId, activity, agentName, -1, "", -1);
     }
 
     /** Log entry by agent logging an activity with reference to a specific task and a result.
@@ -209,7 +222,7 @@ public class LoggerArtifact extends Artifact {
 
         String agentName = this.getCurrentOpAgentId().getAgentName();
 
-        log(entryType, caseId, activity, agentName, -1, result, -1);
+        simulationLog.log(entryType, caseId, activity, agentName, -1, result, -1);
     }
 
     /** Full log entry by agent.
@@ -225,67 +238,47 @@ public class LoggerArtifact extends Artifact {
 
         String agentName = this.getCurrentOpAgentId().getAgentName();
 
-        log(entryType, caseId, activity, agentName, startTime, result, quality);
+        simulationLog.log(entryType, caseId, activity, agentName, startTime, result, quality);
     }
 
-    /** Operation for agents that want to register an independent display.
+    /** Operation for agents that want to register an independent display; ignored in headless mode.
      * @param resource Should be the agent's name (could be taken from getCurrentOpAgentId().getAgentName() in future)
      * @param displayName Text string added to the agent's name in the top border of the GUI window.
      */
     @OPERATION
     protected void log_display(String resource, String displayName) {
 
-        if (!display.containsKey(resource)) {
-            display.put(resource, new Display(resource + ": " + displayName));
-        }
+        simulationLog.addDisplay(resource, resource + ": " + displayName);
 
     }
 
-    /**
-     * Class for displaying logging data while simulations run.
-     * Note: For other environments, the sizing and positioning of GUI windows should be parameterised.
+    /** Operation for agents to query the key performance indicators aggregated so far.
+     * @param report JSON report as written at the end of the run
      */
-    static class Display extends JFrame {
-        private static int n = 0;
-        private final DefaultTableModel table_model = new DefaultTableModel(0, csvFields.length);
-        private final JTable table = new JTable(table_model);
-
-        /** Constructor for new GUI output window.
-         * @param name Name to be put as title of the GUI window
-         */
-        public Display(String name) {
-            setTitle(name);
-
-            table.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 14));
-            table_model.setColumnIdentifiers(csvFields);
-            for (int i = 0; i < table.getColumnModel().getColumnCount(); i++) {
-                table.getColumnModel().getColumn(i).setPreferredWidth(String.format(fieldFormats[i], "").length() * 10);
-            }
-
-            JScrollPane scroll = new JScrollPane(table);
-            scroll.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS);
-            scroll.setPreferredSize(new Dimension(1380, 250));
-            add(scroll);
-            pack();
-            setLocation(50, n * 300 + 40);
-            setVisible(true);
-            toFront();
-
-            n++;
-        }
+    @OPERATION
+    protected void kpiReport(OpFeedbackParam<String> report) {
+        simulationLog.flushBuffers();
+        report.set(simulationLog.getKpiAggregator().toJson());
+    }
 
-        /**
-         * Method to add log entry to a GUI window.
-         * @param logEntry Array of strings representing row to be added to GUI window.
-         */
-        public void addRow(String[] logEntry) {
-            SwingUtilities.invokeLater(() -> {
-                for (int i = 0; i < logEntry.length; i++) {
-                    logEntry[i] = String.format(fieldFormats[i], logEntry[i]);
-                }
-                ((DefaultTableModel) table.getModel()).addRow(logEntry);
-                table.scrollRectToVisible(table.getCellRect(table.getRowCount() - 1, 0, true));
-            });
+    /** Decide whether the logger runs without GUI windows. The Java runtime is only asked for a display if
+     * neither the JaCaMo project file nor the system properties select headless mode, so that AWT is not loaded
+     * in headless mode.
+     * @param displayMode "HEADLESS", "DISPLAY" or "" for the default
+     * @return true if no GUI windows are to be created
+     */
+    static private boolean isHeadless(String displayMode) {
+        if (displayMode.equalsIgnoreCase("HEADLESS")) {
+            return true;
+        }
+        if (!displayMode.equalsIgnoreCase("DISPLAY")
+                && (Boolean.getBoolean("hi_simulator.headless") || Boolean.getBoolean("hi_simulator.batch"))) {
+            return true;
+        }
+        if (java.awt.GraphicsEnvironment.isHeadless()) {
+            logger.warning("No display available: logging without GUI windows.");
+            return true;
         }
+        return false;
     }
-}
\ No newline at end of file
+}
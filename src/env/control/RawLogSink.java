@@ -0,0 +1,29 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+
+package control;
+
+/**
+ * Log sink that stores log entries as typed values rather than as formatted strings. The {@link AsyncLogWriter}
+ * passes the raw fields to such sinks, so that log entries are only formatted if some other sink needs them.
+ */
+public interface RawLogSink extends LogSink {
+
+    /** Write a log entry given by its raw fields; see {@link LoggerArtifact} for their meaning.
+     * @param entryType      type of the log entry
+     * @param caseIdentifier case identifier; empty if none
+     * @param activity       activity performed
+     * @param resource       resource (agent or artefact) that performed the activity
+     * @param logTime        simulation time of the log entry in milliseconds since epoch
+     * @param startTime      start time in milliseconds since epoch; negative if not known
+     * @param result         result of the activity; empty if none
+     * @param quality        quality achieved; negative if none
+     */
+    void write(String entryType, String caseIdentifier, String activity, String resource, long logTime,
+               long startTime, String result, double quality);
+}
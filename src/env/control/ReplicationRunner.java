@@ -0,0 +1,453 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+
+package control;
+
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Runner of stochastic replications of a scenario: replications with different seeds are run concurrently, and
+ * further replications are launched until the confidence interval of every chosen key performance indicator is
+ * narrow enough, i.e. its half-width (Student's t) is at most a target, given either absolute or relative to the
+ * mean. Between a minimum and a maximum number of replications are run.
+ * <p>A replication is anything that maps a seed and a run ID to KPI values (see {@link Replication}), so that
+ * replications without agents may run in this very JVM. Replications of the multi-agent system are run by
+ * {@link JaCaMoReplication}, which launches JaCaMo in batch mode in a separate JVM per replication, as a JaCaMo
+ * runner is a singleton of its JVM. Usage:
+ * <pre>{@code java -cp <classpath> control.ReplicationRunner hi_simulator.jcm \
+ *      composite_tasks/CSR/duration_seconds/p95=5% summary/mean_quality_completed=0.01 \
+ *      [--confidence 0.95] [--min 5] [--max 100] [--parallel <cores>] [--seed 1] [--output log/replications] \
+ *      [--timeout 60]}</pre>
+ * <p>KPIs are given as paths into the KPI report written by the {@link KpiAggregator}; the run summary is available
+ * under {@code summary}. The result is written to {@code replications.json} in the output directory. A run that
+ * takes longer than the timeout in minutes is killed and counted as a failed replication.
+ */
+public class ReplicationRunner {
+    static private final Logger logger = Logger.getLogger("hi_simulator");
+    static private final double DEFAULT_CONFIDENCE = 0.95;
+    static private final int DEFAULT_MINIMUM_REPLICATIONS = 5;
+    static private final int DEFAULT_MAXIMUM_REPLICATIONS = 100;
+    static private final long DEFAULT_TIMEOUT_MINUTES = 60;
+
+    private final Replication replication;
+    private final Map<String, Target> targets = new LinkedHashMap<>();
+    private final double confidence;
+    private final int minimumReplications;
+    private final int maximumReplications;
+    private final int parallelism;
+
+    /**
+     * A single replication of a scenario.
+     */
+    public interface Replication {
+        /** Run the replication.
+         * @param seed  seed of all random number streams of the replication
+         * @param runId run ID of the replication, e.g. to name its output files
+         * @return values of the key performance indicators by name
+         * @throws Exception if the replication failed, which is then disregarded
+         */
+        Map<String, Double> run(long seed, String runId) throws Exception;
+    }
+
+    /**
+     * Target half-width of the confidence interval of a KPI.
+     */
+    private static class Target {
+        final double halfWidth;
+        final boolean relative;
+
+        Target(String target) {
+            relative = target.endsWith("%");
+            halfWidth = Double.parseDouble(relative ? target.substring(0, target.length() - 1) : target)
+                    / (relative ? 100.0 : 1.0);
+        }
+
+        boolean isMet(Statistics statistics, double quantile) {
+            double limit = relative ? halfWidth * Math.abs(statistics.getMean()) : halfWidth;
+            return statistics.getCount() >= 2 && statistics.getHalfWidth(quantile) <= limit;
+        }
+    }
+
+    /**
+     * Running mean and variance of the values of a KPI, as per Welford's algorithm.
+     */
+    static class Statistics {
+        private long count = 0;
+        private double mean = 0.0;
+        private double squares = 0.0;
+
+        void add(double value) {
+            count++;
+            double delta = value - mean;
+            mean += delta / count;
+            squares += delta * (value - mean);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        double getMean() {
+            return mean;
+        }
+
+        double getStandardDeviation() {
+            return count < 2 ? 0.0 : Math.sqrt(squares / (count - 1));
+        }
+
+        double getHalfWidth(double quantile) {
+            return count < 2 ? Double.POSITIVE_INFINITY : quantile * getStandardDeviation() / Math.sqrt(count);
+        }
+    }
+
+    /** Create a runner.
+     * @param replication         replication to run
+     * @param targets             target half-widths of the confidence intervals by KPI, absolute (e.g. "30") or
+     *                            relative to the mean (e.g. "5%")
+     * @param confidence          confidence level, e.g. 0.95
+     * @param minimumReplications number of replications run at least; at least 2
+     * @param maximumReplications number of replications run at most, regardless of the targets
+     * @param parallelism         number of replications run concurrently
+     */
+    public ReplicationRunner(Replication replication, Map<String, String> targets, double confidence,
+                             int minimumReplications, int maximumReplications, int parallelism) {
+        this.replication = replication;
+        targets.forEach((kpi, target) -> this.targets.put(kpi, new Target(target)));
+        this.confidence = confidence;
+        this.minimumReplications = Math.max(2, minimumReplications);
+        this.maximumReplications = Math.max(this.minimumReplications, maximumReplications);
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /** Run replications until all targets are met or the maximum number of replications has been launched.
+     * Replications still running when the targets are met are waited for and included.
+     * @param seed seed from which the seeds of the replications are derived
+     * @return statistics of the KPIs as JSON object
+     * @throws InterruptedException if interrupted while waiting for replications
+     */
+    public String run(long seed) throws InterruptedException {
+        SplittableRandom seeds = new SplittableRandom(seed);
+        Map<String, Statistics> statistics = new LinkedHashMap<>();
+        targets.keySet().forEach(kpi -> statistics.put(kpi, new Statistics()));
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        CompletionService<Map<String, Double>> completions = new ExecutorCompletionService<>(executor);
+        int launched = 0;
+        int running = 0;
+        int completed = 0;
+        int failed = 0;
+        boolean targetsMet = false;
+
+        try {
+            while (true) {
+                while (!targetsMet && running < parallelism && launched < maximumReplications) {
+                    long replicationSeed = seeds.nextLong();
+                    String runId = String.format("r%03d", ++launched);
+                    completions.submit(() -> replication.run(replicationSeed, runId));
+                    running++;
+                }
+                if (running == 0) {
+                    break;
+                }
+
+                try {
+                    Map<String, Double> kpis = completions.take().get();
+                    for (String kpi : statistics.keySet()) {
+                        if (kpis.get(kpi) == null) {
+                            throw new ExecutionException(new IllegalStateException("KPI " + kpi + " not reported"));
+                        }
+                    }
+                    statistics.forEach((kpi, kpiStatistics) -> kpiStatistics.add(kpis.get(kpi)));
+                    completed++;
+                } catch (ExecutionException e) {
+                    failed++;
+                    logger.warning("Replication failed: " + e.getCause());
+                }
+                running--;
+
+                double quantile = studentQuantile(confidence, completed - 1);
+                targetsMet = completed >= minimumReplications
+                        && targets.entrySet().stream()
+                                  .allMatch(target -> target.getValue().isMet(statistics.get(target.getKey()),
+                                                                              quantile));
+                logger.info(String.format("Replications: %d completed, %d failed, %d running%s", completed,
+                                          failed, running, targetsMet ? ", targets met" : ""));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return toJson(statistics, completed, failed, targetsMet);
+    }
+
+    private String toJson(Map<String, Statistics> statistics, int completed, int failed, boolean targetsMet) {
+        double quantile = studentQuantile(confidence, completed - 1);
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"replications\": ").append(completed).append(",\n");
+        json.append("  \"failed\": ").append(failed).append(",\n");
+        json.append("  \"confidence\": ").append(confidence).append(",\n");
+        json.append("  \"targets_met\": ").append(targetsMet).append(",\n");
+        json.append("  \"kpis\": {");
+        String separator = "";
+        for (Map.Entry<String, Statistics> entry : statistics.entrySet()) {
+            Statistics kpi = entry.getValue();
+            double halfWidth = kpi.getHalfWidth(quantile);
+            json.append(separator).append("\n    \"").append(entry.getKey()).append("\": {")
+                .append("\"mean\": ").append(kpi.getMean())
+                .append(", \"standard_deviation\": ").append(kpi.getStandardDeviation())
+                .append(", \"half_width\": ").append(Double.isInfinite(halfWidth) ? "null" : halfWidth)
+                .append(", \"target_met\": ").append(targets.get(entry.getKey()).isMet(kpi, quantile))
+                .append('}');
+            separator = ",";
+        }
+        return json.append(statistics.isEmpty() ? "}\n" : "\n  }\n").append("}\n").toString();
+    }
+
+    /** Approximate a two-sided quantile of Student's t distribution by the Cornish-Fisher expansion around the
+     * normal quantile (Abramowitz and Stegun 26.7.5), which is accurate to about 1% from 3 degrees of freedom.
+     * @param confidence       confidence level, e.g. 0.95
+     * @param degreesOfFreedom degrees of freedom
+     * @return quantile; infinite for less than one degree of freedom
+     */
+    static double studentQuantile(double confidence, int degreesOfFreedom) {
+        if (degreesOfFreedom < 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (degreesOfFreedom == 1) {
+            return Math.tan(Math.PI * confidence / 2);
+        }
+        if (degreesOfFreedom == 2) {
+            double alpha = 1 - confidence;
+            return Math.sqrt(2 / (alpha * (2 - alpha)) - 2);
+        }
+        double z = normalQuantile(1 - (1 - confidence) / 2);
+        double n = degreesOfFreedom;
+        double z2 = z * z;
+        return z + z * (z2 + 1) / (4 * n)
+                + z * ((5 * z2 + 16) * z2 + 3) / (96 * n * n)
+                + z * (((3 * z2 + 19) * z2 + 17) * z2 - 15) / (384 * n * n * n)
+                + z * ((((79 * z2 + 776) * z2 + 1482) * z2 - 1920) * z2 - 945) / (92160 * n * n * n * n);
+    }
+
+    /** Approximate a quantile of the standard normal distribution with Acklam's rational approximation, which has
+     * a relative error below 1.2e-9.
+     * @param p probability between 0 and 1 (exclusive)
+     * @return quantile
+     */
+    static double normalQuantile(double p) {
+        final double[] a = {-3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+                            1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00};
+        final double[] b = {-5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+                            6.680131188771972e+01, -1.328068155288572e+01};
+        final double[] c = {-7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+                            -2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00};
+        final double[] d = {7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+                            3.754408661907416e+00};
+
+        if (p < 0.02425) {
+            double q = Math.sqrt(-2 * Math.log(p));
+            return (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+                    / ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+        }
+        if (p > 1 - 0.02425) {
+            return -normalQuantile(1 - p);
+        }
+        double q = p - 0.5;
+        double r = q * q;
+        return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q
+                / (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1);
+    }
+
+    /**
+     * Replication of the multi-agent system: JaCaMo is launched in batch mode in a separate JVM with the class path
+     * of this JVM, without CSV log, with the seed as system property {@code hi_simulator.seed}, and with its own KPI
+     * report and run summary, from which the KPIs are read.
+     */
+    public static class JaCaMoReplication implements Replication {
+        private final String projectFileName;
+        private final Path outputDirectory;
+        private final List<String> jvmOptions;
+        private final long timeoutMinutes;
+
+        /**
+         * @param projectFileName JaCaMo project file, e.g. "hi_simulator.jcm"
+         * @param outputDirectory directory for the KPI reports, run summaries and console output of the runs
+         * @param jvmOptions      further options of the JVMs, e.g. system properties
+         */
+        public JaCaMoReplication(String projectFileName, Path outputDirectory, List<String> jvmOptions) {
+            this(projectFileName, outputDirectory, jvmOptions, DEFAULT_TIMEOUT_MINUTES);
+        }
+
+        /**
+         * @param projectFileName JaCaMo project file, e.g. "hi_simulator.jcm"
+         * @param outputDirectory directory for the KPI reports, run summaries and console output of the runs
+         * @param jvmOptions      further options of the JVMs, e.g. system properties
+         * @param timeoutMinutes  time in minutes after which a run is killed and its replication fails
+         */
+        public JaCaMoReplication(String projectFileName, Path outputDirectory, List<String> jvmOptions,
+                                 long timeoutMinutes) {
+            this.projectFileName = projectFileName;
+            this.outputDirectory = outputDirectory;
+            this.jvmOptions = jvmOptions;
+            this.timeoutMinutes = timeoutMinutes;
+        }
+
+        @Override
+        public Map<String, Double> run(long seed, String runId) throws IOException, InterruptedException {
+            Path kpiReport = outputDirectory.resolve("kpis-" + runId + ".json");
+            Path summary = outputDirectory.resolve("summary-" + runId + ".json");
+
+            List<String> command = new ArrayList<>();
+            command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add("-Dhi_simulator.batch=true");
+            command.add("-Dhi_simulator.log.csv=false");
+            command.add("-Dhi_simulator.seed=" + seed);
+            command.add("-Dhi_simulator.kpi.report=" + kpiReport);
+            command.add("-Dhi_simulator.summary=" + summary);
+            command.addAll(jvmOptions);
+            command.add("jacamo.infra.JaCaMoLauncher");
+            command.add(projectFileName);
+
+            Process process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(outputDirectory.resolve("console-" + runId + ".txt").toFile())
+                    .start();
+            try {
+                if (!process.waitFor(timeoutMinutes, TimeUnit.MINUTES)) {
+                    process.destroyForcibly();
+                    throw new IOException("Run " + runId + " killed after " + timeoutMinutes + " minutes");
+                }
+                int exitCode = process.exitValue();
+                if (!Files.exists(kpiReport)) {
+                    throw new IOException("Run " + runId + " ended with exit code " + exitCode
+                                                  + " without KPI report");
+                }
+            } finally {
+                process.destroy();
+            }
+
+            return readKpis(Files.readString(kpiReport),
+                            Files.exists(summary) ? Files.readString(summary) : null);
+        }
+    }
+
+    /** Read the KPIs of a replication from its KPI report and run summary, as paths into the JSON objects, e.g.
+     * {@code composite_tasks/CSR/duration_seconds/p95} or {@code summary/mean_quality_completed}.
+     * @param kpiReport KPI report as written by the {@link KpiAggregator}
+     * @param summary   run summary; null if there is none
+     * @return values of the key performance indicators by path
+     */
+    public static Map<String, Double> readKpis(String kpiReport, String summary) {
+        Map<String, Object> report = readJson(kpiReport);
+        if (summary != null) {
+            report.put("summary", readJson(summary));
+        }
+        Map<String, Double> kpis = new LinkedHashMap<>();
+        flatten("", report, kpis);
+        return kpis;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> readJson(String text) {
+        // JSON is a subset of YAML
+        Map<String, Object> json = new Yaml().load(text);
+        return json == null ? new LinkedHashMap<>() : new LinkedHashMap<>(json);
+    }
+
+    /**
+     * Turn nested JSON objects into KPI paths.
+     */
+    @SuppressWarnings("unchecked")
+    private static void flatten(String prefix, Map<String, Object> json, Map<String, Double> kpis) {
+        for (Map.Entry<String, Object> entry : json.entrySet()) {
+            String path = prefix + entry.getKey();
+            if (entry.getValue() instanceof Map) {
+                flatten(path + "/", (Map<String, Object>) entry.getValue(), kpis);
+            } else if (entry.getValue() instanceof Number) {
+                kpis.put(path, ((Number) entry.getValue()).doubleValue());
+            }
+        }
+    }
+
+    /**
+     * Run replications of a JaCaMo project until the targets are met and write the result.
+     * @param args JaCaMo project file, KPI targets as {@code <path>=<half-width>[%]} and options
+     * @throws Exception if the output cannot be written or the runner gets interrupted
+     */
+    public static void main(String[] args) throws Exception {
+        String projectFileName = null;
+        Map<String, String> targets = new LinkedHashMap<>();
+        double confidence = DEFAULT_CONFIDENCE;
+        int minimumReplications = DEFAULT_MINIMUM_REPLICATIONS;
+        int maximumReplications = DEFAULT_MAXIMUM_REPLICATIONS;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        long seed = 1;
+        Path outputDirectory = Path.of("log", "replications");
+        List<String> jvmOptions = new ArrayList<>();
+        long timeoutMinutes = DEFAULT_TIMEOUT_MINUTES;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--confidence": confidence = Double.parseDouble(args[++i]); break;
+                    case "--min": minimumReplications = Integer.parseInt(args[++i]); break;
+                    case "--max": maximumReplications = Integer.parseInt(args[++i]); break;
+                    case "--parallel": parallelism = Integer.parseInt(args[++i]); break;
+                    case "--seed": seed = Long.parseLong(args[++i]); break;
+                    case "--output": outputDirectory = Path.of(args[++i]); break;
+                    case "--jvm": jvmOptions.add(args[++i]); break;
+                    case "--timeout": timeoutMinutes = Long.parseLong(args[++i]); break;
+                    default:
+                        int separator = args[i].lastIndexOf('=');
+                        if (separator > 0) {
+                            targets.put(args[i].substring(0, separator), args[i].substring(separator + 1));
+                        } else if (projectFileName == null) {
+                            projectFileName = args[i];
+                        } else {
+                            throw new IllegalArgumentException(args[i]);
+                        }
+                }
+            }
+            if (projectFileName == null || targets.isEmpty()) {
+                throw new IllegalArgumentException("project file and KPI targets required");
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Usage: ReplicationRunner <project.jcm> <kpi path>=<half-width>[%] ... "
+                                       + "[--confidence 0.95] [--min 5] [--max 100] [--parallel n] [--seed 1] "
+                                       + "[--output dir] [--jvm <option>] [--timeout minutes]");
+            System.exit(2);
+        }
+
+        Files.createDirectories(outputDirectory);
+        ReplicationRunner runner = new ReplicationRunner(
+                new JaCaMoReplication(new File(projectFileName).getAbsolutePath(), outputDirectory, jvmOptions,
+                                      timeoutMinutes),
+                targets, confidence, minimumReplications, maximumReplications, parallelism);
+        String result = runner.run(seed);
+        Files.writeString(outputDirectory.resolve("replications.json"), result);
+        System.out.print(result);
+    }
+}
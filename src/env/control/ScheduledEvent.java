@@ -0,0 +1,64 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+
+package control;
+
+/**
+ * Handle for an action registered with the {@link SimulationScheduler}. Cancelling is cheap: the entry stays in
+ * the scheduler's data structures, but is dropped instead of being executed once due.
+ */
+public class ScheduledEvent {
+    private long time;
+    private final long period;
+    private final Runnable action;
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param time   simulation time in milliseconds; for housekeeping actions: real world time in milliseconds
+     * @param period for periodic housekeeping actions: real world milliseconds between executions; 0 otherwise
+     * @param action action to be executed when due
+     */
+    ScheduledEvent(long time, long period, Runnable action) {
+        this.time = time;
+        this.period = period;
+        this.action = action;
+    }
+
+    /**
+     * @return time in milliseconds when this event is due
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Prevent the action from being executed (again).
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true if the event has been cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    long getPeriod() {
+        return period;
+    }
+
+    Runnable getAction() {
+        return action;
+    }
+
+    void reschedule(long time) {
+        this.time = time;
+    }
+}
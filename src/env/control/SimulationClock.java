@@ -0,0 +1,357 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+
+package control;
+
+import jacamo.platform.Cartago;
+
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Logger;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Simulated clock of a run, as configured by the {@link TimerArtifact} of the run: maps real world to simulated
+ * time, or keeps a discrete-event clock that is advanced by the {@link SimulationScheduler}, and keeps track of the
+ * activity needed for detecting quiescence. Other artefacts obtain it from their {@link SimulationContext}; reading
+ * the time directly is more efficient than calling an operation through the CArtAgO infrastructure.
+ */
+public class SimulationClock {
+    static private final Logger logger = Logger.getLogger(Cartago.class.getName());
+    static final long DEFAULT_QUIESCENCE_PERIOD = 20;
+    static final long DEFAULT_FAST_FORWARD_QUIESCENCE_PERIOD = 500;
+
+    private final SimulationContext context;
+    private final SimpleDateFormat iso8601 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+    private volatile TimeMapping mapping = new TimeMapping(0, 0, 1, false);
+    private volatile ClockMode clockMode = ClockMode.WALL_CLOCK;
+    private volatile boolean configured = false;
+
+    // State of the discrete-event clock, which is advanced by the simulation scheduler
+    private volatile long virtualTime;
+    private volatile long lastActivity;
+    private long quiescencePeriod = DEFAULT_QUIESCENCE_PERIOD;
+
+    // Monitoring of wakeup lags
+    private final HdrHistogram awaitLag = new HdrHistogram();
+
+    // State required for detecting quiescence when fast-forwarding over idle periods
+    private final AtomicInteger openOperations = new AtomicInteger();
+    private final List<BooleanSupplier> quiescenceConditions = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param context context of the run the clock belongs to
+     */
+    SimulationClock(SimulationContext context) {
+        this.context = context;
+    }
+
+    /** Configure the clock once the timer artefact of the run gets instantiated.
+     * @param realWorldStart       real world time in milliseconds at the start of the simulation
+     * @param simulationWorldStart simulation time in milliseconds at the start of the simulation
+     * @param simulationSpeed      as a factor of real world time flow
+     * @param clockMode            clock mode
+     * @param quiescencePeriod     real world milliseconds without activity before the clock advances
+     * @return false if the clock has been configured before, i.e. there are multiple timers in the run
+     */
+    synchronized boolean configure(long realWorldStart, long simulationWorldStart, int simulationSpeed,
+                                   ClockMode clockMode, long quiescencePeriod) {
+        if (configured) {
+            return false;
+        }
+        this.mapping = new TimeMapping(realWorldStart, simulationWorldStart, simulationSpeed, false);
+        this.clockMode = clockMode;
+        this.quiescencePeriod = quiescencePeriod;
+        this.virtualTime = simulationWorldStart;
+        noteActivity();
+        configured = true;
+        return true;
+    }
+
+    /**
+     * @return simulation time in milliseconds
+     */
+    public long getSimulationTime() {
+        awaitConfiguration();
+        if (clockMode == ClockMode.DISCRETE_EVENT) {
+            return virtualTime;
+        }
+        return mapping.simulationTime(currentTimeMillis());
+    }
+
+    /**
+     * @return clock mode as configured for the timer artefact
+     */
+    public ClockMode getClockMode() {
+        awaitConfiguration();
+        return clockMode;
+    }
+
+    /**
+     * @return simulation speed as a factor of regular time flow
+     */
+    public int getSimulationSpeed() {
+        awaitConfiguration();
+        return mapping.speed;
+    }
+
+    /**
+     * Create a blocking command for artefacts that need to wait for a duration in simulation time. To be used
+     * as {@code await(clock.sleepFor(...))} instead of {@code await_time(...)}, so that the wakeup is known to the
+     * scheduler.
+     *
+     * @param simulatedMillis duration in simulated milliseconds
+     * @return blocking command to be passed to CArtAgO's await
+     */
+    public SimulationSleep sleepFor(long simulatedMillis) {
+        return sleepUntil(getSimulationTime() + simulatedMillis);
+    }
+
+    /**
+     * Create a blocking command for artefacts that need to wait for a point in simulation time.
+     *
+     * @param simulationTime simulation time in milliseconds to wait for; Long.MAX_VALUE to wait until cancelled
+     * @return blocking command to be passed to CArtAgO's await
+     */
+    public SimulationSleep sleepUntil(long simulationTime) {
+        return new SimulationSleep(this, simulationTime, false);
+    }
+
+    /**
+     * Create a blocking command for parties that are idle while waiting, e.g. agents taking a break. Unlike
+     * {@link #sleepFor(long)}, such sleeps do not prevent fast-forwarding over idle periods.
+     *
+     * @param simulatedMillis duration in simulated milliseconds
+     * @return blocking command to be passed to CArtAgO's await
+     */
+    public SimulationSleep idleSleepFor(long simulatedMillis) {
+        return new SimulationSleep(this, getSimulationTime() + simulatedMillis, true);
+    }
+
+    /**
+     * Take note of an operation starting that keeps the simulation busy (e.g. an agent executing an operation on
+     * a task). Must be paired with {@link #operationFinished()}.
+     */
+    public void operationStarted() {
+        openOperations.incrementAndGet();
+        noteActivity();
+    }
+
+    /**
+     * Take note of an operation registered with {@link #operationStarted()} having finished.
+     */
+    public void operationFinished() {
+        openOperations.decrementAndGet();
+        noteActivity();
+    }
+
+    /**
+     * Register an additional condition that must hold for the simulation to be considered quiescent, e.g. an
+     * empty blackboard.
+     *
+     * @param condition condition evaluated by the scheduler's driver thread
+     */
+    public void addQuiescenceCondition(BooleanSupplier condition) {
+        quiescenceConditions.add(condition);
+    }
+
+    /**
+     * Take note of activity in the simulation, which defers the discrete-event clock from jumping ahead. Called
+     * by the log for every log entry, as agents and artefacts log all their actions.
+     */
+    public void noteActivity() {
+        lastActivity = currentTimeMillis();
+    }
+
+    /**
+     * Block the calling thread until the deadline of a sleep command has been reached in simulation time or
+     * the sleep got cancelled. Runs outside the lock of the calling artefact: the wakeup is registered with the
+     * simulation scheduler.
+     *
+     * @param sleep sleep command
+     */
+    void sleep(SimulationSleep sleep) {
+        // Sleeps without deadline never make the clock advance, but just wait for cancellation:
+        if (sleep.getDeadline() != Long.MAX_VALUE) {
+            if (sleep.getDeadline() <= getSimulationTime() || sleep.isCancelled()) {
+                return;
+            }
+            SimulationScheduler scheduler = context.getScheduler();
+            sleep.setWakeupEvent(sleep.isIdle() ? scheduler.scheduleIdle(sleep.getDeadline(), sleep::wake)
+                                                : scheduler.schedule(sleep.getDeadline(), sleep::wake));
+        }
+        sleep.awaitWakeup();
+        if (!sleep.isCancelled() && sleep.getDeadline() != Long.MAX_VALUE) {
+            awaitLag.record(getSimulationTime() - sleep.getDeadline());
+        }
+    }
+
+    /**
+     * @return distribution of wakeup lags since the last call
+     */
+    HdrHistogram snapshotAwaitLag() {
+        return awaitLag.snapshotAndReset();
+    }
+
+    /**
+     * @return true if the simulation runs in discrete-event mode; does not wait for the timer to be configured
+     */
+    boolean isDiscreteEvent() {
+        return clockMode == ClockMode.DISCRETE_EVENT;
+    }
+
+    /**
+     * @return true if the simulation is paused; does not wait for the timer to be configured
+     */
+    boolean isPaused() {
+        return mapping.paused;
+    }
+
+    /**
+     * @return true if idle periods are skipped in wall-clock mode; does not wait for the timer to be configured
+     */
+    boolean isIdleFastForward() {
+        return clockMode == ClockMode.IDLE_FAST_FORWARD;
+    }
+
+    /**
+     * Rebase the mapping from real world to simulated time, so that a change of speed or a pause does not make
+     * the simulation time jump.
+     *
+     * @param speed  new simulation speed
+     * @param paused true if the simulation time is to stand still
+     */
+    synchronized void rebase(int speed, boolean paused) {
+        long now = currentTimeMillis();
+        mapping = new TimeMapping(now, mapping.simulationTime(now), speed, paused);
+    }
+
+    /**
+     * Skip an idle period in wall-clock mode: if the simulation has been quiescent for the quiescence period, move
+     * the simulated start of the simulation forward so that the simulation time continues at the next event. The
+     * offset only ever grows, so the simulation time remains monotonic for all readers.
+     *
+     * @param nextEventTime simulation time of the next event that keeps the simulation busy
+     * @return 0 if simulated time was moved forward, otherwise real world milliseconds before checking again
+     */
+    long fastForwardIfQuiescent(long nextEventTime) {
+        long skippedMillis = nextEventTime - getSimulationTime();
+
+        // Only skip periods of at least a simulated second, and only if there is an event to skip to at all
+        if (nextEventTime == Long.MAX_VALUE || skippedMillis < 1000) {
+            return Long.MAX_VALUE;
+        }
+
+        long remaining = remainingQuiescence(true);
+        if (remaining > 0) {
+            return remaining;
+        }
+        if (openOperations.get() > 0) {
+            return quiescencePeriod;
+        }
+        for (BooleanSupplier condition : quiescenceConditions) {
+            if (!condition.getAsBoolean()) {
+                return quiescencePeriod;
+            }
+        }
+
+        synchronized (this) {
+            long now = currentTimeMillis();
+            TimeMapping current = mapping;
+            skippedMillis = nextEventTime - current.simulationTime(now);
+            if (current.paused || skippedMillis <= 0) {
+                return Long.MAX_VALUE;
+            }
+            mapping = new TimeMapping(now, nextEventTime, current.speed, false);
+        }
+        context.getLog().env_log(TimerArtifact.class.getName(),
+                                 String.format("Idle fast-forward by %.3f s to %s", skippedMillis / 1000.0,
+                                               iso8601.format(nextEventTime)));
+        return 0;
+    }
+
+    /**
+     * Determine how much longer the discrete-event clock has to wait before the simulation is considered quiescent:
+     * no activity must be seen for the quiescence period, or a quarter of it once all operations woken up by the
+     * previous step went back to sleep.
+     *
+     * @param outstandingWakeups true if operations woken up by the previous step did not go back to sleep yet
+     * @return real world milliseconds to wait; 0 if the simulation is quiescent
+     */
+    long remainingQuiescence(boolean outstandingWakeups) {
+        long period = outstandingWakeups ? quiescencePeriod : Math.max(1, quiescencePeriod / 4);
+        return Math.max(0, period - (currentTimeMillis() - lastActivity));
+    }
+
+    /**
+     * Move the discrete-event clock forward; the clock never moves backwards.
+     *
+     * @param simulationTime new simulation time in milliseconds
+     */
+    void advanceVirtualTime(long simulationTime) {
+        virtualTime = Math.max(virtualTime, simulationTime);
+    }
+
+    /**
+     * Convert a point in simulation time into the real world time remaining until it is reached.
+     *
+     * @param simulationTime simulation time in milliseconds; Long.MAX_VALUE for never
+     * @return real world milliseconds; Long.MAX_VALUE if the point in time is never reached
+     */
+    long realMillisUntil(long simulationTime) {
+        TimeMapping current = mapping;
+        if (simulationTime == Long.MAX_VALUE || current.paused) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, (simulationTime - current.simulationTime(currentTimeMillis()) + current.speed - 1)
+                / current.speed);
+    }
+
+    /**
+     * Make sure that there is a properly configured timer artefact before other methods are made available.
+     */
+    private void awaitConfiguration() {
+        while (!configured) {
+            logger.info(context.getRunId().equals(SimulationContext.DEFAULT_RUN_ID)
+                                ? "Waiting for instantiation of timer artifact."
+                                : "Waiting for instantiation of timer artifact of run " + context.getRunId() + ".");
+            try {
+                TimeUnit.SECONDS.sleep(1);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Immutable linear mapping from real world to simulated time, replaced as a whole upon changes so that
+     * readers never see a partially updated mapping.
+     */
+    private static class TimeMapping {
+        private final long realAnchor;
+        private final long simulationAnchor;
+        private final int speed;
+        private final boolean paused;
+
+        TimeMapping(long realAnchor, long simulationAnchor, int speed, boolean paused) {
+            this.realAnchor = realAnchor;
+            this.simulationAnchor = simulationAnchor;
+            this.speed = speed;
+            this.paused = paused;
+        }
+
+        long simulationTime(long realTime) {
+            return paused ? simulationAnchor : (realTime - realAnchor) * speed + simulationAnchor;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+
+package control;
+
+import cartago.ArtifactId;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * State of one simulation run: its {@link SimulationClock}, {@link SimulationScheduler} and {@link SimulationLog}.
+ * Runs are identified by a run ID, so that several runs (e.g. replications of a scenario) may share one JVM, each
+ * with its own timer, logger and task set.
+ * <p>Artefacts find the run they belong to from the name of their workspace: a run ID is appended to the workspace
+ * name after two underscores, whereas plain workspace names belong to the default run "". Two runs in one JaCaMo
+ * project file are therefore declared like this:
+ * <pre>{@code workspace control__r1 {
+ *         artifact logger: control.LoggerArtifact("Run 1", "log\\r1_log.csv")
+ *         artifact timer: control.TimerArtifact("2023-01-03T06:55:00.00Z",130,"DISCRETE_EVENT")
+ * }
+ * workspace tasks__r1 {
+ *         artifact taskSet: task.TaskSetArtifact("cfg\\simulation_script.yaml", "task_")
+ *         artifact taskBoard: task.BlackboardArtifact
+ * }}</pre>
+ * <p>The static methods of {@link TimerArtifact} and {@link LoggerArtifact} act on the default run.
+ */
+public class SimulationContext {
+    public static final String DEFAULT_RUN_ID = "";
+    static private final String RUN_ID_SEPARATOR = "__";
+    static private final Map<String, SimulationContext> contexts = new ConcurrentHashMap<>();
+    static private final AtomicInteger activeRuns = new AtomicInteger();
+
+    private final String runId;
+    private final SimulationClock clock;
+    private final SimulationScheduler scheduler;
+    private final SimulationLog log;
+    private final Map<String, Long> taskDeadlines = new ConcurrentHashMap<>();
+    private boolean active = false;
+
+    private SimulationContext(String runId) {
+        this.runId = runId;
+        this.clock = new SimulationClock(this);
+        this.scheduler = new SimulationScheduler(this);
+        this.log = new SimulationLog(this);
+    }
+
+    /** Look up the context of a run, creating it upon first use.
+     * @param runId run ID; {@link #DEFAULT_RUN_ID} for the default run
+     * @return context of the run
+     */
+    public static SimulationContext of(String runId) {
+        return contexts.computeIfAbsent(runId, SimulationContext::new);
+    }
+
+    /** Look up the context of the run an artefact belongs to, as given by the name of its workspace.
+     * @param artifactId ID of the artefact
+     * @return context of the run
+     */
+    public static SimulationContext of(ArtifactId artifactId) {
+        return ofWorkspace(artifactId.getWorkspaceId().getName());
+    }
+
+    /** Look up the context of the run a workspace belongs to.
+     * @param workspaceName workspace name, e.g. "control" for the default run or "control__r1" for run "r1"
+     * @return context of the run
+     */
+    public static SimulationContext ofWorkspace(String workspaceName) {
+        int separator = workspaceName.lastIndexOf(RUN_ID_SEPARATOR);
+        return of(separator < 0 ? DEFAULT_RUN_ID : workspaceName.substring(separator + RUN_ID_SEPARATOR.length()));
+    }
+
+    /**
+     * @return context of the default run
+     */
+    public static SimulationContext getDefault() {
+        return of(DEFAULT_RUN_ID);
+    }
+
+    /**
+     * @return run ID; {@link #DEFAULT_RUN_ID} for the default run
+     */
+    public String getRunId() {
+        return runId;
+    }
+
+    /**
+     * @return simulated clock of the run
+     */
+    public SimulationClock getClock() {
+        return clock;
+    }
+
+    /**
+     * @return scheduler of the run
+     */
+    public SimulationScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @return log of the run
+     */
+    public SimulationLog getLog() {
+        return log;
+    }
+
+    /** Take note of the deadline of an open task, as given by its overall timeout.
+     * @param taskName name of the task artefact
+     * @param deadline simulation time in milliseconds at which the task times out
+     */
+    public void setTaskDeadline(String taskName, long deadline) {
+        taskDeadlines.put(taskName, deadline);
+    }
+
+    /** Forget the deadline of a task, e.g. once it has been disposed.
+     * @param taskName name of the task artefact
+     */
+    public void removeTaskDeadline(String taskName) {
+        taskDeadlines.remove(taskName);
+    }
+
+    /** Look up the deadline of an open task.
+     * @param taskName name of the task artefact
+     * @return simulation time in milliseconds at which the task times out; Long.MAX_VALUE if the task is unknown,
+     * closed or has no timeout
+     */
+    public long getTaskDeadline(String taskName) {
+        return taskDeadlines.getOrDefault(taskName, Long.MAX_VALUE);
+    }
+
+    /** Derive the name of an output file of the run from a default name shared by all runs, e.g. one given as
+     * system property: the run ID is inserted before the extension, so that runs do not overwrite each other's
+     * files. File names of the default run remain unchanged.
+     * @param fileName file name, e.g. "log/hi_simulator_kpis.json"
+     * @return file name of the run, e.g. "log/hi_simulator_kpis-r1.json"
+     */
+    public String fileName(String fileName) {
+        if (fileName == null || runId.equals(DEFAULT_RUN_ID)) {
+            return fileName;
+        }
+        int extension = fileName.lastIndexOf('.');
+        if (extension <= Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\'))) {
+            extension = fileName.length();
+        }
+        return fileName.substring(0, extension) + "-" + runId + fileName.substring(extension);
+    }
+
+    /**
+     * Take note of the run having started, i.e. its task set releasing tasks.
+     */
+    public synchronized void runStarted() {
+        if (!active) {
+            active = true;
+            activeRuns.incrementAndGet();
+        }
+    }
+
+    /** Take note of the run having ended.
+     * @return true if no other run of the JVM is still active, so that JaCaMo may be stopped
+     */
+    public synchronized boolean runEnded() {
+        if (active) {
+            active = false;
+            return activeRuns.decrementAndGet() == 0;
+        }
+        return activeRuns.get() == 0;
+    }
+}
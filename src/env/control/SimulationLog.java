@@ -0,0 +1,223 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+
+package control;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Log of a simulation run, as configured by the {@link LoggerArtifact} of the run: log entries are time stamped with
+ * the simulated time of the run and handed over to an {@link AsyncLogWriter}, which writes them to the
+ * {@link LogSink}s of the run. Other artefacts obtain it from their {@link SimulationContext}; see
+ * {@link LoggerArtifact} for the meaning of the fields of a log entry.
+ */
+public class SimulationLog {
+    static private final long FLUSH_TIMEOUT_MILLIS = 10000;
+
+    private final SimulationContext context;
+    private final List<LogSink> sinks = new CopyOnWriteArrayList<>();
+    private final KpiAggregator kpiAggregator = new KpiAggregator();
+    private volatile AsyncLogWriter writer = null;
+    private volatile DisplayLogSink displaySink = null;
+
+    /**
+     * @param context context of the run the log belongs to
+     */
+    SimulationLog(SimulationContext context) {
+        this.context = context;
+    }
+
+    /** Configure the sinks and start the writer once the logger artefact of the run gets instantiated.
+     * @param name         display name to be shown at the top of the window
+     * @param fileName     file name to write the CSV log to
+     * @param headless     true for no GUI windows
+     * @param capacity     number of log entries buffered before backpressure applies
+     * @param backpressure policy applied when the buffer is full
+     * @return false if the log has been configured before, i.e. there are multiple loggers in the run
+     * @throws IOException if a log file cannot be created
+     */
+    synchronized boolean configure(String name, String fileName, boolean headless, int capacity,
+                                   AsyncLogWriter.Backpressure backpressure) throws IOException {
+        if (writer != null) {
+            return false;
+        }
+        String runId = context.getRunId();
+        boolean defaultRun = runId.equals(SimulationContext.DEFAULT_RUN_ID);
+
+        if (!System.getProperty("hi_simulator.log.csv", "true").equalsIgnoreCase("false")) {
+            sinks.add(createCsvLogSink(fileName));
+        }
+        String binaryFileName = System.getProperty("hi_simulator.log.binary");
+        if (binaryFileName != null && !binaryFileName.isEmpty()) {
+            sinks.add(new BinaryLogSink(context.fileName(binaryFileName)));
+        }
+        sinks.add(kpiAggregator);
+        if (!headless) {
+            displaySink = new DisplayLogSink(defaultRun ? name : name + " [" + runId + "]");
+            sinks.add(displaySink);
+        }
+
+        writer = new AsyncLogWriter(capacity, backpressure, sinks, context.getClock(),
+                                    defaultRun ? "hi_simulator log writer" : "hi_simulator log writer " + runId);
+
+        // Flush buffered log entries to the file system at an interval of < 1 seconds (unless configured otherwise)
+        // to protect against loss of logging data in case of failure, without making the scheduler wait for the
+        // writer.
+        context.getScheduler().scheduleHousekeeping(Long.getLong("hi_simulator.log.durability",
+                                                                 LoggerArtifact.DEFAULT_DURABILITY_MILLIS),
+                                                    writer::requestFlush);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::closeSinks, "hi_simulator log flush"));
+        return true;
+    }
+
+    /**
+     * Add a log entry; see {@link LoggerArtifact} for the meaning of the fields.
+     */
+    public void log(String entryType, String caseIdentifier, String activity, String resource, long startTime,
+                    String result, double quality) {
+
+        // Any log entry shows that the simulation is busy, which holds back a discrete-event clock
+        context.getClock().noteActivity();
+
+        // Hand the entry over to the background writer, which formats it and writes it to file and, unless
+        // headless, to display:
+        AsyncLogWriter logWriter = writer;
+        if (logWriter != null) {
+            logWriter.append(entryType, caseIdentifier, activity, resource, context.getClock().getSimulationTime(),
+                             startTime, result, quality);
+        } else {
+            LoggerArtifact.logger.warning("CALL TO STATIC LOGGING ARTIFACT THAT IS NOT YET READY.");
+        }
+    }
+
+    /** Limited environmental log entry with just resource and activity.
+     * @param resource should be class name of calling method
+     * @param activity activity to be written to the log file
+     */
+    public void env_log(String resource, String activity) {
+        log("ENVIRONMENT", "", activity, resource, -1, "", -1);
+    }
+
+    /** Limited environmental log entry.
+     * @param caseIdentifier Task name (string) a log entry should reference
+     * @param resource should be class name of calling method
+     * @param activity activity to be written to the log file
+     */
+    public void env_log(String caseIdentifier, String resource, String activity) {
+        log("ENVIRONMENT", caseIdentifier, activity, resource, -1, "", -1);
+    }
+
+    /** Limited environmental log entry.
+     * @param caseIdentifier Task name (string) a log entry should reference
+     * @param resource should be class name of calling method
+     * @param activity activity to be written to the log file
+     * @param startTime start time for log entries that reference a duration
+     * @param result result
+     */
+    public void env_log(String caseIdentifier, String resource, String activity, long startTime, String result) {
+        log("ENVIRONMENT", caseIdentifier, activity, resource, startTime, result, -1);
+    }
+
+    /** Full environmental log entry
+     * @param caseIdentifier Task name (string) a log entry should reference
+     * @param resource should be class name of calling method
+     * @param activity activity to be written to the log file
+     * @param startTime start time for log entries that reference a duration
+     * @param result result
+     * @param quality percentage of quality for executed operations, otherwise a negative value
+     */
+    public void env_log(String caseIdentifier, String resource, String activity, long startTime, String result,
+                        Double quality) {
+        log("ENVIRONMENT", caseIdentifier, activity, resource, startTime, result, quality);
+    }
+
+    /**
+     * Actively flush buffered log entries to the log files: waits until all log entries logged so far have been
+     * written.
+     */
+    public void flushBuffers() {
+        AsyncLogWriter logWriter = writer;
+        if (logWriter != null) {
+            logWriter.flush(FLUSH_TIMEOUT_MILLIS);
+        }
+    }
+
+    /**
+     * @return key performance indicators aggregated from the log entries written so far
+     */
+    public KpiAggregator getKpiAggregator() {
+        return kpiAggregator;
+    }
+
+    /** Write the key performance indicators aggregated from all log entries logged so far as JSON report.
+     * @param fileName file to write the report to
+     * @throws IOException if the file cannot be written
+     */
+    public void writeKpiReport(String fileName) throws IOException {
+        flushBuffers();
+        Files.writeString(Path.of(fileName), kpiAggregator.toJson());
+    }
+
+    /** Register an independent display for a resource; ignored in headless mode.
+     * @param resource    name of the resource (agent) whose log entries are to be shown
+     * @param displayName title of the display window
+     */
+    void addDisplay(String resource, String displayName) {
+        DisplayLogSink display = displaySink;
+        if (display != null) {
+            display.addDisplay(resource, displayName);
+        }
+    }
+
+    /** Create the CSV log sink with compression and rotation as configured by system properties.
+     * @param fileName file name of the CSV log
+     * @return CSV log sink
+     * @throws IOException if the file cannot be created
+     */
+    static private CsvLogSink createCsvLogSink(String fileName) throws IOException {
+        boolean gzip = fileName.endsWith(".gz")
+                || System.getProperty("hi_simulator.log.compression", "").equalsIgnoreCase("gzip");
+        String rotate = System.getProperty("hi_simulator.log.rotate", "").trim().toUpperCase();
+        long maximumSegmentBytes = 0;
+        CsvLogSink.RotationPeriod rotationPeriod = CsvLogSink.RotationPeriod.NONE;
+
+        if (rotate.equals("DAY") || rotate.equals("HOUR")) {
+            rotationPeriod = CsvLogSink.RotationPeriod.valueOf(rotate);
+        } else if (!rotate.isEmpty()) {
+            String number = rotate.replaceFirst("B$", "");
+            long unit = 1;
+            if (number.endsWith("K") || number.endsWith("M") || number.endsWith("G")) {
+                unit = 1L << (10 * ("KMG".indexOf(number.charAt(number.length() - 1)) + 1));
+                number = number.substring(0, number.length() - 1);
+            }
+            try {
+                maximumSegmentBytes = Long.parseLong(number.trim()) * unit;
+            } catch (NumberFormatException e) {
+                LoggerArtifact.logger.warning("Ignoring invalid log rotation '" + rotate
+                                                      + "': expected DAY, HOUR or a size like 256MB");
+            }
+        }
+
+        return new CsvLogSink(fileName, gzip, maximumSegmentBytes, rotationPeriod);
+    }
+
+    /**
+     * Write all log entries and close the sinks at the end of the process, which completes compressed files. The
+     * sinks are closed by the writer thread; log entries arriving afterwards are discarded.
+     */
+    private void closeSinks() {
+        AsyncLogWriter logWriter = writer;
+        if (logWriter != null) {
+            logWriter.close(FLUSH_TIMEOUT_MILLIS);
+        }
+    }
+}
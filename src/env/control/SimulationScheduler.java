@@ -0,0 +1,388 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+
+package control;
+
+import jacamo.platform.Cartago;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Logger;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Central scheduler of a simulation run: artefacts register actions for a point in simulation time instead of
+ * running their own polling loops, which would each hold a CArtAgO thread. Events are indexed in a hierarchical
+ * {@link TimingWheel}; a single driver thread per run executes them once due. Artefacts obtain the scheduler of
+ * their run from their {@link SimulationContext}.
+ * <p>Two kinds of actions are supported:
+ * <ul>
+ * <li>simulation events, registered with {@link #schedule(long, Runnable)}, which are due at a point in simulation
+ * time and which make a discrete-event clock advance;</li>
+ * <li>idle events, registered with {@link #scheduleIdle(long, Runnable)}, which are due at a point in simulation time
+ * as well, but which do not hold back an idle fast-forward (e.g. agents waiting during a break);</li>
+ * <li>housekeeping actions, registered with {@link #scheduleHousekeeping(long, Runnable)}, which run periodically
+ * in real world time (e.g. publishing the time or flushing the log) and never make the clock advance.</li>
+ * </ul>
+ * <p>Actions run on the driver thread and must therefore be short. Actions that modify an artefact have to do so
+ * within an external session of that artefact (see CArtAgO's {@code beginExternalSession}).
+ */
+public class SimulationScheduler {
+    private static final Logger logger = Logger.getLogger(Cartago.class.getName());
+    private static final long TICK_MILLIS = 100;
+    private static final int WHEEL_SIZE = 64;
+
+    private final Object lock = new Object();
+    private final PriorityQueue<TimingWheel.Bucket> buckets = new PriorityQueue<>();
+    private final PriorityQueue<ScheduledEvent> dueEvents =
+            new PriorityQueue<>(Comparator.comparingLong(ScheduledEvent::getTime));
+    private final PriorityQueue<ScheduledEvent> idleEvents =
+            new PriorityQueue<>(Comparator.comparingLong(ScheduledEvent::getTime));
+    private final PriorityQueue<ScheduledEvent> housekeeping =
+            new PriorityQueue<>(Comparator.comparingLong(ScheduledEvent::getTime));
+    private final SimulationContext context;
+    private TimingWheel wheel = null;
+    private Thread driver = null;
+    private long plannedWakeup = Long.MAX_VALUE;
+    private boolean signalled = false;
+    private int outstandingWakeups = 0;
+
+    /**
+     * @param context context of the run the scheduler belongs to
+     */
+    SimulationScheduler(SimulationContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Start scheduling simulation events: called once by the timer artefact as soon as the simulation time is
+     * available.
+     *
+     * @param startTime simulation time in milliseconds at the start of the simulation
+     */
+    void start(long startTime) {
+        synchronized (lock) {
+            wheel = new TimingWheel(TICK_MILLIS, WHEEL_SIZE, startTime, buckets);
+            ensureDriver();
+            signalDriver();
+        }
+    }
+
+    /**
+     * Register an action to be executed once at a point in simulation time.
+     *
+     * @param simulationTime simulation time in milliseconds
+     * @param action         action to be executed by the scheduler's driver thread
+     * @return handle for cancelling the action
+     */
+    public ScheduledEvent schedule(long simulationTime, Runnable action) {
+        ScheduledEvent event = new ScheduledEvent(simulationTime, 0, action);
+
+        synchronized (lock) {
+            insert(event);
+            // Every new event may stem from an operation woken up by the last discrete-event step
+            outstandingWakeups = Math.max(0, outstandingWakeups - 1);
+            if (simulationTime < plannedWakeup) {
+                signalDriver();
+            }
+        }
+        return event;
+    }
+
+    /**
+     * Register an action to be executed once at a point in simulation time, without that event preventing the
+     * simulation from being considered idle. There are usually only few idle events (e.g. one per agent taking a
+     * break), so that they are kept in a plain priority queue.
+     *
+     * @param simulationTime simulation time in milliseconds
+     * @param action         action to be executed by the scheduler's driver thread
+     * @return handle for cancelling the action
+     */
+    public ScheduledEvent scheduleIdle(long simulationTime, Runnable action) {
+        ScheduledEvent event = new ScheduledEvent(simulationTime, 0, action);
+
+        synchronized (lock) {
+            idleEvents.add(event);
+            outstandingWakeups = Math.max(0, outstandingWakeups - 1);
+            if (simulationTime < plannedWakeup) {
+                signalDriver();
+            }
+        }
+        return event;
+    }
+
+    /**
+     * Register an action to be executed periodically in real world time.
+     *
+     * @param periodMillis real world milliseconds between two executions
+     * @param action       action to be executed by the scheduler's driver thread
+     * @return handle for cancelling the action
+     */
+    public ScheduledEvent scheduleHousekeeping(long periodMillis, Runnable action) {
+        ScheduledEvent event = new ScheduledEvent(currentTimeMillis() + periodMillis, periodMillis, action);
+
+        synchronized (lock) {
+            housekeeping.add(event);
+            ensureDriver();
+            signalDriver();
+        }
+        return event;
+    }
+
+    /**
+     * Make the driver re-plan its wakeups after the timer changed the mapping from real world to simulated time.
+     */
+    void clockChanged() {
+        synchronized (lock) {
+            signalDriver();
+        }
+    }
+
+    /**
+     * @return number of operations woken up by the last discrete-event step that did not yet register a new event
+     */
+    int getOutstandingWakeups() {
+        synchronized (lock) {
+            return outstandingWakeups;
+        }
+    }
+
+    /**
+     * Determine the exact time of the next pending simulation event. This may move the timing wheel ahead of the
+     * current simulation time, which is harmless: events scheduled for earlier times then bypass the wheel.
+     *
+     * @return simulation time of the next event in milliseconds; Long.MAX_VALUE if there is none
+     */
+    long nextEventTime() {
+        synchronized (lock) {
+            return Math.min(nextBusyEventTime(), nextIdleEventTime());
+        }
+    }
+
+    /**
+     * Determine the exact time of the next pending simulation event, disregarding idle events.
+     *
+     * @return simulation time of the next event in milliseconds; Long.MAX_VALUE if there is none
+     */
+    long nextBusyEventTime() {
+        synchronized (lock) {
+            while (true) {
+                while (!dueEvents.isEmpty() && dueEvents.peek().isCancelled()) {
+                    dueEvents.poll();
+                }
+                if (!dueEvents.isEmpty()) {
+                    return dueEvents.peek().getTime();
+                }
+                if (buckets.isEmpty()) {
+                    return Long.MAX_VALUE;
+                }
+                flushBuckets(buckets.peek().getExpiration());
+            }
+        }
+    }
+
+    private long nextIdleEventTime() {
+        while (!idleEvents.isEmpty() && idleEvents.peek().isCancelled()) {
+            idleEvents.poll();
+        }
+        return idleEvents.isEmpty() ? Long.MAX_VALUE : idleEvents.peek().getTime();
+    }
+
+    /**
+     * Execute all simulation events due at or before a point in simulation time.
+     *
+     * @param simulationTime simulation time in milliseconds
+     * @return number of events executed
+     */
+    int runDueEvents(long simulationTime) {
+        List<ScheduledEvent> due = new ArrayList<>();
+
+        synchronized (lock) {
+            flushBuckets(simulationTime);
+            while (!dueEvents.isEmpty() && dueEvents.peek().getTime() <= simulationTime) {
+                ScheduledEvent event = dueEvents.poll();
+                if (!event.isCancelled()) {
+                    due.add(event);
+                }
+            }
+            while (!idleEvents.isEmpty() && idleEvents.peek().getTime() <= simulationTime) {
+                ScheduledEvent event = idleEvents.poll();
+                if (!event.isCancelled()) {
+                    due.add(event);
+                }
+            }
+            outstandingWakeups = due.size();
+        }
+
+        for (ScheduledEvent event : due) {
+            run(event);
+        }
+        return due.size();
+    }
+
+    /**
+     * Insert an event into the timing wheel, or into the queue of due events if it is due within the current tick.
+     */
+    private void insert(ScheduledEvent event) {
+        if (wheel == null || !wheel.add(event)) {
+            dueEvents.add(event);
+        }
+    }
+
+    /**
+     * Flush all buckets of the timing wheel that expire at or before a point in time, re-inserting their events.
+     */
+    private void flushBuckets(long simulationTime) {
+        while (!buckets.isEmpty() && buckets.peek().getExpiration() <= simulationTime) {
+            TimingWheel.Bucket bucket = buckets.poll();
+            wheel.advanceClock(bucket.getExpiration());
+            for (ScheduledEvent event : bucket.flush()) {
+                if (!event.isCancelled()) {
+                    insert(event);
+                }
+            }
+        }
+        if (wheel != null) {
+            wheel.advanceClock(simulationTime);
+        }
+    }
+
+    /**
+     * Earliest simulation time at which the driver needs to look at the simulation events again. Unlike
+     * {@link #nextEventTime()}, this does not move the wheel and may be earlier than the next event.
+     */
+    private long nextWakeupTime() {
+        synchronized (lock) {
+            long next = buckets.isEmpty() ? Long.MAX_VALUE : buckets.peek().getExpiration();
+            while (!dueEvents.isEmpty() && dueEvents.peek().isCancelled()) {
+                dueEvents.poll();
+            }
+            next = Math.min(next, nextIdleEventTime());
+            return dueEvents.isEmpty() ? next : Math.min(next, dueEvents.peek().getTime());
+        }
+    }
+
+    /**
+     * Execute due housekeeping actions and re-register periodic ones.
+     *
+     * @return real world milliseconds until the next housekeeping action is due
+     */
+    private long runHousekeeping() {
+        List<ScheduledEvent> due = new ArrayList<>();
+
+        synchronized (lock) {
+            while (!housekeeping.isEmpty() && housekeeping.peek().getTime() <= currentTimeMillis()) {
+                ScheduledEvent event = housekeeping.poll();
+                if (!event.isCancelled()) {
+                    due.add(event);
+                }
+            }
+        }
+
+        for (ScheduledEvent event : due) {
+            run(event);
+            if (event.getPeriod() > 0 && !event.isCancelled()) {
+                event.reschedule(currentTimeMillis() + event.getPeriod());
+                synchronized (lock) {
+                    housekeeping.add(event);
+                }
+            }
+        }
+
+        synchronized (lock) {
+            return housekeeping.isEmpty() ? Long.MAX_VALUE
+                    : Math.max(0, housekeeping.peek().getTime() - currentTimeMillis());
+        }
+    }
+
+    /**
+     * Execute an action, making sure that a failing action does not stop the driver thread.
+     */
+    private void run(ScheduledEvent event) {
+        try {
+            event.getAction().run();
+        } catch (RuntimeException e) {
+            logger.warning("Scheduled action failed: " + e);
+        }
+    }
+
+    /**
+     * Main loop of the driver thread: run housekeeping, then either execute simulation events once they are due
+     * in wall-clock mode (skipping idle periods if configured), or advance the discrete-event clock whenever the
+     * simulation is quiescent. While the simulation is paused, only housekeeping actions are executed.
+     */
+    private void drive() {
+        SimulationClock clock = context.getClock();
+
+        while (true) {
+            long waitMillis = runHousekeeping();
+            long wakeup = Long.MAX_VALUE;
+
+            if (wheel != null && !clock.isPaused()) {
+                if (clock.isDiscreteEvent()) {
+                    wakeup = nextEventTime();
+                    if (wakeup != Long.MAX_VALUE) {
+                        long quiescence = clock.remainingQuiescence(getOutstandingWakeups() > 0);
+                        if (quiescence > 0) {
+                            waitMillis = Math.min(waitMillis, quiescence);
+                        } else {
+                            clock.advanceVirtualTime(wakeup);
+                            runDueEvents(wakeup);
+                            clock.noteActivity();
+                            continue;
+                        }
+                    }
+                } else {
+                    runDueEvents(clock.getSimulationTime());
+                    if (clock.isIdleFastForward()) {
+                        long recheck = clock.fastForwardIfQuiescent(nextBusyEventTime());
+                        if (recheck == 0) {
+                            continue;
+                        }
+                        waitMillis = Math.min(waitMillis, recheck);
+                    }
+                    wakeup = nextWakeupTime();
+                    waitMillis = Math.min(waitMillis, clock.realMillisUntil(wakeup));
+                }
+            }
+
+            synchronized (lock) {
+                plannedWakeup = wakeup;
+                try {
+                    if (!signalled && waitMillis > 0) {
+                        lock.wait(waitMillis == Long.MAX_VALUE ? 0 : waitMillis);
+                    }
+                } catch (InterruptedException e) {
+                    logger.info("Simulation scheduler interrupted.");
+                    return;
+                }
+                signalled = false;
+                // While the driver is busy, any new event must make it look again before waiting
+                plannedWakeup = Long.MAX_VALUE;
+            }
+        }
+    }
+
+    private void signalDriver() {
+        signalled = true;
+        lock.notifyAll();
+    }
+
+    private void ensureDriver() {
+        if (driver == null) {
+            String runId = context.getRunId();
+            driver = new Thread(this::drive, runId.equals(SimulationContext.DEFAULT_RUN_ID) ? "hi_simulator scheduler"
+                    : "hi_simulator scheduler " + runId);
+            driver.setDaemon(true);
+            driver.start();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+
+package control;
+
+import cartago.IBlockingCmd;
+
+/**
+ * Blocking command that suspends an artefact operation until a point in simulation time has been reached. Other
+ * artefacts obtain instances through {@link SimulationClock#sleepFor(long)} or
+ * {@link SimulationClock#sleepUntil(long)} of the clock of their run and pass them to CArtAgO like this:
+ * <p>{@code
+ * await(clock.sleepFor(1000));
+ * }
+ * <p>Unlike a plain {@code await_time}, the wakeup is registered with the {@link SimulationScheduler}, which
+ * allows simulated time to jump directly to it when running in {@link ClockMode#DISCRETE_EVENT} mode. A sleep may
+ * be cancelled early, e.g. when the deadline a caller waits for has become obsolete.
+ */
+public class SimulationSleep implements IBlockingCmd {
+    private final SimulationClock clock;
+    private final long deadline;
+    private final boolean idle;
+    private boolean woken = false;
+    private boolean cancelled = false;
+    private ScheduledEvent wakeupEvent = null;
+
+    /**
+     * Create a new sleep command.
+     * @param clock    clock of the run the sleep is measured in
+     * @param deadline simulation time in milliseconds at which the sleep ends; Long.MAX_VALUE for sleeping until
+     *                 cancelled
+     * @param idle     true if the sleeping party is idle, which allows the timer to fast-forward over the sleep
+     */
+    SimulationSleep(SimulationClock clock, long deadline, boolean idle) {
+        this.clock = clock;
+        this.deadline = deadline;
+        this.idle = idle;
+    }
+
+    /**
+     * @return simulation time in milliseconds at which the sleep ends
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @return true if the sleeping party is idle
+     */
+    public boolean isIdle() {
+        return idle;
+    }
+
+    /**
+     * End the sleep before its deadline: the suspended operation resumes immediately.
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        notifyAll();
+        if (wakeupEvent != null) {
+            wakeupEvent.cancel();
+        }
+    }
+
+    /**
+     * @return true if the sleep has been cancelled before reaching its deadline
+     */
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Take note of the scheduler event that wakes up this sleep, so that it can be withdrawn upon cancellation.
+     * @param wakeupEvent event registered with the simulation scheduler
+     */
+    synchronized void setWakeupEvent(ScheduledEvent wakeupEvent) {
+        this.wakeupEvent = wakeupEvent;
+        if (cancelled) {
+            wakeupEvent.cancel();
+        }
+    }
+
+    /**
+     * Wake up the sleeping operation as its deadline has been reached in simulation time.
+     */
+    synchronized void wake() {
+        woken = true;
+        notifyAll();
+    }
+
+    /**
+     * Wait for a wakeup or cancellation.
+     */
+    synchronized void awaitWakeup() {
+        try {
+            while (!woken && !cancelled) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Executed by CArtAgO outside the artefact's lock: block until the deadline has been reached.
+     */
+    @Override
+    public void exec() {
+        clock.sleep(this);
+    }
+}
@@ -13,7 +13,7 @@ import jacamo.platform.Cartago;
 
 import java.text.SimpleDateFormat;
 import java.time.Instant;
-import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 import java.util.logging.Logger;
 
 import static java.lang.System.currentTimeMillis;
@@ -26,53 +26,130 @@ import static java.lang.System.currentTimeMillis;
  * artifact timer: simulationtimer.TimerArtifact("2023-01-03T07:00:00.00Z",2)
  * }
  * <p>Whereas the first parameter is the real world start date/time in ISO8601 format and the second parameter is
- * the simulation speed factor (integer).
- * <p>Note that there may only be a single instance of that artefact in any given simulation project (singleton).
+ * the simulation speed factor (integer). An optional third parameter selects the {@link ClockMode}: with
+ * {@code "DISCRETE_EVENT"}, simulated time no longer follows the real world clock but jumps to the next pending
+ * wakeup as soon as all agents and artefacts are waiting, so that a simulation runs as fast as possible:
+ * <p>{@code
+ * artifact timer: control.TimerArtifact("2023-01-03T07:00:00.00Z",130,"DISCRETE_EVENT")
+ * }
+ * <p>With {@code "IDLE_FAST_FORWARD"}, simulated time follows the real world clock, but idle periods are skipped:
+ * once there are no open operations, no pending {@code await} and all registered quiescence conditions hold (e.g.
+ * an empty blackboard), simulated time jumps to the next pending event, usually the start of the next storybook
+ * task. Agents that merely wait for work to arrive should use {@code awaitIdle} rather than {@code await}.
+ * <p>Quiescence is detected by the absence of activity (log entries, operations being woken up) during a short
+ * real world period, which may be passed as fourth parameter in milliseconds.
+ * <p>The simulation may be paused, resumed and sped up or slowed down at runtime; the mapping from real world to
+ * simulated time is rebased upon every change, so that the simulation time remains continuous. The lag between
+ * the requested and the actual wakeup of every {@code await} is recorded and logged as a histogram at regular
+ * intervals. An optional fifth parameter sets a bound in simulated milliseconds for that lag: the simulation speed
+ * is then adapted automatically, never exceeding the configured speed:
+ * <p>{@code
+ * artifact timer: control.TimerArtifact("2023-01-03T07:00:00.00Z",130,"WALL_CLOCK",20,5000)
+ * }
+ * <p>The timer configures the {@link SimulationClock} of its run (see {@link SimulationContext}); there may only
+ * be a single instance of that artefact per run (singleton). The static methods of this class act on the clock of
+ * the default run.
  */
 public class TimerArtifact extends Artifact {
     private static final Logger logger = Logger.getLogger(Cartago.class.getName());
     private static final SimpleDateFormat iso8601 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-    private static long realWorldStart;
-    private static long simulationWorldStart;
-    private static int simulationSpeed;
-    private static ArtifactId timerArtifactId = null;
+    private SimulationContext context;
+    private SimulationClock clock;
+    private long lastPublishedTime = -1;
+
+    // Monitoring of wakeup lags and adaptive speed control
+    private static final long LAG_REVIEW_PERIOD = 10000;
+    private long maximumAwaitLag = 0;
+    private int maximumSpeed;
+    private ScheduledEvent publishTimeEvent = null;
 
     /**
-     * Provide direct access to current simulation time for other artefacts. This enables higher efficiency
-     * than calling an operation through the CArtAgO infrastructure. Due to the static and deterministic
-     * nature of this method, this is non-problematic.
+     * Provide direct access to current simulation time of the default run for other artefacts. This enables higher
+     * efficiency than calling an operation through the CArtAgO infrastructure.
      *
      * @return simulation time in milliseconds
      */
     static public long getSimulationTime() {
-        awaitConfiguration();
-        return (currentTimeMillis() - realWorldStart) * simulationSpeed + simulationWorldStart;
+        return SimulationContext.getDefault().getClock().getSimulationTime();
     }
 
     /**
-     * Provide direct access to current simulation speed for other artefacts. This enables higher efficiency
-     * than calling an operation through the CArtAgO infrastructure. Due to the static and deterministic
-     * nature of this method, this is non-problematic.
+     * Provide direct access to the clock mode the default run is running in.
      *
-     * @return simulation speed as a factor of regular time flow
+     * @return clock mode as configured for the timer artefact
      */
-    static public int getSimulationSpeed() {
-        awaitConfiguration();
-        return TimerArtifact.simulationSpeed;
+    static public ClockMode getClockMode() {
+        return SimulationContext.getDefault().getClock().getClockMode();
     }
 
     /**
-     * Make sure that there is a properly configured timer artefact before other methods are made available.
+     * Create a blocking command for artefacts of the default run that need to wait for a duration in simulation
+     * time; see {@link SimulationClock#sleepFor(long)}.
+     *
+     * @param simulatedMillis duration in simulated milliseconds
+     * @return blocking command to be passed to CArtAgO's await
      */
-    static private void awaitConfiguration() {
-        while (timerArtifactId == null) {
-            logger.info("Waiting for instantiation of timer artifact.");
-            try {
-                TimeUnit.SECONDS.sleep(1);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-        }
+    static public SimulationSleep sleepFor(long simulatedMillis) {
+        return SimulationContext.getDefault().getClock().sleepFor(simulatedMillis);
+    }
+
+    /**
+     * Create a blocking command for artefacts of the default run that need to wait for a point in simulation time.
+     *
+     * @param simulationTime simulation time in milliseconds to wait for; Long.MAX_VALUE to wait until cancelled
+     * @return blocking command to be passed to CArtAgO's await
+     */
+    static public SimulationSleep sleepUntil(long simulationTime) {
+        return SimulationContext.getDefault().getClock().sleepUntil(simulationTime);
+    }
+
+    /**
+     * Create a blocking command for idle parties of the default run; see {@link SimulationClock#idleSleepFor(long)}.
+     *
+     * @param simulatedMillis duration in simulated milliseconds
+     * @return blocking command to be passed to CArtAgO's await
+     */
+    static public SimulationSleep idleSleepFor(long simulatedMillis) {
+        return SimulationContext.getDefault().getClock().idleSleepFor(simulatedMillis);
+    }
+
+    /**
+     * Take note of an operation of the default run starting that keeps the simulation busy.
+     */
+    static public void operationStarted() {
+        SimulationContext.getDefault().getClock().operationStarted();
+    }
+
+    /**
+     * Take note of an operation registered with {@link #operationStarted()} having finished.
+     */
+    static public void operationFinished() {
+        SimulationContext.getDefault().getClock().operationFinished();
+    }
+
+    /**
+     * Register an additional condition that must hold for the default run to be considered quiescent.
+     *
+     * @param condition condition evaluated by the scheduler's driver thread
+     */
+    static public void addQuiescenceCondition(BooleanSupplier condition) {
+        SimulationContext.getDefault().getClock().addQuiescenceCondition(condition);
+    }
+
+    /**
+     * Take note of activity in the default run, which defers the discrete-event clock from jumping ahead.
+     */
+    static public void noteActivity() {
+        SimulationContext.getDefault().getClock().noteActivity();
+    }
+
+    /**
+     * Provide direct access to current simulation speed of the default run for other artefacts.
+     *
+     * @return simulation speed as a factor of regular time flow
+     */
+    static public int getSimulationSpeed() {
+        return SimulationContext.getDefault().getClock().getSimulationSpeed();
     }
 
     /**
@@ -80,21 +157,71 @@ public class TimerArtifact extends Artifact {
      *
      * @param simulationWorldStartISO8601 ISO8601 formatted starting point in real world time
      * @param simulationSpeed             as a factor of real world time flow
-     * @throws ArtifactAlreadyPresentException if multiple timers configured for a JaCaMo project
+     * @throws ArtifactAlreadyPresentException if multiple timers configured for a run
      */
     void init(String simulationWorldStartISO8601, int simulationSpeed) throws ArtifactAlreadyPresentException {
+        init(simulationWorldStartISO8601, simulationSpeed, ClockMode.WALL_CLOCK.name());
+    }
+
+    /**
+     * Configure the timer artefact singleton with a specific clock mode.
+     *
+     * @param simulationWorldStartISO8601 ISO8601 formatted starting point in real world time
+     * @param simulationSpeed             as a factor of real world time flow
+     * @param clockMode                   "WALL_CLOCK", "IDLE_FAST_FORWARD" or "DISCRETE_EVENT"
+     * @throws ArtifactAlreadyPresentException if multiple timers configured for a run
+     */
+    void init(String simulationWorldStartISO8601, int simulationSpeed, String clockMode) throws ArtifactAlreadyPresentException {
+        init(simulationWorldStartISO8601, simulationSpeed, clockMode,
+             (int) (ClockMode.valueOf(clockMode) == ClockMode.IDLE_FAST_FORWARD
+                     ? SimulationClock.DEFAULT_FAST_FORWARD_QUIESCENCE_PERIOD
+                     : SimulationClock.DEFAULT_QUIESCENCE_PERIOD));
+    }
 
-        // Make sure we have only one timer artefact running
-        if (timerArtifactId != null) {
+    /**
+     * Configure the timer artefact singleton with a specific clock mode and quiescence period.
+     *
+     * @param simulationWorldStartISO8601 ISO8601 formatted starting point in real world time
+     * @param simulationSpeed             as a factor of real world time flow
+     * @param clockMode                   "WALL_CLOCK", "IDLE_FAST_FORWARD" or "DISCRETE_EVENT"
+     * @param quiescencePeriod            real world milliseconds without activity before the clock advances to
+     *                                    the next event
+     * @throws ArtifactAlreadyPresentException if multiple timers configured for a run
+     */
+    void init(String simulationWorldStartISO8601, int simulationSpeed, String clockMode, int quiescencePeriod) throws ArtifactAlreadyPresentException {
+        init(simulationWorldStartISO8601, simulationSpeed, clockMode, quiescencePeriod, 0);
+    }
+
+    /**
+     * Configure the timer artefact singleton with a specific clock mode, quiescence period and adaptive speed.
+     *
+     * @param simulationWorldStartISO8601 ISO8601 formatted starting point in real world time
+     * @param simulationSpeed             as a factor of real world time flow; upper bound for adaptive speed
+     * @param clockMode                   "WALL_CLOCK", "IDLE_FAST_FORWARD" or "DISCRETE_EVENT"
+     * @param quiescencePeriod            real world milliseconds without activity before the clock advances to
+     *                                    the next event
+     * @param maximumAwaitLag             simulated milliseconds an await may wake up late before the simulation
+     *                                    speed is lowered; 0 for a fixed simulation speed
+     * @throws ArtifactAlreadyPresentException if multiple timers configured for a run
+     */
+    void init(String simulationWorldStartISO8601, int simulationSpeed, String clockMode, int quiescencePeriod,
+              int maximumAwaitLag) throws ArtifactAlreadyPresentException {
+
+        // Initialise timer artefact, making sure we have only one timer artefact per run: As there are never
+        // multiple threads initialising a CArtAgO artefact, configuring the clock once is adequate for guaranteeing
+        // that this remains a singleton.
+        context = SimulationContext.of(getId());
+        clock = context.getClock();
+        long realWorldStart = currentTimeMillis();
+        long simulationWorldStart = Instant.parse(simulationWorldStartISO8601).toEpochMilli();
+        if (!clock.configure(realWorldStart, simulationWorldStart, simulationSpeed, ClockMode.valueOf(clockMode),
+                             quiescencePeriod)) {
             logger.warning("Multiple instances of simulation timer not allowed (timer must be singleton).");
-            throw new ArtifactAlreadyPresentException("TimerArtifact", "unknown workspace");
+            throw new ArtifactAlreadyPresentException("TimerArtifact", getId().getWorkspaceId().getName());
         }
-
-        // Initialise timer artefact
         logger.info("Initializing simulation timer artifact.");
-        realWorldStart = currentTimeMillis();
-        simulationWorldStart = Instant.parse(simulationWorldStartISO8601).toEpochMilli();
-        TimerArtifact.simulationSpeed = simulationSpeed;
+        this.maximumSpeed = simulationSpeed;
+        this.maximumAwaitLag = maximumAwaitLag;
 
         // Make observable properties available
         defineObsProperty("simulationworld_start_ISO8601", iso8601.format(simulationWorldStart));
@@ -102,37 +229,146 @@ public class TimerArtifact extends Artifact {
         defineObsProperty("simulation_time_ISO8601", iso8601.format(simulationWorldStart));
         defineObsProperty("simulation_time", simulationWorldStart);
         defineObsProperty("simulation_speed", simulationSpeed);
+        defineObsProperty("simulation_paused", false);
+        defineObsProperty("clock_mode", clockMode);
 
-        // Initiate regular updating of observable current date/time property
-        execInternalOp("publishTime");
+        // Start the scheduler and the regular updating of observable current date/time property, quicker than
+        // once per simulated second:
+        SimulationScheduler scheduler = context.getScheduler();
+        scheduler.start(simulationWorldStart);
+        publishTimeEvent = scheduler.scheduleHousekeeping(Math.max(1, 800 / simulationSpeed), this::publishTime);
+        scheduler.scheduleHousekeeping(LAG_REVIEW_PERIOD, this::reviewAwaitLag);
+    }
 
-        // Take note of the newly created timer artefact: As there are never multiple threads initialising a
-        // CArtAgO artefact, this is adequate for guaranteeing that this remains a singleton.
-        timerArtifactId = this.getId();
+    /**
+     * Rebase the mapping from real world to simulated time, so that a change of speed or a pause does not make
+     * the simulation time jump, and update the observable properties accordingly.
+     *
+     * @param speed  new simulation speed
+     * @param paused true if the simulation time is to stand still
+     */
+    private void changeClock(int speed, boolean paused) {
+        clock.rebase(speed, paused);
+        getObsProperty("simulation_speed").updateValue(speed);
+        getObsProperty("simulation_paused").updateValue(paused);
+
+        // Keep publishing the time quicker than once per simulated second, and let the scheduler re-plan wakeups
+        publishTimeEvent.cancel();
+        publishTimeEvent = context.getScheduler().scheduleHousekeeping(Math.max(1, 800 / speed), this::publishTime);
+        context.getScheduler().clockChanged();
+        clock.noteActivity();
     }
 
     /**
-     * CArtAgO-internal operation that never ends and regularly updates the observable simulation time:
-     * To be called only once when the timer artefact is initialised.
+     * Housekeeping action of the simulation scheduler that logs the distribution of wakeup lags since the last
+     * review and, if configured, adapts the simulation speed: the speed is lowered by a quarter whenever the 95th
+     * percentile exceeds the maximum lag, and raised again towards the configured speed when it falls below a
+     * quarter of the maximum lag.
      */
-    @INTERNAL_OPERATION
-    void publishTime() {
-        while (true) {
-            // Update the observable simulation time in ISO format
-            getObsProperty("simulation_time_ISO8601").updateValue(iso8601.format(getSimulationTime()));
-            getObsProperty("simulation_time").updateValue(getSimulationTime());
+    private void reviewAwaitLag() {
+        HdrHistogram lags = clock.snapshotAwaitLag();
+        if (lags.getCount() == 0) {
+            return;
+        }
+        context.getLog().env_log(TimerArtifact.class.getName(), "Await lag in simulated ms: " + lags);
 
-            // Make sure the updates happen quicker and at least once per simulated second:
-            await_time(800 / getSimulationSpeed());
+        if (maximumAwaitLag <= 0 || clock.isPaused() || clock.isDiscreteEvent()) {
+            return;
+        }
+        long lag = lags.getPercentile(95);
+        int currentSpeed = clock.getSimulationSpeed();
+        int speed = currentSpeed;
+        if (lag > maximumAwaitLag) {
+            speed = Math.max(1, speed * 3 / 4);
+        } else if (lag < maximumAwaitLag / 4) {
+            speed = Math.min(maximumSpeed, speed + Math.max(1, speed / 4));
+        }
+        if (speed != currentSpeed) {
+            context.getLog().env_log(TimerArtifact.class.getName(),
+                                     String.format("Adaptive speed: %d -> %d (p95 await lag %d ms)",
+                                                   currentSpeed, speed, lag));
+            beginExternalSession();
+            try {
+                changeClock(speed, false);
+            } finally {
+                endExternalSession(true);
+            }
         }
     }
 
+    /**
+     * Housekeeping action of the simulation scheduler that updates the observable simulation time from outside
+     * CArtAgO's operation threads. In discrete-event mode, the time only changes when the clock advances.
+     */
+    private void publishTime() {
+        long simulationTime = clock.getSimulationTime();
+
+        if (simulationTime != lastPublishedTime) {
+            beginExternalSession();
+            try {
+                // Update the observable simulation time in ISO format
+                getObsProperty("simulation_time_ISO8601").updateValue(iso8601.format(simulationTime));
+                getObsProperty("simulation_time").updateValue(simulationTime);
+                lastPublishedTime = simulationTime;
+            } finally {
+                endExternalSession(true);
+            }
+        }
+    }
+
+    /** Pause the simulation: the simulation time stands still until the simulation is resumed.
+     */
+    @OPERATION
+    void pause() {
+        if (!clock.isPaused()) {
+            changeClock(clock.getSimulationSpeed(), true);
+            context.getLog().env_log(TimerArtifact.class.getName(), "Simulation paused");
+        }
+    }
+
+    /** Resume a paused simulation, continuing at the simulation time at which it was paused.
+     */
+    @OPERATION
+    void resume() {
+        if (clock.isPaused()) {
+            changeClock(clock.getSimulationSpeed(), false);
+            context.getLog().env_log(TimerArtifact.class.getName(), "Simulation resumed");
+        }
+    }
+
+    /** Change the simulation speed without the simulation time jumping. If the speed is adapted automatically,
+     * the new speed becomes its upper bound.
+     * @param simulationSpeed new simulation speed as a factor of real world time flow
+     */
+    @OPERATION
+    void setSpeed(int simulationSpeed) {
+        if (simulationSpeed < 1) {
+            failed("Simulation speed must be a positive integer");
+        }
+        maximumSpeed = simulationSpeed;
+        changeClock(simulationSpeed, clock.isPaused());
+        context.getLog().env_log(TimerArtifact.class.getName(), "Simulation speed set to " + simulationSpeed);
+    }
+
     /** Simulate the waiting of an agent for a specified amount of time.
      * @param simulatedSeconds (Simulated) seconds to keep an agent waiting.
      */
     @OPERATION
     void await(int simulatedSeconds) {
-        await_time(simulatedSeconds * 1000L / getSimulationSpeed());
+        clock.operationStarted();
+        try {
+            await(clock.sleepFor(simulatedSeconds * 1000L));
+        } finally {
+            clock.operationFinished();
+        }
     }
-}
 
+    /** Simulate the waiting of an idle agent, e.g. during a break, which does not prevent the timer from
+     * fast-forwarding over idle periods.
+     * @param simulatedSeconds (Simulated) seconds to keep an agent waiting.
+     */
+    @OPERATION
+    void awaitIdle(int simulatedSeconds) {
+        await(clock.idleSleepFor(simulatedSeconds * 1000L));
+    }
+}
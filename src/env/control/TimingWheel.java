@@ -0,0 +1,122 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+
+package control;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Hierarchical timing wheel used by the {@link SimulationScheduler} to index scheduled events by simulation time.
+ * Each level consists of a fixed number of buckets covering one tick each; events beyond the range of a level are
+ * passed on to a coarser overflow level, which is created on demand. Non-empty buckets of all levels are kept in a
+ * shared priority queue ordered by their expiration, so that the next bucket to be flushed is found in O(log b),
+ * whereas adding an event costs O(1) per level.
+ * <p>Once a bucket expires, its events are re-inserted: events of coarse levels cascade down to finer levels, and
+ * events of the finest level are handed back to the caller as due.
+ */
+class TimingWheel {
+    private final long tickMillis;
+    private final int wheelSize;
+    private final long interval;
+    private final Bucket[] buckets;
+    private final PriorityQueue<Bucket> queue;
+    private long currentTime;
+    private TimingWheel overflowWheel = null;
+
+    /**
+     * Create a new level of the timing wheel.
+     * @param tickMillis time span covered by each bucket
+     * @param wheelSize  number of buckets
+     * @param startTime  current time in milliseconds
+     * @param queue      priority queue of non-empty buckets shared by all levels
+     */
+    TimingWheel(long tickMillis, int wheelSize, long startTime, PriorityQueue<Bucket> queue) {
+        this.tickMillis = tickMillis;
+        this.wheelSize = wheelSize;
+        this.interval = tickMillis * wheelSize;
+        this.queue = queue;
+        this.currentTime = startTime - (startTime % tickMillis);
+        this.buckets = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    /**
+     * Add an event to the wheel.
+     * @param event event to be added
+     * @return false if the event is due within the current tick and therefore was not added
+     */
+    boolean add(ScheduledEvent event) {
+        long time = event.getTime();
+
+        if (time < currentTime + tickMillis) {
+            return false;
+        }
+
+        if (time < currentTime + interval) {
+            long virtualId = time / tickMillis;
+            Bucket bucket = buckets[(int) (virtualId % wheelSize)];
+            bucket.events.add(event);
+            // A bucket enters the queue whenever it gets (re)used for a new expiration
+            if (bucket.expiration != virtualId * tickMillis) {
+                bucket.expiration = virtualId * tickMillis;
+                queue.add(bucket);
+            }
+            return true;
+        }
+
+        if (overflowWheel == null) {
+            overflowWheel = new TimingWheel(interval, wheelSize, currentTime, queue);
+        }
+        return overflowWheel.add(event);
+    }
+
+    /**
+     * Move the wheel's current time forward, which is required before flushing buckets that expire at that time.
+     * @param time new current time in milliseconds
+     */
+    void advanceClock(long time) {
+        if (time >= currentTime + tickMillis) {
+            currentTime = time - (time % tickMillis);
+            if (overflowWheel != null) {
+                overflowWheel.advanceClock(currentTime);
+            }
+        }
+    }
+
+    /**
+     * A bucket holding all events that expire within one tick of a level.
+     */
+    static class Bucket implements Comparable<Bucket> {
+        private long expiration = -1;
+        private List<ScheduledEvent> events = new ArrayList<>();
+
+        long getExpiration() {
+            return expiration;
+        }
+
+        /**
+         * Remove all events from the bucket, so that the caller can re-insert them.
+         * @return events held by the bucket
+         */
+        List<ScheduledEvent> flush() {
+            List<ScheduledEvent> flushedEvents = events;
+            events = new ArrayList<>();
+            expiration = -1;
+            return flushedEvents;
+        }
+
+        @Override
+        public int compareTo(Bucket other) {
+            return Long.compare(expiration, other.expiration);
+        }
+    }
+}
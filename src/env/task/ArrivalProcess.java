@@ -0,0 +1,227 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+
+package task;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Class holding an arrival process from the simulation script, which generates storybook tasks for a composite task
+ * instead of listing them one by one:
+ * <pre>{@code arrivalProcesses:
+ * - taskName: Generated CSR
+ *   compositeTask: Customer modem software issue
+ *   startTimeISO8601: 2023-01-03T07:00:00Z
+ *   endTimeISO8601: 2023-01-10T07:00:00Z
+ *   ratePerHour: 4.0
+ *   hourlyProfile: [0.1, 0.1, 0.1, 0.1, 0.1, 0.2, 0.5, 1.0, 1.5, 1.5, 1.2, 1.0,
+ *                   1.0, 1.2, 1.2, 1.0, 1.0, 0.8, 0.6, 0.4, 0.3, 0.2, 0.1, 0.1]
+ *   bursts:
+ *   - startTimeISO8601: 2023-01-04T09:00:00Z
+ *     endTimeISO8601: 2023-01-04T10:00:00Z
+ *     rateMultiplier: 5.0
+ *   count: 500
+ *   seed: 42
+ * }</pre>
+ * <p>Arrivals follow a non-homogeneous Poisson process: the base rate is multiplied by the factor of the hourly
+ * profile for the hour of day (UTC) and by the factors of all burst windows covering the point in time. Arrivals are
+ * generated by thinning, one at a time and only when the previous one has been released, so that the memory
+ * footprint does not depend on the number of tasks generated. The process ends at the end time or after the
+ * given number of tasks, whichever comes first; at least one of them must be configured.
+ */
+public class ArrivalProcess {
+    private static final double MILLIS_PER_HOUR = 3600000.0;
+
+    private String taskName;
+    private String compositeTask;
+    private Date startTimeISO8601;
+    private Date endTimeISO8601;
+    private double ratePerHour;
+    private List<Number> hourlyProfile = new ArrayList<>();
+    private List<BurstWindow> bursts = new ArrayList<>();
+    private int count = 0;
+    private Long seed = null;
+
+    // State of the generator, initialised by start()
+    private SplittableRandom random;
+    private double maximumRate;
+    private long candidateTime;
+    private StorybookTask nextTask;
+    private int generated;
+
+    /** Check whether the arrival process is configured such that it ends at some point.
+     * @return description of the configuration problem; null if the arrival process is valid
+     */
+    public String validate() {
+        if (compositeTask == null || startTimeISO8601 == null) {
+            return "compositeTask and startTimeISO8601 are required";
+        }
+        if (endTimeISO8601 == null && count <= 0) {
+            return "either endTimeISO8601 or count is required";
+        }
+        if (!hourlyProfile.isEmpty() && hourlyProfile.size() != 24) {
+            return "hourlyProfile must have 24 entries";
+        }
+        return null;
+    }
+
+    /** (Re)start generating arrivals from the beginning.
+     * @param defaultSeed seed used if the simulation script does not specify one
+     */
+    public void start(long defaultSeed) {
+        random = new SplittableRandom(seed != null ? seed : defaultSeed);
+        generated = 0;
+        candidateTime = startTimeISO8601.getTime();
+
+        // Upper bound of the rate, as required for thinning
+        double maximumFactor = 1.0;
+        if (!hourlyProfile.isEmpty()) {
+            maximumFactor = 0.0;
+            for (Number factor : hourlyProfile) {
+                maximumFactor = Math.max(maximumFactor, factor.doubleValue());
+            }
+        }
+        for (BurstWindow burst : bursts) {
+            maximumFactor *= Math.max(1.0, burst.getRateMultiplier());
+        }
+        maximumRate = ratePerHour * maximumFactor;
+
+        nextTask = generateNext();
+    }
+
+    /**
+     * @return next task to be released without releasing it; null if the process has ended
+     */
+    public StorybookTask peek() {
+        return nextTask;
+    }
+
+    /** Release the next task and generate the one after it.
+     * @return next task; null if the process has ended
+     */
+    public StorybookTask poll() {
+        StorybookTask task = nextTask;
+        if (task != null) {
+            nextTask = generateNext();
+        }
+        return task;
+    }
+
+    private StorybookTask generateNext() {
+        if (maximumRate <= 0 || (count > 0 && generated >= count)) {
+            return null;
+        }
+
+        while (true) {
+            // Exponentially distributed inter-arrival time at the maximum rate...
+            candidateTime += (long) (-Math.log(1.0 - random.nextDouble()) / maximumRate * MILLIS_PER_HOUR);
+            if (endTimeISO8601 != null && candidateTime >= endTimeISO8601.getTime()) {
+                return null;
+            }
+            // ... accepted with the ratio of the actual rate and the maximum rate
+            if (random.nextDouble() * maximumRate < rateAt(candidateTime)) {
+                break;
+            }
+        }
+
+        generated++;
+        StorybookTask task = new StorybookTask();
+        task.setTaskName((taskName != null ? taskName : compositeTask) + " " + generated);
+        task.setCompositeTask(compositeTask);
+        task.setStartTimeISO8601(new Date(candidateTime));
+        return task;
+    }
+
+    private double rateAt(long time) {
+        double rate = ratePerHour;
+        if (!hourlyProfile.isEmpty()) {
+            rate *= hourlyProfile.get((int) ((time / (long) MILLIS_PER_HOUR) % 24)).doubleValue();
+        }
+        for (BurstWindow burst : bursts) {
+            if (burst.covers(time)) {
+                rate *= burst.getRateMultiplier();
+            }
+        }
+        return rate;
+    }
+
+    public String getTaskName() {
+        return taskName;
+    }
+
+    public void setTaskName(String taskName) {
+        this.taskName = taskName;
+    }
+
+    public String getCompositeTask() {
+        return compositeTask;
+    }
+
+    public void setCompositeTask(String compositeTask) {
+        this.compositeTask = compositeTask;
+    }
+
+    public Date getStartTimeISO8601() {
+        return startTimeISO8601;
+    }
+
+    public void setStartTimeISO8601(Date startTimeISO8601) {
+        this.startTimeISO8601 = startTimeISO8601;
+    }
+
+    public Date getEndTimeISO8601() {
+        return endTimeISO8601;
+    }
+
+    public void setEndTimeISO8601(Date endTimeISO8601) {
+        this.endTimeISO8601 = endTimeISO8601;
+    }
+
+    public double getRatePerHour() {
+        return ratePerHour;
+    }
+
+    public void setRatePerHour(double ratePerHour) {
+        this.ratePerHour = ratePerHour;
+    }
+
+    public List<Number> getHourlyProfile() {
+        return hourlyProfile;
+    }
+
+    public void setHourlyProfile(List<Number> hourlyProfile) {
+        this.hourlyProfile = hourlyProfile;
+    }
+
+    public List<BurstWindow> getBursts() {
+        return bursts;
+    }
+
+    public void setBursts(List<BurstWindow> bursts) {
+        this.bursts = bursts;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public Long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(Long seed) {
+        this.seed = seed;
+    }
+}
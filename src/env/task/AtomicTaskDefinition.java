@@ -8,12 +8,21 @@
 
 package task;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
 
 /**
- * Class holding the definition of an atomic task.
+ * Class holding the definition of an atomic task. Once loaded, the pre- and post-conditions are compiled into
+ * arrays of trimmed and interned task property names and their IDs, so that they need not be parsed again whenever
+ * a task is reviewed.
  */
 public class AtomicTaskDefinition {
+    static private final Logger logger = Logger.getLogger(AtomicTaskDefinition.class.getName());
+    private static final String[] NO_PROPERTIES = new String[0];
+    private static final int[] NO_PROPERTY_IDS = new int[0];
+
     private String situation;
     private String operation;
     private Integer timeout = 0;
@@ -26,6 +35,107 @@ public class AtomicTaskDefinition {
     private AgentConfig caConfig = new AgentConfig();
     private AgentConfig haConfig = new AgentConfig();
 
+    // Compiled conditions
+    private String[] requiredProperties = NO_PROPERTIES;
+    private String[] forbiddenProperties = NO_PROPERTIES;
+    private String[] postConditionProperties = NO_PROPERTIES;
+    private boolean[] postConditionAdds = new boolean[0];
+    private int[] requiredPropertyIds = NO_PROPERTY_IDS;
+    private int[] forbiddenPropertyIds = NO_PROPERTY_IDS;
+
+    /**
+     * Compile pre-conditions into required and forbidden ("!") task properties, and post-conditions into task
+     * properties to be added ("+") or removed ("-"), keeping their order. Post-conditions lacking +/- are ignored.
+     * @param propertyIds task property IDs by name, shared by the whole scenario; new properties are added
+     */
+    void compileConditions(Map<String, Integer> propertyIds) {
+        ArrayList<String> required = new ArrayList<>();
+        ArrayList<String> forbidden = new ArrayList<>();
+
+        if (preConditions != null) {
+            for (String condition : preConditions) {
+                if (condition.charAt(0) == '!') {
+                    forbidden.add(condition.substring(1).trim().intern());
+                } else {
+                    required.add(condition.trim().intern());
+                }
+            }
+        }
+        requiredProperties = required.toArray(NO_PROPERTIES);
+        forbiddenProperties = forbidden.toArray(NO_PROPERTIES);
+
+        ArrayList<String> properties = new ArrayList<>();
+        ArrayList<Boolean> adds = new ArrayList<>();
+        if (postConditions != null) {
+            for (String postCondition : postConditions) {
+                switch (postCondition.charAt(0)) {
+                    case '-', '+' -> {
+                        properties.add(postCondition.substring(1).trim().intern());
+                        adds.add(postCondition.charAt(0) == '+');
+                    }
+                    default -> logger.warning("postCondition lacking +/-, operation " + situation);
+                }
+            }
+        }
+        postConditionProperties = properties.toArray(NO_PROPERTIES);
+        for (String property : postConditionProperties) {
+            propertyIds.computeIfAbsent(property, name -> propertyIds.size());
+        }
+        requiredPropertyIds = required.stream()
+                .mapToInt(property -> propertyIds.computeIfAbsent(property, name -> propertyIds.size())).toArray();
+        forbiddenPropertyIds = forbidden.stream()
+                .mapToInt(property -> propertyIds.computeIfAbsent(property, name -> propertyIds.size())).toArray();
+        postConditionAdds = new boolean[adds.size()];
+        for (int i = 0; i < postConditionAdds.length; i++) {
+            postConditionAdds[i] = adds.get(i);
+        }
+
+        situation = situation == null ? null : situation.intern();
+        operation = operation == null ? null : operation.intern();
+    }
+
+    /**
+     * @return task properties that must be set for the atomic task to be activated
+     */
+    String[] requiredProperties() {
+        return requiredProperties;
+    }
+
+    /**
+     * @return task properties that must not be set for the atomic task to be activated
+     */
+    String[] forbiddenProperties() {
+        return forbiddenProperties;
+    }
+
+    /**
+     * @return IDs of the {@link #requiredProperties()}
+     */
+    int[] requiredPropertyIds() {
+        return requiredPropertyIds;
+    }
+
+    /**
+     * @return IDs of the {@link #forbiddenProperties()}
+     */
+    int[] forbiddenPropertyIds() {
+        return forbiddenPropertyIds;
+    }
+
+    /**
+     * @return task properties set or removed upon completion, in the order of the simulation script
+     */
+    String[] postConditionProperties() {
+        return postConditionProperties;
+    }
+
+    /**
+     * @return for each of the {@link #postConditionProperties()}: true if it is added, false if it is removed
+     */
+    boolean[] postConditionAdds() {
+        return postConditionAdds;
+    }
+
     public String getOperation() {
         return operation;
     }
@@ -0,0 +1,106 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+package task;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Registry of the active atomic tasks of a composite task instance, indexed by operation for executions and ordered
+ * by deadline for timeouts. Atomic tasks with the same operation are found in the order of their activation, like a
+ * scan of the activation order would do. All methods are synchronised and {@link #list()} returns a copy, so that
+ * the registry may be used from the scheduler's thread while operations on the task artefact are suspended.
+ */
+final class AtomicTaskRegistry {
+    private final LinkedHashSet<TaskArtifact.AtomicTaskInstance> instances = new LinkedHashSet<>();
+    private final Map<String, ArrayDeque<TaskArtifact.AtomicTaskInstance>> byOperation = new HashMap<>();
+    private final TreeSet<TaskArtifact.AtomicTaskInstance> byDeadline = new TreeSet<>(
+            Comparator.comparingLong((TaskArtifact.AtomicTaskInstance instance) -> instance.deadline)
+                      .thenComparingLong(instance -> instance.sequence));
+    private long nextSequence = 0;
+
+    /**
+     * Register an activated atomic task.
+     * @param atomicTaskInstance atomic task instance; must have an operation
+     */
+    synchronized void add(TaskArtifact.AtomicTaskInstance atomicTaskInstance) {
+        if (!instances.add(atomicTaskInstance)) {
+            return;
+        }
+        atomicTaskInstance.sequence = nextSequence++;
+        byOperation.computeIfAbsent(atomicTaskInstance.atomicTaskDefinition.getOperation(),
+                                    operation -> new ArrayDeque<>(1))
+                   .add(atomicTaskInstance);
+        if (atomicTaskInstance.deadline != Long.MAX_VALUE) {
+            byDeadline.add(atomicTaskInstance);
+        }
+    }
+
+    /**
+     * Remove an atomic task, e.g. once its operation has been executed.
+     * @param atomicTaskInstance atomic task instance
+     * @return true if the atomic task was registered
+     */
+    synchronized boolean remove(TaskArtifact.AtomicTaskInstance atomicTaskInstance) {
+        if (!instances.remove(atomicTaskInstance)) {
+            return false;
+        }
+        String operation = atomicTaskInstance.atomicTaskDefinition.getOperation();
+        ArrayDeque<TaskArtifact.AtomicTaskInstance> sameOperation = byOperation.get(operation);
+        sameOperation.remove(atomicTaskInstance);
+        if (sameOperation.isEmpty()) {
+            byOperation.remove(operation);
+        }
+        byDeadline.remove(atomicTaskInstance);
+        return true;
+    }
+
+    synchronized boolean contains(TaskArtifact.AtomicTaskInstance atomicTaskInstance) {
+        return instances.contains(atomicTaskInstance);
+    }
+
+    /** Find the atomic task an operation is executed for.
+     * @param operation operation (descriptive string)
+     * @return earliest activated atomic task with this operation; null if there is none
+     */
+    synchronized TaskArtifact.AtomicTaskInstance find(String operation) {
+        ArrayDeque<TaskArtifact.AtomicTaskInstance> sameOperation = byOperation.get(operation);
+        return sameOperation == null ? null : sameOperation.peekFirst();
+    }
+
+    /**
+     * @return atomic task with the earliest deadline; null if no atomic task has a timeout
+     */
+    synchronized TaskArtifact.AtomicTaskInstance getEarliestDeadline() {
+        return byDeadline.isEmpty() ? null : byDeadline.first();
+    }
+
+    /**
+     * @return earliest activated atomic task; null if there is none
+     */
+    synchronized TaskArtifact.AtomicTaskInstance getFirst() {
+        return instances.isEmpty() ? null : instances.iterator().next();
+    }
+
+    /**
+     * @return copy of the atomic tasks in the order of their activation
+     */
+    synchronized List<TaskArtifact.AtomicTaskInstance> list() {
+        return new ArrayList<>(instances);
+    }
+
+    synchronized boolean isEmpty() {
+        return instances.isEmpty();
+    }
+}
@@ -9,6 +9,20 @@ package task;
 
 import cartago.Artifact;
 import cartago.OPERATION;
+import cartago.OpFeedbackParam;
+import control.SimulationClock;
+import control.SimulationContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Absolutely simple blackboard implementation on top of CArtAgO, which makes blackboard entries
@@ -17,8 +31,96 @@ import cartago.OPERATION;
  * <pre>{@code workspace tasks {
  *         artifact taskBoard: task.BlackboardArtifact
  * }}
+ * <p>As long as there are requests on the blackboard, the simulation is not considered idle, i.e. the timer of its
+ * run does not fast-forward over the current period. Entries that only record what agents are doing, i.e.
+ * {@code task_in_focus}, are no requests: agents leave them behind once they are idle.
+ * <p>Entries are indexed by request type and details, so that adding and removing entries does not depend on the
+ * number of entries. Instead of all agents reacting to the same entry, an agent may {@code claim} the next
+ * unclaimed entry of a request type, e.g.:
+ * <pre>{@code claim("ha_help_required", "EDF", [CA_name, Task_name])}</pre>
+ * <p>Claimed entries stay on the blackboard as observable properties until they are removed, but are not handed
+ * out again unless they are released, e.g. by an agent that abandons the request:
+ * <pre>{@code release("ha_help_required", [CA_name, Task_name])}</pre>
+ * <p>A released entry is claimed again in its original place. Entries are claimed first in, first out
+ * ({@code FIFO}) or earliest deadline first ({@code EDF}), the deadline of an entry being the earliest overall
+ * timeout of any task named in its details; entries without such a deadline come last, first in, first out.
+ * <p>Agents that are interested in some entries only focus a {@link BlackboardViewArtifact} subscribed to these
+ * instead of the blackboard itself: the blackboard passes each entry added or removed on to the views whose
+ * subscriptions match.
  */
 public class BlackboardArtifact extends Artifact {
+    static private final Map<String, BlackboardArtifact> blackboards = new ConcurrentHashMap<>();
+    static private final Set<String> STATUS_TYPES = Set.of("task_in_focus");
+
+    private volatile int requestEntries = 0;
+    private SimulationClock clock;
+    private SimulationContext context;
+    private final Map<String, RequestIndex> requests = new HashMap<>();
+    private long nextSequence = 0;
+    private final List<BlackboardViewArtifact> views = new CopyOnWriteArrayList<>();
+    private final Object publication = new Object();
+
+    void init() {
+        context = SimulationContext.of(getId());
+        clock = context.getClock();
+        clock.addQuiescenceCondition(() -> requestEntries == 0);
+        blackboards.put(getKey(getId().getWorkspaceId().getName(), getId().getName()), this);
+    }
+
+    @Override
+    protected void dispose() {
+        blackboards.remove(getKey(getId().getWorkspaceId().getName(), getId().getName()), this);
+    }
+
+    private static String getKey(String workspaceName, String blackboardName) {
+        return workspaceName + "/" + blackboardName;
+    }
+
+    /** Look up a blackboard, e.g. for a view to subscribe to it.
+     * @param workspaceName name of the workspace of the blackboard
+     * @param blackboardName name of the blackboard artefact
+     * @return blackboard; null if there is no such blackboard
+     */
+    static BlackboardArtifact lookup(String workspaceName, String blackboardName) {
+        return blackboards.get(getKey(workspaceName, blackboardName));
+    }
+
+    /** Subscribe a view to the entries of the blackboard.
+     * @param view view, which is passed entries added or removed from now on
+     * @return current entries of the blackboard the view accepts, by request type
+     */
+    Map<String, List<Object[]>> subscribe(BlackboardViewArtifact view) {
+        synchronized (publication) {
+            Map<String, List<Object[]>> current = new HashMap<>();
+            for (Map.Entry<String, RequestIndex> request : requests.entrySet()) {
+                for (Entry entry : request.getValue().entries.values()) {
+                    if (view.accepts(request.getKey(), entry.details)) {
+                        current.computeIfAbsent(request.getKey(), type -> new ArrayList<>()).add(entry.details);
+                    }
+                }
+            }
+            views.add(view);
+            return current;
+        }
+    }
+
+    /** Unsubscribe a view, e.g. upon its disposal.
+     * @param view view
+     */
+    void unsubscribe(BlackboardViewArtifact view) {
+        views.remove(view);
+    }
+
+    /**
+     * Pass an entry added or removed on to the views whose subscriptions match.
+     */
+    private void publish(String requestType, Object[] details, boolean added) {
+        for (BlackboardViewArtifact view : views) {
+            if (view.accepts(requestType, details)) {
+                view.deliver(requestType, details, added);
+            }
+        }
+    }
 
     /** Add a new observable property to the blackboard. Ignore the request in case this already exists, as
      * CArtAgO would otherwise duplicate the entries.
@@ -26,8 +128,21 @@ public class BlackboardArtifact extends Artifact {
      * @param details this becomes the observable property's value(s)
      */
     @OPERATION void addToBlackboard(String requestType, Object[] details) {
-        if (getObsPropertyByTemplate(requestType, details) == null) {
+        RequestIndex index;
+        synchronized (publication) {
+            index = requests.computeIfAbsent(requestType, type -> new RequestIndex());
+        }
+        Key key = new Key(details);
+        if (!index.entries.containsKey(key)) {
             defineObsProperty(requestType, details);
+            synchronized (publication) {
+                index.add(key, new Entry(details, getDeadline(details), nextSequence++));
+                publish(requestType, details, true);
+            }
+            if (!STATUS_TYPES.contains(requestType)) {
+                requestEntries++;
+            }
+            clock.noteActivity();
         }
     }
     /** Remove an observable property from the blackboard. Ignore the request in case the property does not exist
@@ -35,9 +150,161 @@ public class BlackboardArtifact extends Artifact {
      * @param details this is/these are the observable property's value(s)
      */
     @OPERATION void removeFromBlackboard(String requestType, Object[] details) {
-        if (getObsPropertyByTemplate(requestType, details) != null) {
+        Entry entry;
+        synchronized (publication) {
+            RequestIndex index = requests.get(requestType);
+            entry = index == null ? null : index.remove(new Key(details));
+            if (entry != null) {
+                publish(requestType, entry.details, false);
+            }
+        }
+        if (entry != null) {
             removeObsPropertyByTemplate(requestType, details);
+            if (!STATUS_TYPES.contains(requestType)) {
+                requestEntries--;
+            }
+            clock.noteActivity();
+        }
+    }
+
+    /** Claim the next unclaimed entry of a request type, first in, first out.
+     * @param requestType observable property's name
+     * @param details returns the claimed entry's value(s)
+     */
+    @OPERATION void claim(String requestType, OpFeedbackParam<Object[]> details) {
+        claim(requestType, "FIFO", details);
+    }
+
+    /** Claim the next unclaimed entry of a request type: the entry is handed to the calling agent only, but stays
+     * on the blackboard until it is removed. Fails if there is no unclaimed entry.
+     * @param requestType observable property's name
+     * @param order "FIFO" for the oldest entry, "EDF" for the entry with the earliest deadline
+     * @param details returns the claimed entry's value(s)
+     */
+    @OPERATION void claim(String requestType, String order, OpFeedbackParam<Object[]> details) {
+        boolean earliestDeadlineFirst;
+        if (order.equalsIgnoreCase("EDF")) {
+            earliestDeadlineFirst = true;
+        } else if (order.equalsIgnoreCase("FIFO")) {
+            earliestDeadlineFirst = false;
+        } else {
+            failed("Unknown claim order: " + order);
+            return;
+        }
+
+        RequestIndex index = requests.get(requestType);
+        Entry entry = index == null ? null : index.claim(earliestDeadlineFirst);
+        if (entry == null) {
+            failed("No unclaimed " + requestType);
+            return;
         }
+        details.set(entry.details);
     }
 
-}
\ No newline at end of file
+    /** Release a claimed entry, so that it may be claimed again, e.g. if the claiming agent fails to handle it.
+     * Fails if there is no such claimed entry.
+     * @param requestType observable property's name
+     * @param details observable property's value(s)
+     */
+    @OPERATION void release(String requestType, Object[] details) {
+        RequestIndex index = requests.get(requestType);
+        if (index == null || !index.release(new Key(details))) {
+            failed("No claimed " + requestType + " " + Arrays.toString(details));
+        }
+    }
+
+    /**
+     * Determine the deadline of an entry as the earliest deadline of the tasks named in its details.
+     */
+    private long getDeadline(Object[] details) {
+        long deadline = Long.MAX_VALUE;
+        for (Object detail : details) {
+            if (detail != null) {
+                deadline = Math.min(deadline, context.getTaskDeadline(String.valueOf(detail)));
+            }
+        }
+        return deadline;
+    }
+
+    /**
+     * Details of an entry as a key of the index, compared by value like CArtAgO templates.
+     */
+    private static class Key {
+        private final Object[] details;
+        private final int hashCode;
+
+        Key(Object[] details) {
+            this.details = details;
+            this.hashCode = Arrays.deepHashCode(details);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.deepEquals(details, ((Key) other).details);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * An entry on the blackboard.
+     */
+    private static class Entry {
+        final Object[] details;
+        final long deadline;
+        final long sequence;
+
+        Entry(Object[] details, long deadline, long sequence) {
+            this.details = details;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Entries of one request type, with the unclaimed ones in the order of their addition and of their deadlines.
+     */
+    private static class RequestIndex {
+        final Map<Key, Entry> entries = new HashMap<>();
+        final TreeSet<Entry> unclaimed = new TreeSet<>(Comparator.comparingLong((Entry entry) -> entry.sequence));
+        final TreeSet<Entry> unclaimedByDeadline = new TreeSet<>(
+                Comparator.comparingLong((Entry entry) -> entry.deadline).thenComparingLong(entry -> entry.sequence));
+
+        void add(Key key, Entry entry) {
+            entries.put(key, entry);
+            unclaimed.add(entry);
+            unclaimedByDeadline.add(entry);
+        }
+
+        Entry remove(Key key) {
+            Entry entry = entries.remove(key);
+            if (entry != null) {
+                unclaimed.remove(entry);
+                unclaimedByDeadline.remove(entry);
+            }
+            return entry;
+        }
+
+        Entry claim(boolean earliestDeadlineFirst) {
+            if (unclaimed.isEmpty()) {
+                return null;
+            }
+            Entry entry = earliestDeadlineFirst ? unclaimedByDeadline.first() : unclaimed.first();
+            unclaimed.remove(entry);
+            unclaimedByDeadline.remove(entry);
+            return entry;
+        }
+
+        boolean release(Key key) {
+            Entry entry = entries.get(key);
+            if (entry == null || !unclaimed.add(entry)) {
+                return false;
+            }
+            unclaimedByDeadline.add(entry);
+            return true;
+        }
+    }
+}
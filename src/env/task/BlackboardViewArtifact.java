@@ -0,0 +1,146 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+package task;
+
+import cartago.Artifact;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * View of a {@link BlackboardArtifact} for agents that are interested in some of its entries only: the view shows
+ * the entries matching its subscriptions as observable properties, so that an agent focusing the view instead of
+ * the blackboard perceives these only. Entries are still added, removed and claimed through the operations of the
+ * blackboard. A view is declared after its blackboard in the same workspace, e.g.:
+ *
+ * <pre>{@code workspace tasks {
+ *         artifact taskBoard: task.BlackboardArtifact
+ *         artifact csaBoard: task.BlackboardViewArtifact("taskBoard", ["ha_help_required(csa,_)",
+ *                                                                      "task_in_focus(csa,_)"])
+ * }}</pre>
+ * <p>A subscription names a request type, optionally followed by the values the details of an entry must start
+ * with, where {@code _} matches any value.
+ */
+public class BlackboardViewArtifact extends Artifact {
+    static private final Logger logger = Logger.getLogger(BlackboardViewArtifact.class.getName());
+
+    private BlackboardArtifact blackboard;
+    private final List<Subscription> subscriptions = new ArrayList<>();
+
+    /**
+     * Subscribe to a blackboard and show its current entries matching the subscriptions.
+     * @param blackboardName name of the blackboard artefact in the workspace of the view
+     * @param subscriptions  request types with optional values, e.g. "task_in_focus(csa,_)"
+     */
+    void init(String blackboardName, Object[] subscriptions) {
+        for (Object subscription : subscriptions) {
+            this.subscriptions.add(new Subscription(String.valueOf(subscription)));
+        }
+
+        blackboard = BlackboardArtifact.lookup(getId().getWorkspaceId().getName(), blackboardName);
+        if (blackboard == null) {
+            throw new IllegalArgumentException("Blackboard " + blackboardName + " not found; it must be declared"
+                                                       + " before its views");
+        }
+        for (Map.Entry<String, List<Object[]>> request : blackboard.subscribe(this).entrySet()) {
+            for (Object[] details : request.getValue()) {
+                defineObsProperty(request.getKey(), details);
+            }
+        }
+    }
+
+    @Override
+    protected void dispose() {
+        if (blackboard != null) {
+            blackboard.unsubscribe(this);
+        }
+    }
+
+    /** Check whether an entry matches any subscription of the view.
+     * @param requestType request type of the entry
+     * @param details details of the entry
+     * @return true if the entry is to be shown by the view
+     */
+    boolean accepts(String requestType, Object[] details) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.matches(requestType, details)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Called by the blackboard once an accepted entry has been added or removed: update the observable
+     * properties in a session of its own, as the blackboard's thread is not an operation thread of the view.
+     * @param requestType request type of the entry
+     * @param details details of the entry
+     * @param added true if the entry has been added, false if it has been removed
+     */
+    void deliver(String requestType, Object[] details, boolean added) {
+        beginExternalSession();
+        boolean success = false;
+        try {
+            if (added) {
+                defineObsProperty(requestType, details);
+            } else {
+                removeObsPropertyByTemplate(requestType, details);
+            }
+            success = true;
+        } catch (RuntimeException e) {
+            // The view may have been disposed meanwhile
+            logger.fine("Cannot update blackboard view: " + e);
+        } finally {
+            endExternalSession(success);
+        }
+    }
+
+    /**
+     * A request type, optionally with the values the details of entries must start with.
+     */
+    static class Subscription {
+        final String requestType;
+        final String[] values;
+
+        /**
+         * @param subscription request type, optionally with values in parentheses, e.g. "task_in_focus(csa,_)"
+         */
+        Subscription(String subscription) {
+            int parenthesis = subscription.indexOf('(');
+            if (parenthesis < 0) {
+                requestType = subscription.trim();
+                values = new String[0];
+                return;
+            }
+            requestType = subscription.substring(0, parenthesis).trim();
+            int end = subscription.lastIndexOf(')');
+            String arguments = subscription.substring(parenthesis + 1, end > parenthesis ? end : subscription.length());
+            values = arguments.split(",");
+            for (int i = 0; i < values.length; i++) {
+                String value = values[i].trim();
+                if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                values[i] = value.equals("_") ? null : value;
+            }
+        }
+
+        boolean matches(String requestType, Object[] details) {
+            if (!this.requestType.equals(requestType)) {
+                return false;
+            }
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null && (i >= details.length || !values[i].equals(String.valueOf(details[i])))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+
+package task;
+
+import java.util.Date;
+
+/**
+ * Class holding a burst window of an arrival process from the simulation script: during the window, the arrival
+ * rate is multiplied by a factor, e.g. to simulate an outage that makes many customers call at once.
+ */
+public class BurstWindow {
+    private Date startTimeISO8601;
+    private Date endTimeISO8601;
+    private double rateMultiplier = 1.0;
+
+    /** Check whether a point in time lies within the burst window.
+     * @param time time in milliseconds
+     * @return true if the start time has been reached and the end time not yet
+     */
+    public boolean covers(long time) {
+        return time >= startTimeISO8601.getTime() && time < endTimeISO8601.getTime();
+    }
+
+    public Date getStartTimeISO8601() {
+        return startTimeISO8601;
+    }
+
+    public void setStartTimeISO8601(Date startTimeISO8601) {
+        this.startTimeISO8601 = startTimeISO8601;
+    }
+
+    public Date getEndTimeISO8601() {
+        return endTimeISO8601;
+    }
+
+    public void setEndTimeISO8601(Date endTimeISO8601) {
+        this.endTimeISO8601 = endTimeISO8601;
+    }
+
+    public double getRateMultiplier() {
+        return rateMultiplier;
+    }
+
+    public void setRateMultiplier(double rateMultiplier) {
+        this.rateMultiplier = rateMultiplier;
+    }
+}
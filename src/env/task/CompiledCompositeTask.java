@@ -0,0 +1,92 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+package task;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, compiled form of a composite task, shared by all instances of that composite task: the atomic task
+ * definitions in the order of the simulation script, and a dependency index that maps every task property ID to
+ * the atomic tasks whose pre-conditions refer to it. Property IDs are assigned by the {@link Storybook} when
+ * compiling the scenario and are unique across all composite tasks.
+ */
+public class CompiledCompositeTask {
+    private static final int[] NO_DEPENDENTS = new int[0];
+
+    private final AtomicTaskDefinition[] atomicTasks;
+    private final Map<String, Integer> propertyIds;
+    private final int[][] dependents;
+
+    /**
+     * @param atomicTasks compiled atomic task definitions of the composite task
+     * @param propertyIds task property IDs by property name, as assigned when compiling the conditions
+     */
+    CompiledCompositeTask(AtomicTaskDefinition[] atomicTasks, Map<String, Integer> propertyIds) {
+        this.atomicTasks = atomicTasks;
+        this.propertyIds = propertyIds;
+
+        List<List<Integer>> dependentLists = new ArrayList<>();
+        for (int i = 0; i < atomicTasks.length; i++) {
+            for (int[] ids : new int[][]{atomicTasks[i].requiredPropertyIds(), atomicTasks[i].forbiddenPropertyIds()}) {
+                for (int id : ids) {
+                    while (dependentLists.size() <= id) {
+                        dependentLists.add(new ArrayList<>());
+                    }
+                    dependentLists.get(id).add(i);
+                }
+            }
+        }
+
+        dependents = new int[dependentLists.size()][];
+        for (int id = 0; id < dependents.length; id++) {
+            dependents[id] = dependentLists.get(id).stream().mapToInt(Integer::intValue).distinct().toArray();
+        }
+    }
+
+    /**
+     * @return number of atomic tasks of the composite task
+     */
+    public int size() {
+        return atomicTasks.length;
+    }
+
+    /** Retrieve an atomic task definition by its position in the composite task.
+     * @param index position in the order of the simulation script
+     * @return atomic task definition
+     */
+    public AtomicTaskDefinition getAtomicTask(int index) {
+        return atomicTasks[index];
+    }
+
+    /**
+     * @return copy of the atomic task definitions in the order of the simulation script
+     */
+    public List<AtomicTaskDefinition> getAtomicTasks() {
+        return new ArrayList<>(Arrays.asList(atomicTasks));
+    }
+
+    /** Look up the ID of a task property.
+     * @param property name of the task property
+     * @return property ID; -1 if no atomic task of the scenario refers to the property
+     */
+    public int getPropertyId(String property) {
+        Integer id = propertyIds.get(property);
+        return id == null ? -1 : id;
+    }
+
+    /** Retrieve the atomic tasks whose pre-conditions refer to a task property.
+     * @param propertyId property ID
+     * @return positions of the atomic tasks, in ascending order
+     */
+    int[] getDependents(int propertyId) {
+        return propertyId >= 0 && propertyId < dependents.length ? dependents[propertyId] : NO_DEPENDENTS;
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+package task;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Class holding the parameters by which a {@link FastPathSimulation} replaces the agents of the multi-agent system:
+ * one computational agent (CA), one human support agent (HA) and optionally a dedicated human teacher. Times are
+ * given in simulated seconds. The defaults are those of the agent programs when no beliefs are configured; with
+ * {@link #fromProject(String)}, they are taken from the agents and beliefs of a JaCaMo project file instead.
+ */
+public class FastPathPolicy {
+    static private final Pattern AGENT =
+            Pattern.compile("\\bagent\\s+(\\w+)\\s*:\\s*([\\w./]+)\\s*\\{([^}]*)}");
+    static private final Pattern TIMER_START =
+            Pattern.compile("control\\.TimerArtifact\\(\\s*\"([^\"]*)\"");
+
+    private String caName = "csa";
+    private String haName = "hsa";
+    private String teacherName = null;
+    private Boolean handoverOnUnknownSituation = Boolean.TRUE;
+    private Boolean humanTeaching = Boolean.TRUE;
+    private Integer caRefocusingTime = 0;
+    private Integer haRefocusingTime = 0;
+    private Integer teacherRefocusingTime = 0;
+    private Integer noteTakingTime = 0;
+    private Integer teachingDelay = 0;
+    private String simulationStart = null;
+
+    /** Derive the policy from a JaCaMo project file: agents are identified by their agent programs, and their
+     * {@code refocusing_time}, {@code note_taking_time} and {@code non_teaching_agent} beliefs are applied. The
+     * start of the simulation is taken from the timer artefact.
+     * @param project text of the project file
+     * @return policy matching the project file
+     */
+    public static FastPathPolicy fromProject(String project) {
+        FastPathPolicy policy = new FastPathPolicy();
+        policy.humanTeaching = Boolean.FALSE;
+
+        Matcher agent = AGENT.matcher(project);
+        while (agent.find()) {
+            String name = agent.group(1);
+            String beliefs = agent.group(3);
+            if (agent.group(2).endsWith("computational_agent.asl")) {
+                policy.caName = name;
+                policy.caRefocusingTime = getIntegerBelief(beliefs, "refocusing_time", 0);
+            } else if (agent.group(2).endsWith("human_support_agent.asl")) {
+                policy.haName = name;
+                policy.haRefocusingTime = getIntegerBelief(beliefs, "refocusing_time", 0);
+                policy.noteTakingTime = getIntegerBelief(beliefs, "note_taking_time", 0);
+                policy.humanTeaching = !Pattern.compile("\\bnon_teaching_agent\\b").matcher(beliefs).find();
+            } else if (agent.group(2).endsWith("human_teaching_agent.asl")) {
+                policy.teacherName = name;
+                policy.teacherRefocusingTime = getIntegerBelief(beliefs, "refocusing_time", 0);
+            }
+        }
+
+        Matcher timer = TIMER_START.matcher(project);
+        if (timer.find()) {
+            policy.simulationStart = timer.group(1);
+        }
+        return policy;
+    }
+
+    private static int getIntegerBelief(String beliefs, String belief, int defaultValue) {
+        Matcher matcher = Pattern.compile("\\b" + belief + "\\(\\s*(-?\\d+)\\s*\\)").matcher(beliefs);
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : defaultValue;
+    }
+
+    /**
+     * @return name of the computational agent, which selects its random number stream
+     */
+    public String getCaName() {
+        return caName;
+    }
+
+    public void setCaName(String caName) {
+        this.caName = caName;
+    }
+
+    /**
+     * @return name of the human support agent, which selects its random number stream
+     */
+    public String getHaName() {
+        return haName;
+    }
+
+    public void setHaName(String haName) {
+        this.haName = haName;
+    }
+
+    /**
+     * @return name of the dedicated human teacher; null if there is none
+     */
+    public String getTeacherName() {
+        return teacherName;
+    }
+
+    public void setTeacherName(String teacherName) {
+        this.teacherName = teacherName;
+    }
+
+    /**
+     * @return true if the CA hands a task over to the HA when it recognises no situation it knows how to handle;
+     * otherwise, the task waits for its timeout
+     */
+    public Boolean getHandoverOnUnknownSituation() {
+        return handoverOnUnknownSituation;
+    }
+
+    public void setHandoverOnUnknownSituation(Boolean handoverOnUnknownSituation) {
+        this.handoverOnUnknownSituation = handoverOnUnknownSituation;
+    }
+
+    /**
+     * @return true if the HA teaches the CA in between assisting, in the absence of a dedicated teacher
+     */
+    public Boolean getHumanTeaching() {
+        return humanTeaching;
+    }
+
+    public void setHumanTeaching(Boolean humanTeaching) {
+        this.humanTeaching = humanTeaching;
+    }
+
+    public Integer getCaRefocusingTime() {
+        return caRefocusingTime;
+    }
+
+    public void setCaRefocusingTime(Integer caRefocusingTime) {
+        this.caRefocusingTime = caRefocusingTime;
+    }
+
+    public Integer getHaRefocusingTime() {
+        return haRefocusingTime;
+    }
+
+    public void setHaRefocusingTime(Integer haRefocusingTime) {
+        this.haRefocusingTime = haRefocusingTime;
+    }
+
+    public Integer getTeacherRefocusingTime() {
+        return teacherRefocusingTime;
+    }
+
+    public void setTeacherRefocusingTime(Integer teacherRefocusingTime) {
+        this.teacherRefocusingTime = teacherRefocusingTime;
+    }
+
+    /**
+     * @return time the HA takes to update a note on a task
+     */
+    public Integer getNoteTakingTime() {
+        return noteTakingTime;
+    }
+
+    public void setNoteTakingTime(Integer noteTakingTime) {
+        this.noteTakingTime = noteTakingTime;
+    }
+
+    /**
+     * @return time from the end of teaching until the CA applies the knowledge taught, in addition to the teaching
+     * time configured for the atomic task
+     */
+    public Integer getTeachingDelay() {
+        return teachingDelay;
+    }
+
+    public void setTeachingDelay(Integer teachingDelay) {
+        this.teachingDelay = teachingDelay;
+    }
+
+    /**
+     * @return start of the simulation in ISO 8601 format; null for the start time of the first task
+     */
+    public String getSimulationStart() {
+        return simulationStart;
+    }
+
+    public void setSimulationStart(String simulationStart) {
+        this.simulationStart = simulationStart;
+    }
+}
@@ -0,0 +1,1005 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+package task;
+
+import control.KpiAggregator;
+import control.ReplicationRunner;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.logging.Logger;
+
+/**
+ * Agent-free discrete-event simulation of a simulation script, for what-if questions on capacity that need many
+ * runs: tasks, atomic tasks and timeouts behave as in the {@link TaskArtifact}, driven by the same
+ * {@link Storybook}, {@link SituationEngine} and random number streams (see {@link RandomStreams}), and with the
+ * same quality and time formulas for evaluations and executions. The agents are replaced by the behaviour of their
+ * agent programs, parameterised by a {@link FastPathPolicy}:
+ * <ul>
+ * <li>the computational agent (CA) reviews one task at a time upon creation and after every operation, evaluates
+ * the situations it knows, and executes the operations of all recognised situations concurrently; without any
+ * recognised situation, it hands the task over to the human agent</li>
+ * <li>the human support agent (HA) assists on one handed over task at a time, earliest overall timeout first and
+ * otherwise first handed over first: it learns the next atomic task if need be, evaluates, executes one operation
+ * at a time, requests the CA to be taught, and hands the task back as soon as the CA recognises a situation again;
+ * tasks it cannot handle are escalated</li>
+ * <li>teaching is done by a dedicated teacher or, if configured, by the HA in between assisting</li>
+ * </ul>
+ * <p>Time only passes by events, so a run takes milliseconds rather than the simulated time divided by the
+ * simulation speed; messages between agents take no time. Log entries are not written but aggregated by a
+ * {@link KpiAggregator}, so that a run yields the same KPI report and run summary as the multi-agent system. As a
+ * {@link ReplicationRunner.Replication}, replications run in threads of a single JVM. Usage:
+ * <pre>{@code java -cp <classpath> task.FastPathSimulation hi_simulator.jcm [--seed 1] [--output log/fast_path]
+ *      [--handover true] [--refocusing-time 20] [--teaching-delay 0] [--human-teaching false]}</pre>
+ * <p>With {@code --cross-validate <kpi>[=<target>]...}, the script is run with both the multi-agent system and
+ * this simulation for {@code --replications} (10) pairs of seeds instead, and the deviation of the KPIs is written
+ * to {@code cross_validation.json}: deviations within the combined half-width of the confidence intervals are
+ * marked consistent, indicating that the fast path can be trusted for these KPIs.
+ */
+public class FastPathSimulation implements ReplicationRunner.Replication {
+    static private final Logger logger = Logger.getLogger("hi_simulator");
+    static private final int DEFAULT_CROSS_VALIDATION_REPLICATIONS = 10;
+
+    private final String scriptFileName;
+    private final String scriptText;
+    private final FastPathPolicy policy;
+
+    /**
+     * @param scriptFileName file name of the simulation script, as reported in the run summary
+     * @param scriptText     text of the simulation script
+     * @param policy         behaviour of the agents
+     */
+    public FastPathSimulation(String scriptFileName, String scriptText, FastPathPolicy policy) {
+        this.scriptFileName = scriptFileName;
+        this.scriptText = scriptText;
+        this.policy = policy;
+    }
+
+    @Override
+    public Map<String, Double> run(long seed, String runId) {
+        Run run = new Run(seed);
+        run.simulate();
+        return ReplicationRunner.readKpis(run.kpis.toJson(), run.summary.toJson(run.now));
+    }
+
+    /**
+     * Result of an execution of an operation, as seen by the executing agent.
+     */
+    private enum Outcome {
+        SUCCESS,
+        QUALITY_RETRY,
+        UNEXPECTED,
+        UNABLE,
+        FAILED
+    }
+
+    /**
+     * An event of the simulation, due at a simulation time; events due at the same time run in scheduling order.
+     */
+    private static class Event implements Comparable<Event> {
+        final long time;
+        final long sequence;
+        final Runnable action;
+        boolean cancelled = false;
+
+        Event(long time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            return time != other.time ? Long.compare(time, other.time) : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * Knowledge and experience of an agent: the atomic task it knows to handle per situation, the successful
+     * cycles per known atomic task, and operations that turned out to be unexpected.
+     */
+    private static class Agent {
+        final String name;
+        final boolean computational;
+        final SplittableRandom random;
+        final Map<String, AtomicTaskDefinition> knowledge = new LinkedHashMap<>();
+        final Map<AtomicTaskDefinition, Integer> cycles = new HashMap<>();
+        final Set<AtomicTaskDefinition> suspicious = new HashSet<>();
+        Task focus = null;
+        boolean busy = false;
+
+        Agent(String name, boolean computational, long seed) {
+            this.name = name;
+            this.computational = computational;
+            this.random = RandomStreams.of(seed, RandomStreams.AGENTS, name.hashCode());
+        }
+
+        AgentConfig config(AtomicTaskDefinition atomicTask) {
+            return computational ? atomicTask.getCaConfig() : atomicTask.getHaConfig();
+        }
+
+        void learn(AtomicTaskDefinition atomicTask) {
+            forget(atomicTask.getSituation());
+            knowledge.put(atomicTask.getSituation(), atomicTask);
+        }
+
+        void forget(String situation) {
+            AtomicTaskDefinition atomicTask = knowledge.remove(situation);
+            if (atomicTask != null) {
+                cycles.remove(atomicTask);
+                suspicious.remove(atomicTask);
+            }
+        }
+
+        boolean knows(AtomicTaskDefinition atomicTask) {
+            return knowledge.get(atomicTask.getSituation()) == atomicTask;
+        }
+
+        int getCycles(AtomicTaskDefinition atomicTask) {
+            return cycles.getOrDefault(atomicTask, 0);
+        }
+
+        /** Determine the known situations a task is in, newest knowledge first as by the belief base of an agent.
+         * @param task   task to be evaluated
+         * @param clean  true to leave out suspicious operations
+         * @return atomic tasks of the recognised situations
+         */
+        List<AtomicTaskDefinition> recognise(Task task, boolean clean) {
+            List<AtomicTaskDefinition> situations = new ArrayList<>();
+            for (AtomicTaskDefinition atomicTask : knowledge.values()) {
+                if (task.isSatisfied(atomicTask) && !(clean && suspicious.contains(atomicTask))) {
+                    situations.add(atomicTask);
+                }
+            }
+            Collections.reverse(situations);
+            return situations;
+        }
+    }
+
+    /**
+     * An instance of a composite task, as held by a task artefact.
+     */
+    private static class Task {
+        final String name;
+        final String compositeTask;
+        final long startTime;
+        final SituationEngine situationEngine;
+        final SplittableRandom random;
+        final AtomicTaskRegistry activeAtomicTasks = new AtomicTaskRegistry();
+        final Map<TaskArtifact.AtomicTaskInstance, Event> timeouts = new HashMap<>();
+        final Set<AtomicTaskDefinition> executing = new HashSet<>();
+        final List<Execution> executions = new ArrayList<>();
+        final List<AtomicTaskDefinition> unexpectedOperations = new ArrayList<>();
+        TaskStatus status = TaskStatus.OPEN;
+        double totalQuality = 1.0;
+        Event overallTimeout = null;
+        boolean helpRequired = false;
+        boolean reviewRequested = false;
+
+        Task(String name, String compositeTask, long startTime, CompiledCompositeTask compiledCompositeTask,
+             SplittableRandom random) {
+            this.name = name;
+            this.compositeTask = compositeTask;
+            this.startTime = startTime;
+            this.situationEngine = new SituationEngine(compiledCompositeTask);
+            this.random = random;
+        }
+
+        boolean isSatisfied(AtomicTaskDefinition atomicTask) {
+            for (String property : atomicTask.forbiddenProperties()) {
+                if (situationEngine.isSet(property)) {
+                    return false;
+                }
+            }
+            for (String property : atomicTask.requiredProperties()) {
+                if (!situationEngine.isSet(property)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * An operation being executed on a task, to be failed early if the task ends meanwhile.
+     */
+    private static class Execution {
+        final long startTime;
+        final String operation;
+        final Agent agent;
+        final Outcomes outcomes;
+        Event completion;
+
+        Execution(long startTime, String operation, Agent agent, Outcomes outcomes) {
+            this.startTime = startTime;
+            this.operation = operation;
+            this.agent = agent;
+            this.outcomes = outcomes;
+        }
+    }
+
+    /**
+     * Continuation of an agent once an execution has ended.
+     */
+    private interface Outcomes {
+        void ended(Outcome outcome);
+    }
+
+    /**
+     * State of one simulation run.
+     */
+    private final class Run implements SituationEngine.Listener {
+        final long seed;
+        final Storybook storybook;
+        final KpiAggregator kpis = new KpiAggregator();
+        final RunSummary summary;
+        final PriorityQueue<Event> events = new PriorityQueue<>();
+        final Agent ca;
+        final Agent ha;
+        final Agent teacher;
+        final ArrayDeque<Task> reviews = new ArrayDeque<>();
+        final LinkedHashMap<String, Task> helpRequests = new LinkedHashMap<>();
+        final Set<AtomicTaskDefinition> teachingRequests = new LinkedHashSet<>();
+        final ArrayDeque<AtomicTaskDefinition> teacherQueue = new ArrayDeque<>();
+        long now;
+        long sequence = 0;
+        int taskNumber = 0;
+        boolean ended = false;
+        Task reviewedTask = null;
+
+        Run(long seed) {
+            this.seed = seed;
+            storybook = StorybookSnapshot.load(scriptText.getBytes(StandardCharsets.UTF_8));
+            storybook.sortStorybookTasks(seed);
+            now = policy.getSimulationStart() != null ? Instant.parse(policy.getSimulationStart()).toEpochMilli()
+                    : storybook.hasPendingTasks() ? storybook.getNextStartTime() : 0;
+            summary = new RunSummary(scriptFileName, now, seed);
+
+            ca = new Agent(policy.getCaName(), true, seed);
+            ha = new Agent(policy.getHaName(), false, seed);
+            teacher = policy.getTeacherName() != null ? new Agent(policy.getTeacherName(), false, seed) : null;
+            for (Agent agent : new Agent[]{ca, ha, teacher}) {
+                if (agent == null) {
+                    continue;
+                }
+                for (AtomicTaskDefinition atomicTask : storybook.getAtomicTaskDefinitions()) {
+                    if (atomicTask.getOperation() != null && agent.config(atomicTask).getInitialKnowledge()) {
+                        agent.learn(atomicTask);
+                    }
+                }
+            }
+        }
+
+        void simulate() {
+            log("ENVIRONMENT", "", storybook.getStorybookTasks().size() + " tasks and "
+                    + storybook.getArrivalProcesses().size() + " arrival processes loaded, seed " + seed,
+                TaskSetArtifact.class.getName(), -1, "", -1);
+            schedule(storybook.hasPendingTasks() ? Math.max(now, storybook.getNextStartTime()) : now,
+                     this::releaseTasks);
+
+            Event event;
+            while (!ended && (event = events.poll()) != null) {
+                if (!event.cancelled) {
+                    now = event.time;
+                    event.action.run();
+                }
+            }
+            if (!ended) {
+                logger.warning("Fast path simulation stalled with " + summary.getOpenTasks() + " open tasks");
+            }
+        }
+
+        Event schedule(long time, Runnable action) {
+            Event event = new Event(time, sequence++, action);
+            events.add(event);
+            return event;
+        }
+
+        void after(long seconds, Runnable action) {
+            schedule(now + 1000L * Math.max(0, seconds), action);
+        }
+
+        void log(String entryType, String caseIdentifier, String activity, String resource, long startTime,
+                 String result, double quality) {
+            kpis.write(entryType, caseIdentifier, activity, resource, now, startTime, result, quality);
+        }
+
+        // -------------------------------------------------------------------------------------------------------------
+        // Task set and task artefacts
+        // -------------------------------------------------------------------------------------------------------------
+
+        void releaseTasks() {
+            StorybookTask storybookTask;
+            while ((storybookTask = storybook.pollDueTask(now)) != null) {
+                createTask(storybookTask.getCompositeTask());
+            }
+            if (storybook.hasPendingTasks()) {
+                schedule(storybook.getNextStartTime(), this::releaseTasks);
+            } else {
+                summary.releaseCompleted(() -> {
+                    ended = true;
+                    log("ENVIRONMENT", "", "Simulation ended: " + summary.getCreatedTasks() + " tasks, exit code "
+                            + summary.getExitCode(), TaskSetArtifact.class.getName(), -1, "", -1);
+                });
+            }
+        }
+
+        void createTask(String compositeTask) {
+            CompiledCompositeTask compiledCompositeTask = storybook.getCompiledCompositeTask(compositeTask);
+            CompositeTaskDefinition compositeTaskDefinition = storybook.getCompositeTaskDefinition(compositeTask);
+            Task task = new Task(String.format("task_%04d", ++taskNumber), compositeTask, now,
+                                 compiledCompositeTask != null ? compiledCompositeTask
+                                         : new CompiledCompositeTask(new AtomicTaskDefinition[0], Map.of()),
+                                 RandomStreams.of(seed, RandomStreams.TASKS, taskNumber));
+            summary.taskCreated();
+            log("ENVIRONMENT", task.name, "New task: " + compositeTask, TaskArtifact.class.getName(), -1, "", -1);
+
+            reviewedTask = task;
+            task.situationEngine.review(this);
+            if (compositeTaskDefinition.getTimeout() > 0) {
+                task.overallTimeout = schedule(now + 1000L * compositeTaskDefinition.getTimeout(),
+                                               () -> handleTimeout(task, null));
+            }
+            requestReview(task);
+        }
+
+        @Override
+        public void situationActivated(AtomicTaskDefinition atomicTask) {
+            Task task = reviewedTask;
+            log("ENVIRONMENT", task.name, "New situation: " + atomicTask.getSituation(),
+                TaskArtifact.class.getName(), -1, "", -1);
+            if (atomicTask.getOperation() != null) {
+                TaskArtifact.AtomicTaskInstance atomicTaskInstance =
+                        new TaskArtifact.AtomicTaskInstance(atomicTask, now);
+                if (atomicTaskInstance.deadline != Long.MAX_VALUE) {
+                    task.timeouts.put(atomicTaskInstance, schedule(atomicTaskInstance.deadline,
+                                                                   () -> handleTimeout(task, atomicTaskInstance)));
+                }
+                task.activeAtomicTasks.add(atomicTaskInstance);
+            }
+        }
+
+        @Override
+        public void propertyChanged(String property, boolean set) {
+        }
+
+        void handleTimeout(Task task, TaskArtifact.AtomicTaskInstance atomicTaskInstance) {
+            if (task.status != TaskStatus.OPEN || task.situationEngine.getPendingCount() == 0) {
+                return;
+            }
+            if (atomicTaskInstance != null) {
+                if (!task.activeAtomicTasks.contains(atomicTaskInstance)) {
+                    return;
+                }
+                log("ENVIRONMENT", task.name,
+                    "Situation timeout: " + atomicTaskInstance.atomicTaskDefinition.getSituation(),
+                    TaskArtifact.class.getName(), -1, "", -1);
+            }
+            endTask(task, TaskStatus.TIMEOUT);
+        }
+
+        /**
+         * Dispose a task: executions still going on fail right away, as in
+         * {@link TaskArtifact#executeArtifactOperation}.
+         */
+        void endTask(Task task, TaskStatus status) {
+            if (task.status != TaskStatus.OPEN) {
+                return;
+            }
+            task.status = status;
+            if (task.overallTimeout != null) {
+                task.overallTimeout.cancelled = true;
+            }
+            task.timeouts.values().forEach(event -> event.cancelled = true);
+            log("ENVIRONMENT", task.name, "Disposed: " + task.compositeTask, TaskArtifact.class.getName(),
+                task.startTime, String.valueOf(status), task.totalQuality);
+            summary.taskEnded(status, task.totalQuality);
+
+            for (Execution execution : new ArrayList<>(task.executions)) {
+                execution.completion.cancelled = true;
+                schedule(now, () -> {
+                    log("DOMAIN", task.name, execution.operation, execution.agent.name, execution.startTime,
+                        "FAILED (" + task.status + ")", -1);
+                    execution.outcomes.ended(Outcome.FAILED);
+                });
+            }
+            task.executions.clear();
+        }
+
+        /** Execute an operation on a task for an agent, with the quality and time as per the atomic task.
+         * @param agent      executing agent
+         * @param task       task to execute the operation on
+         * @param atomicTask atomic task of the situation as known by the agent
+         * @param outcomes   continuation of the agent
+         */
+        void execute(Agent agent, Task task, AtomicTaskDefinition atomicTask, Outcomes outcomes) {
+            long startTime = now;
+            String operation = atomicTask.getOperation();
+            if (task.status != TaskStatus.OPEN) {
+                outcomes.ended(Outcome.FAILED);
+                return;
+            }
+
+            TaskArtifact.AtomicTaskInstance atomicTaskInstance = task.activeAtomicTasks.find(operation);
+            if (atomicTaskInstance == null) {
+                log("DOMAIN", task.name, operation, agent.name, startTime, "FAILED (Unexpected operation)", -1);
+                outcomes.ended(Outcome.UNEXPECTED);
+                return;
+            }
+
+            AtomicTaskDefinition activeAtomicTask = atomicTaskInstance.atomicTaskDefinition;
+            AgentActionConfig agentActionConfig = agent.config(activeAtomicTask).getExecution();
+            if (agentActionConfig.getInitialTime() < 0) {
+                log("DOMAIN", task.name, operation, agent.name, startTime,
+                    "FAILED (Agent type unable to perform this atomic task)", -1);
+                outcomes.ended(Outcome.UNABLE);
+                return;
+            }
+
+            int cycles = agent.getCycles(atomicTask);
+            double quality = TaskArtifact.calculateQuality(agentActionConfig, cycles, task.random);
+            task.totalQuality *= quality;
+            long endTime = now + TaskSetArtifact.calculateTime(agentActionConfig, cycles);
+
+            TaskArtifact.AtomicTaskInstance instance = atomicTaskInstance;
+            Execution execution = new Execution(startTime, operation, agent, outcomes);
+            task.executions.add(execution);
+            execution.completion = schedule(endTime, () -> {
+                task.executions.remove(execution);
+                completeExecution(agent, task, atomicTask, instance, execution, quality);
+            });
+        }
+
+        void completeExecution(Agent agent, Task task, AtomicTaskDefinition atomicTask,
+                               TaskArtifact.AtomicTaskInstance atomicTaskInstance, Execution execution,
+                               double quality) {
+            AtomicTaskDefinition activeAtomicTask = atomicTaskInstance.atomicTaskDefinition;
+
+            if (quality < activeAtomicTask.getMinimumQuality()) {
+                boolean retry = atomicTaskInstance.retries < activeAtomicTask.getMaximumRetries();
+                if (retry) {
+                    atomicTaskInstance.retries++;
+                } else {
+                    endTask(task, TaskStatus.FAILED);
+                }
+                // As reported to the agent by the failure message of the operation
+                double minimumQuality = Double.parseDouble(
+                        String.format(Locale.ROOT, "%f", activeAtomicTask.getMinimumQuality()));
+                log("DOMAIN", task.name, execution.operation, agent.name, execution.startTime,
+                    "QUALITY BELOW MINIMUM OF " + formatNumber(minimumQuality), quality);
+                execution.outcomes.ended(retry ? Outcome.QUALITY_RETRY : Outcome.FAILED);
+                return;
+            }
+
+            reviewedTask = task;
+            task.situationEngine.applyPostConditions(activeAtomicTask, this);
+            task.activeAtomicTasks.remove(atomicTaskInstance);
+            Event timeout = task.timeouts.remove(atomicTaskInstance);
+            if (timeout != null) {
+                timeout.cancelled = true;
+            }
+            if (task.situationEngine.getPendingCount() == 0 && task.activeAtomicTasks.isEmpty()) {
+                endTask(task, TaskStatus.COMPLETED);
+            } else {
+                task.situationEngine.review(this);
+            }
+
+            agent.cycles.merge(atomicTask, 1, Integer::sum);
+            log("DOMAIN", task.name, execution.operation, agent.name, execution.startTime, "SUCCESS", quality);
+            execution.outcomes.ended(Outcome.SUCCESS);
+        }
+
+        /** Evaluate the situations of a task as recognised by an agent, which takes the evaluation time of each.
+         * @param agent      evaluating agent
+         * @param task       task to evaluate
+         * @param situations atomic tasks of the recognised situations
+         * @param then       continuation once the evaluation is done
+         */
+        void evaluate(Agent agent, Task task, List<AtomicTaskDefinition> situations, Runnable then) {
+            long startTime = now;
+            long evaluationTime = 0;
+            StringBuilder evaluated = new StringBuilder("[");
+            for (AtomicTaskDefinition atomicTask : situations) {
+                AgentActionConfig agentActionConfig = agent.config(atomicTask).getEvaluation();
+                if (agentActionConfig.getInitialTime() >= 0) {
+                    int cycles = agent.getCycles(atomicTask);
+                    TaskSetArtifact.calculateQuality(agentActionConfig, cycles, agent.random);
+                    evaluationTime += TaskSetArtifact.calculateTime(agentActionConfig, cycles);
+                }
+                evaluated.append(evaluated.length() > 1 ? "," : "").append('"')
+                         .append(atomicTask.getSituation().replace("\"", "\\\"")).append('"');
+            }
+            if (situations.isEmpty()) {
+                then.run();
+                return;
+            }
+            schedule(now + evaluationTime, () -> {
+                log("DOMAIN", task.name, "Evaluated situations", agent.name, startTime, evaluated + "]", -1);
+                then.run();
+            });
+        }
+
+        // -------------------------------------------------------------------------------------------------------------
+        // Computational agent
+        // -------------------------------------------------------------------------------------------------------------
+
+        void requestReview(Task task) {
+            if (task.status == TaskStatus.OPEN && !task.reviewRequested) {
+                task.reviewRequested = true;
+                reviews.add(task);
+                reviewNext();
+            }
+        }
+
+        /**
+         * Review the next task, one at a time as the review plan of the CA is atomic.
+         */
+        void reviewNext() {
+            if (ca.busy || reviews.isEmpty()) {
+                return;
+            }
+            Task task = reviews.poll();
+            task.reviewRequested = false;
+            if (task.status != TaskStatus.OPEN || task.helpRequired) {
+                reviewNext();
+                return;
+            }
+
+            ca.busy = true;
+            long refocusingTime = ca.focus == task ? 0 : policy.getCaRefocusingTime();
+            ca.focus = task;
+            after(refocusingTime, () -> {
+                if (task.status != TaskStatus.OPEN) {
+                    endReview();
+                    return;
+                }
+                List<AtomicTaskDefinition> situations = ca.recognise(task, false);
+                evaluate(ca, task, situations, () -> {
+                    if (task.status == TaskStatus.OPEN) {
+                        List<AtomicTaskDefinition> clean = new ArrayList<>(situations);
+                        clean.removeAll(ca.suspicious);
+                        if (clean.isEmpty()) {
+                            if (task.executing.isEmpty()) {
+                                requestHelp(task);
+                            }
+                        } else {
+                            for (AtomicTaskDefinition atomicTask : clean) {
+                                if (task.executing.add(atomicTask)) {
+                                    execute(ca, task, atomicTask, outcome -> caExecutionEnded(task, atomicTask,
+                                                                                              outcome));
+                                }
+                            }
+                        }
+                    }
+                    endReview();
+                });
+            });
+        }
+
+        void endReview() {
+            ca.busy = false;
+            schedule(now, this::reviewNext);
+        }
+
+        void caExecutionEnded(Task task, AtomicTaskDefinition atomicTask, Outcome outcome) {
+            task.executing.remove(atomicTask);
+            switch (outcome) {
+                case SUCCESS, QUALITY_RETRY -> requestReview(task);
+                case UNEXPECTED -> {
+                    task.unexpectedOperations.add(atomicTask);
+                    ca.suspicious.add(atomicTask);
+                    requestHelp(task);
+                }
+                default -> {
+                }
+            }
+        }
+
+        void requestHelp(Task task) {
+            if (!policy.getHandoverOnUnknownSituation() || task.helpRequired) {
+                return;
+            }
+            task.helpRequired = true;
+            helpRequests.put(task.name, task);
+            if (!ha.busy) {
+                ha.busy = true;
+                schedule(now, this::assistCycle);
+            }
+        }
+
+        void withdrawHelpRequest(Task task) {
+            task.helpRequired = false;
+            helpRequests.remove(task.name);
+        }
+
+        /** Hand a task back to the CA if it recognises a situation it can handle again.
+         * @return true if the task has been handed back
+         */
+        boolean handBack(Task task) {
+            if (ca.recognise(task, true).isEmpty()) {
+                return false;
+            }
+            withdrawHelpRequest(task);
+            requestReview(task);
+            return true;
+        }
+
+        // -------------------------------------------------------------------------------------------------------------
+        // Human support agent
+        // -------------------------------------------------------------------------------------------------------------
+
+        /**
+         * Assist on the tasks handed over one by one, claiming them like the HSA claims requests from the blackboard,
+         * then teach if due, and start over until there is nothing left to do.
+         */
+        void assistCycle() {
+            Task task = claimHelpRequest();
+            if (task != null) {
+                assist(task, this::assistCycle);
+            } else if (teacher == null && policy.getHumanTeaching() && !teachingRequests.isEmpty()) {
+                AtomicTaskDefinition atomicTask = teachingRequests.iterator().next();
+                teach(ha, policy.getHaRefocusingTime(), atomicTask, this::assistCycle);
+            } else {
+                ha.busy = false;
+            }
+        }
+
+        /**
+         * @return task with the earliest overall timeout among the tasks handed over, first handed over first if
+         * there is no such timeout, as per {@link BlackboardArtifact} claims; null if there is none
+         */
+        Task claimHelpRequest() {
+            Task claimed = null;
+            for (Task task : helpRequests.values()) {
+                if (claimed == null || getDeadline(task) < getDeadline(claimed)) {
+                    claimed = task;
+                }
+            }
+            return claimed;
+        }
+
+        long getDeadline(Task task) {
+            return task.overallTimeout == null ? Long.MAX_VALUE : task.overallTimeout.time;
+        }
+
+        void assist(Task task, Runnable then) {
+            if (!task.helpRequired || task.status != TaskStatus.OPEN) {
+                ha.focus = null;
+                withdrawHelpRequest(task);
+                schedule(now, then);
+                return;
+            }
+            long refocusingTime = ha.focus == task ? 0 : policy.getHaRefocusingTime();
+            ha.focus = task;
+            after(refocusingTime, () -> {
+                if (task.status != TaskStatus.OPEN) {
+                    log("MANAGEMENT", task.name, "Assisting CSA", ha.name, -1,
+                        "FAILED (Task artefact disappeared)", -1);
+                    ha.focus = null;
+                    withdrawHelpRequest(task);
+                    then.run();
+                    return;
+                }
+                reviewKnowledge(task, () -> assistOnce(task, then));
+            });
+        }
+
+        /**
+         * Clear up operations the CA found unexpected, and learn the next atomic task if no situation is recognised.
+         */
+        void reviewKnowledge(Task task, Runnable then) {
+            if (!task.unexpectedOperations.isEmpty()) {
+                AtomicTaskDefinition atomicTask = task.unexpectedOperations.get(0);
+                if (ha.knows(atomicTask)) {
+                    ha.forget(atomicTask.getSituation());
+                }
+                ca.forget(atomicTask.getSituation());
+                after(policy.getNoteTakingTime(), () -> {
+                    task.unexpectedOperations.remove(atomicTask);
+                    reviewKnowledge(task, then);
+                });
+                return;
+            }
+            if (ha.recognise(task, false).isEmpty() && !task.activeAtomicTasks.isEmpty()) {
+                learn(ha, task.activeAtomicTasks.getFirst().atomicTaskDefinition, then);
+                return;
+            }
+            then.run();
+        }
+
+        void assistOnce(Task task, Runnable then) {
+            List<AtomicTaskDefinition> situations = ha.recognise(task, false);
+            evaluate(ha, task, situations, () -> {
+                if (situations.isEmpty()) {
+                    // Escalation due to lack of knowledge
+                    ha.focus = null;
+                    endTask(task, TaskStatus.DISPOSED);
+                    withdrawHelpRequest(task);
+                    then.run();
+                    return;
+                }
+                AtomicTaskDefinition atomicTask = situations.get(0);
+                execute(ha, task, atomicTask, outcome -> {
+                    switch (outcome) {
+                        case SUCCESS -> {
+                            if (teacher != null || policy.getHumanTeaching()) {
+                                requestTeaching(atomicTask);
+                            }
+                            if (task.status == TaskStatus.OPEN) {
+                                handBack(task);
+                            }
+                        }
+                        case QUALITY_RETRY -> handBack(task);
+                        case UNEXPECTED -> ha.forget(atomicTask.getSituation());
+                        case UNABLE -> withdrawHelpRequest(task);
+                        default -> {
+                        }
+                    }
+                    assist(task, then);
+                });
+            });
+        }
+
+        // -------------------------------------------------------------------------------------------------------------
+        // Learning and teaching
+        // -------------------------------------------------------------------------------------------------------------
+
+        /**
+         * Let an agent learn an atomic task by itself, which takes the learning times of evaluation and execution.
+         */
+        void learn(Agent agent, AtomicTaskDefinition atomicTask, Runnable then) {
+            AgentConfig agentConfig = agent.config(atomicTask);
+            int evaluationLearningTime = agentConfig.getEvaluation().getLearningTime();
+            int executionLearningTime = agentConfig.getExecution().getLearningTime();
+            if (evaluationLearningTime < 0 || executionLearningTime < 0) {
+                then.run();
+                return;
+            }
+            after(evaluationLearningTime + executionLearningTime, () -> {
+                agent.learn(atomicTask);
+                then.run();
+            });
+        }
+
+        void requestTeaching(AtomicTaskDefinition atomicTask) {
+            if (!teachingRequests.add(atomicTask) || teacher == null) {
+                return;
+            }
+            teacherQueue.add(atomicTask);
+            if (!teacher.busy) {
+                teacher.busy = true;
+                schedule(now, this::teachNext);
+            }
+        }
+
+        void teachNext() {
+            AtomicTaskDefinition atomicTask = teacherQueue.poll();
+            if (atomicTask == null) {
+                teacher.busy = false;
+                return;
+            }
+            teach(teacher, policy.getTeacherRefocusingTime(), atomicTask, this::teachNext);
+        }
+
+        /**
+         * Teach the CA an atomic task, learning it first if need be, and hand back the tasks the CA recognises
+         * a situation of thereafter.
+         */
+        void teach(Agent agent, long refocusingTime, AtomicTaskDefinition atomicTask, Runnable then) {
+            after(refocusingTime, () -> {
+                Runnable teaching = () -> {
+                    int teachingTime = agent.config(atomicTask).getExecution().getTeachingTime();
+                    Runnable done = () -> {
+                        teachingRequests.remove(atomicTask);
+                        for (Task task : new ArrayList<>(helpRequests.values())) {
+                            if (task != ha.focus || agent == ha) {
+                                handBack(task);
+                            }
+                        }
+                        then.run();
+                    };
+                    if (agent.knows(atomicTask) && teachingTime >= 0) {
+                        after(teachingTime + policy.getTeachingDelay(), () -> {
+                            ca.learn(atomicTask);
+                            done.run();
+                        });
+                    } else {
+                        done.run();
+                    }
+                };
+                if (agent.knows(atomicTask)) {
+                    teaching.run();
+                } else {
+                    learn(agent, atomicTask, teaching);
+                }
+            });
+        }
+    }
+
+    /**
+     * Format a number as the agents do when logging it.
+     */
+    private static String formatNumber(double value) {
+        return value == Math.rint(value) && !Double.isInfinite(value) ? Long.toString((long) value)
+                : Double.toString(value);
+    }
+
+    /** Write a single run of the simulation as KPI report and run summary.
+     * @param seed            seed of the run
+     * @param outputDirectory directory to write {@code kpis.json} and {@code summary.json} to
+     * @return run summary
+     * @throws IOException if the output cannot be written
+     */
+    public String simulate(long seed, Path outputDirectory) throws IOException {
+        Run run = new Run(seed);
+        run.simulate();
+        String summary = run.summary.toJson(run.now);
+        Files.createDirectories(outputDirectory);
+        Files.writeString(outputDirectory.resolve("kpis.json"), run.kpis.toJson());
+        Files.writeString(outputDirectory.resolve("summary.json"), summary);
+        return summary;
+    }
+
+    /** Run the same script with the multi-agent system and the fast path, and compare the KPIs.
+     * @param projectFileName JaCaMo project file
+     * @param targets         target half-widths by KPI, see {@link ReplicationRunner}
+     * @param replications    number of replications of either
+     * @param parallelism     number of replications run concurrently
+     * @param seed            seed from which the seeds of the replications are derived, pairwise for both
+     * @param outputDirectory directory for the output of the replications of the multi-agent system
+     * @return comparison as JSON object
+     * @throws InterruptedException if interrupted while waiting for replications
+     */
+    @SuppressWarnings("unchecked")
+    public String crossValidate(String projectFileName, Map<String, String> targets, int replications,
+                                int parallelism, long seed, Path outputDirectory) throws InterruptedException {
+        long realStart = System.currentTimeMillis();
+        String multiAgent = new ReplicationRunner(
+                new ReplicationRunner.JaCaMoReplication(projectFileName, outputDirectory, List.of()),
+                targets, 0.95, replications, replications, parallelism).run(seed);
+        long multiAgentMillis = System.currentTimeMillis() - realStart;
+
+        realStart = System.currentTimeMillis();
+        String fastPath = new ReplicationRunner(this, targets, 0.95, replications, replications, parallelism)
+                .run(seed);
+        long fastPathMillis = Math.max(1, System.currentTimeMillis() - realStart);
+
+        Map<String, Object> multiAgentKpis = (Map<String, Object>) ((Map<String, Object>) new Yaml().load(multiAgent))
+                .get("kpis");
+        Map<String, Object> fastPathKpis = (Map<String, Object>) ((Map<String, Object>) new Yaml().load(fastPath))
+                .get("kpis");
+
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"replications\": ").append(replications).append(",\n");
+        json.append("  \"speedup\": ").append((double) multiAgentMillis / fastPathMillis).append(",\n");
+        json.append("  \"kpis\": {");
+        String separator = "";
+        for (String kpi : targets.keySet()) {
+            Map<String, Object> reference = (Map<String, Object>) multiAgentKpis.get(kpi);
+            Map<String, Object> candidate = (Map<String, Object>) fastPathKpis.get(kpi);
+            double referenceMean = ((Number) reference.get("mean")).doubleValue();
+            double candidateMean = ((Number) candidate.get("mean")).doubleValue();
+            double referenceHalfWidth = reference.get("half_width") == null ? Double.POSITIVE_INFINITY
+                    : ((Number) reference.get("half_width")).doubleValue();
+            double candidateHalfWidth = candidate.get("half_width") == null ? Double.POSITIVE_INFINITY
+                    : ((Number) candidate.get("half_width")).doubleValue();
+            double deviation = candidateMean - referenceMean;
+
+            json.append(separator).append("\n    \"").append(kpi).append("\": {")
+                .append("\"multi_agent\": ").append(referenceMean)
+                .append(", \"fast_path\": ").append(candidateMean)
+                .append(", \"deviation\": ").append(deviation)
+                .append(", \"relative_deviation\": ")
+                .append(referenceMean == 0 ? "null" : String.valueOf(deviation / Math.abs(referenceMean)))
+                .append(", \"consistent\": ")
+                .append(Math.abs(deviation) <= Math.hypot(referenceHalfWidth, candidateHalfWidth))
+                .append('}');
+            separator = ",";
+        }
+        return json.append(targets.isEmpty() ? "}\n" : "\n  }\n").append("}\n").toString();
+    }
+
+    /**
+     * Run the fast path simulation of a JaCaMo project file or simulation script, or cross-validate it.
+     * @param args project file or simulation script and options, see above
+     * @throws Exception if the simulation cannot be run or its output cannot be written
+     */
+    public static void main(String[] args) throws Exception {
+        String fileName = null;
+        Map<String, String> targets = new LinkedHashMap<>();
+        boolean crossValidate = false;
+        int replications = DEFAULT_CROSS_VALIDATION_REPLICATIONS;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        long seed = 1;
+        Path outputDirectory = null;
+        Map<String, String> overrides = new LinkedHashMap<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--cross-validate": crossValidate = true; break;
+                    case "--replications": replications = Integer.parseInt(args[++i]); break;
+                    case "--parallel": parallelism = Integer.parseInt(args[++i]); break;
+                    case "--seed": seed = Long.parseLong(args[++i]); break;
+                    case "--output": outputDirectory = Path.of(args[++i]); break;
+                    case "--handover", "--refocusing-time", "--teaching-delay", "--human-teaching":
+                        overrides.put(args[i], args[++i]);
+                        break;
+                    default:
+                        if (fileName == null) {
+                            fileName = args[i];
+                        } else {
+                            int separator = args[i].lastIndexOf('=');
+                            targets.put(separator > 0 ? args[i].substring(0, separator) : args[i],
+                                        separator > 0 ? args[i].substring(separator + 1) : "0");
+                        }
+                }
+            }
+            if (fileName == null || (crossValidate && (targets.isEmpty() || !fileName.endsWith(".jcm")))) {
+                throw new IllegalArgumentException("project file or script required; project file and KPIs for "
+                                                           + "cross-validation");
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Usage: FastPathSimulation <project.jcm|script.yaml> [--seed 1] [--output dir] "
+                                       + "[--handover true] [--refocusing-time s] [--teaching-delay s] "
+                                       + "[--human-teaching false]\n"
+                                       + "       FastPathSimulation <project.jcm> --cross-validate "
+                                       + "<kpi path>[=<half-width>[%]] ... [--replications 10] [--parallel n] "
+                                       + "[--seed 1] [--output dir]");
+            System.exit(2);
+        }
+
+        String scriptFileName = fileName;
+        FastPathPolicy policy = new FastPathPolicy();
+        if (fileName.endsWith(".jcm")) {
+            String project = Files.readString(Path.of(fileName));
+            policy = FastPathPolicy.fromProject(project);
+            scriptFileName = SweepRunner.getScriptFileName(project);
+        }
+        for (Map.Entry<String, String> override : overrides.entrySet()) {
+            switch (override.getKey()) {
+                case "--handover" -> policy.setHandoverOnUnknownSituation(Boolean.parseBoolean(override.getValue()));
+                case "--refocusing-time" -> policy.setHaRefocusingTime(Integer.parseInt(override.getValue()));
+                case "--teaching-delay" -> policy.setTeachingDelay(Integer.parseInt(override.getValue()));
+                default -> policy.setHumanTeaching(Boolean.parseBoolean(override.getValue()));
+            }
+        }
+        FastPathSimulation simulation =
+                new FastPathSimulation(scriptFileName, Files.readString(Path.of(scriptFileName)), policy);
+
+        if (crossValidate) {
+            outputDirectory = outputDirectory != null ? outputDirectory : Path.of("log", "cross_validation");
+            Files.createDirectories(outputDirectory);
+            String result = simulation.crossValidate(new File(fileName).getAbsolutePath(), targets, replications,
+                                                     parallelism, seed, outputDirectory);
+            Files.writeString(outputDirectory.resolve("cross_validation.json"), result);
+            System.out.print(result);
+        } else {
+            System.out.print(simulation.simulate(seed, outputDirectory != null ? outputDirectory
+                    : Path.of("log", "fast_path")));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+package task;
+
+import java.util.SplittableRandom;
+
+/**
+ * Derivation of independent random number streams from the seed of a run: every task, agent and arrival process
+ * draws from its own {@link SplittableRandom}, seeded from the seed of the run and the ID of the stream. Streams
+ * are therefore not shared between threads, and a rerun with the same seed draws the same values per stream
+ * regardless of the order in which the streams are used.
+ */
+final class RandomStreams {
+    /** Streams of task artefacts, by task number */
+    static final int TASKS = 0;
+    /** Streams of agents evaluating situations, by hash of the agent name */
+    static final int AGENTS = 1;
+    /** Streams of arrival processes without seed of their own, by position in the simulation script */
+    static final int ARRIVAL_PROCESSES = 2;
+
+    private RandomStreams() {}
+
+    /** Derive the seed of a stream.
+     * @param seed   seed of the run
+     * @param domain kind of stream, e.g. {@link #TASKS}
+     * @param id     ID of the stream within its kind
+     * @return seed of the stream
+     */
+    static long seed(long seed, int domain, int id) {
+        // Scramble the stream ID into the seed with the finaliser of SplittableRandom (Stafford's variant 13), so
+        // that neighbouring stream IDs yield unrelated seeds
+        long z = seed + (((long) domain << 32 | (id & 0xffffffffL)) + 1) * 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Create a stream.
+     * @param seed   seed of the run
+     * @param domain kind of stream, e.g. {@link #TASKS}
+     * @param id     ID of the stream within its kind
+     * @return random number generator of the stream
+     */
+    static SplittableRandom of(long seed, int domain, int id) {
+        return new SplittableRandom(seed(seed, domain, id));
+    }
+}
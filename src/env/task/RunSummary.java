@@ -0,0 +1,139 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+package task;
+
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Bookkeeping of a simulation run: counts the task artefacts created and disposed, so that the end of the run is
+ * detected the moment the last open task gets disposed after the storybook has been fully released, and provides
+ * a machine-readable summary of the outcome.
+ * <p>The exit code of a run is 0 if all tasks completed, 1 if at least one task failed, timed out or got
+ * disposed otherwise, and 2 if no task was created at all.
+ */
+public class RunSummary {
+    private final String scriptFileName;
+    private final long realStartTime = System.currentTimeMillis();
+    private final long simulationStartTime;
+    private final long seed;
+    private final Map<TaskStatus, Integer> endedTasks = new EnumMap<>(TaskStatus.class);
+    private int createdTasks = 0;
+    private int openTasks = 0;
+    private double completedQuality = 0.0;
+    private boolean releaseComplete = false;
+    private Runnable endOfRunAction = null;
+
+    /**
+     * @param scriptFileName      simulation script the run is based on
+     * @param simulationStartTime simulation time in milliseconds at the start of the run
+     * @param seed                seed of the random number streams of the run
+     */
+    public RunSummary(String scriptFileName, long simulationStartTime, long seed) {
+        this.scriptFileName = scriptFileName;
+        this.simulationStartTime = simulationStartTime;
+        this.seed = seed;
+    }
+
+    /**
+     * Take note of a task artefact being created.
+     */
+    public synchronized void taskCreated() {
+        createdTasks++;
+        openTasks++;
+    }
+
+    /** Take note of a task artefact being disposed.
+     * @param status  final status of the task
+     * @param quality overall quality achieved for the task
+     */
+    synchronized void taskEnded(TaskStatus status, double quality) {
+        openTasks--;
+        endedTasks.merge(status, 1, Integer::sum);
+        if (status == TaskStatus.COMPLETED) {
+            completedQuality += quality;
+        }
+        checkEndOfRun();
+    }
+
+    /** Take note of the storybook having been fully released and register the action to run once all tasks have
+     * ended; the action runs right away if there are no open tasks.
+     * @param endOfRunAction action to run at the end of the run, on the thread disposing the last task
+     */
+    public synchronized void releaseCompleted(Runnable endOfRunAction) {
+        this.releaseComplete = true;
+        this.endOfRunAction = endOfRunAction;
+        checkEndOfRun();
+    }
+
+    private void checkEndOfRun() {
+        if (releaseComplete && openTasks <= 0 && endOfRunAction != null) {
+            Runnable action = endOfRunAction;
+            endOfRunAction = null;
+            action.run();
+        }
+    }
+
+    /**
+     * @return number of tasks that have been created but not disposed yet
+     */
+    public synchronized int getOpenTasks() {
+        return openTasks;
+    }
+
+    /**
+     * @return number of tasks created so far
+     */
+    public synchronized int getCreatedTasks() {
+        return createdTasks;
+    }
+
+    /** Retrieve the number of tasks that ended with a given status.
+     * @param status final status
+     * @return number of tasks
+     */
+    synchronized int getEndedTasks(TaskStatus status) {
+        return endedTasks.getOrDefault(status, 0);
+    }
+
+    /**
+     * @return process exit code summarising the outcome of the run
+     */
+    public synchronized int getExitCode() {
+        if (createdTasks == 0) {
+            return 2;
+        }
+        return getEndedTasks(TaskStatus.COMPLETED) == createdTasks ? 0 : 1;
+    }
+
+    /** Render the summary as JSON object.
+     * @param simulationEndTime simulation time in milliseconds at the end of the run
+     * @return JSON text
+     */
+    public synchronized String toJson(long simulationEndTime) {
+        int completed = getEndedTasks(TaskStatus.COMPLETED);
+
+        return "{\n"
+                + "  \"script\": \"" + scriptFileName.replace("\\", "\\\\").replace("\"", "\\\"") + "\",\n"
+                + "  \"seed\": " + seed + ",\n"
+                + "  \"simulation_start\": \"" + Instant.ofEpochMilli(simulationStartTime) + "\",\n"
+                + "  \"simulation_end\": \"" + Instant.ofEpochMilli(simulationEndTime) + "\",\n"
+                + "  \"simulated_seconds\": " + (simulationEndTime - simulationStartTime) / 1000.0 + ",\n"
+                + "  \"real_seconds\": " + (System.currentTimeMillis() - realStartTime) / 1000.0 + ",\n"
+                + "  \"tasks_created\": " + createdTasks + ",\n"
+                + "  \"tasks_open\": " + openTasks + ",\n"
+                + "  \"tasks_completed\": " + completed + ",\n"
+                + "  \"tasks_failed\": " + getEndedTasks(TaskStatus.FAILED) + ",\n"
+                + "  \"tasks_timeout\": " + getEndedTasks(TaskStatus.TIMEOUT) + ",\n"
+                + "  \"tasks_disposed\": " + getEndedTasks(TaskStatus.DISPOSED) + ",\n"
+                + "  \"mean_quality_completed\": " + (completed == 0 ? 0.0 : completedQuality / completed) + ",\n"
+                + "  \"exit_code\": " + getExitCode() + "\n"
+                + "}\n";
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+package task;
+
+import java.util.BitSet;
+
+/**
+ * Incremental activation of atomic tasks for one instance of a composite task. Task properties are kept in a
+ * bitset indexed by property ID; whenever a property changes, only the pending atomic tasks whose pre-conditions
+ * refer to it are marked for re-evaluation, so that a review costs time proportional to the changes rather than to
+ * the number of atomic tasks.
+ * <p>The engine does not depend on CArtAgO: the task artefact is notified of activations and property changes
+ * through a {@link Listener}, which turns them into log entries and observable {@code task_property}s.
+ */
+public class SituationEngine {
+    private final CompiledCompositeTask compositeTask;
+    private final BitSet properties = new BitSet();
+    private final BitSet pending = new BitSet();
+    private final BitSet dirty = new BitSet();
+
+    /**
+     * Callback interface for the effects of a review.
+     */
+    public interface Listener {
+        /** Called when the pre-conditions of an atomic task are met, before any post-conditions of a situation
+         * transition are applied.
+         * @param atomicTask activated atomic task
+         */
+        void situationActivated(AtomicTaskDefinition atomicTask);
+
+        /** Called whenever a task property is actually set or removed.
+         * @param property name of the task property
+         * @param set true if the property has been set, false if it has been removed
+         */
+        void propertyChanged(String property, boolean set);
+    }
+
+    /**
+     * Create the engine for a new instance of a composite task: no task properties set, all atomic tasks pending
+     * and due for evaluation.
+     * @param compositeTask compiled composite task
+     */
+    public SituationEngine(CompiledCompositeTask compositeTask) {
+        this.compositeTask = compositeTask;
+        pending.set(0, compositeTask.size());
+        dirty.set(0, compositeTask.size());
+    }
+
+    /**
+     * @return number of atomic tasks not activated yet
+     */
+    public int getPendingCount() {
+        return pending.cardinality();
+    }
+
+    /** Check whether a task property is set.
+     * @param property name of the task property
+     * @return true if the property is set
+     */
+    public boolean isSet(String property) {
+        int id = compositeTask.getPropertyId(property);
+        return id >= 0 && properties.get(id);
+    }
+
+    /** Set or remove a task property, e.g. as modified by an agent, without reviewing the atomic tasks. Properties
+     * that no atomic task refers to are ignored.
+     * @param property name of the task property
+     * @param set true to set, false to remove the property
+     * @return true if the property changed
+     */
+    public boolean setProperty(String property, boolean set) {
+        int id = compositeTask.getPropertyId(property);
+        if (id < 0 || properties.get(id) == set) {
+            return false;
+        }
+        properties.set(id, set);
+        for (int dependent : compositeTask.getDependents(id)) {
+            if (pending.get(dependent)) {
+                dirty.set(dependent);
+            }
+        }
+        return true;
+    }
+
+    /** Apply the post-conditions of an atomic task in the order of the simulation script.
+     * @param atomicTask completed atomic task or situation transition
+     * @param listener   notified of every property actually changed
+     */
+    public void applyPostConditions(AtomicTaskDefinition atomicTask, Listener listener) {
+        String[] names = atomicTask.postConditionProperties();
+        boolean[] adds = atomicTask.postConditionAdds();
+
+        for (int i = 0; i < names.length; i++) {
+            if (setProperty(names[i], adds[i])) {
+                listener.propertyChanged(names[i], adds[i]);
+            }
+        }
+    }
+
+    /**
+     * Activate all pending atomic tasks whose pre-conditions are met. Situation transitions (atomic tasks without
+     * an operation) apply their post-conditions right away, which may activate further atomic tasks. Atomic tasks
+     * are evaluated in passes in the order of the simulation script, just like a full scan would do, but skipping
+     * those that are unaffected by property changes since their last evaluation.
+     * @param listener notified of activations and property changes
+     * @return number of atomic tasks activated
+     */
+    public int review(Listener listener) {
+        int activated = 0;
+
+        while (!dirty.isEmpty()) {
+            for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+                dirty.clear(i);
+                AtomicTaskDefinition atomicTask = compositeTask.getAtomicTask(i);
+                if (!pending.get(i) || !isSatisfied(atomicTask)) {
+                    continue;
+                }
+                pending.clear(i);
+                activated++;
+                listener.situationActivated(atomicTask);
+                if (atomicTask.getOperation() == null) {
+                    applyPostConditions(atomicTask, listener);
+                }
+            }
+        }
+        return activated;
+    }
+
+    private boolean isSatisfied(AtomicTaskDefinition atomicTask) {
+        for (int id : atomicTask.forbiddenPropertyIds()) {
+            if (properties.get(id)) {
+                return false;
+            }
+        }
+        for (int id : atomicTask.requiredPropertyIds()) {
+            if (!properties.get(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -7,8 +7,11 @@
  */
 package task;
 
+import java.util.Objects;
+
 /**
- * Class holding a situation-operation tuple and providing a comparison method.
+ * Class holding a situation-operation tuple and providing a comparison method. Tuples are used as keys when
+ * looking up atomic task definitions, hence equals and hashCode consider both situation and operation.
  */
 public class SituationOperation {
     private String situation;
@@ -57,4 +60,22 @@ public class SituationOperation {
             return this.situation.equals(situation) && operation == null;
         }
     }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof SituationOperation)) {
+            return false;
+        }
+        SituationOperation situationOperation = (SituationOperation) other;
+        return Objects.equals(situation, situationOperation.situation)
+                && Objects.equals(operation, situationOperation.operation);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(situation, operation);
+    }
 }
@@ -7,35 +7,119 @@
  */
 package task;
 
+import org.yaml.snakeyaml.TypeDescription;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.Constructor;
+
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.logging.Logger;
 
 /**
  * Class holding the "story" being told, i.e. the full contents of the simulation script with all its
  * composite tasks, required atomic tasks, and timeline.
+ * <p>Once sorted, the timeline is consumed through a cursor: releasing a task is O(1), and tasks are never
+ * removed from the underlying list. Tasks generated by {@link ArrivalProcess}es are merged into the timeline
+ * lazily, through a priority queue holding each process along with its next arrival.
+ * <p>After loading, the scenario is compiled once (see {@link #compile()}): atomic task definitions are indexed by
+ * their situation-operation tuple, task properties are numbered, and each composite task is resolved into a
+ * {@link CompiledCompositeTask}, so that creating a task artefact or answering an agent's request requires no
+ * scans.
  */
 public class Storybook {
     private ArrayList<StorybookTask> storybookTasks;
     private Map<String, CompositeTaskDefinition> compositeTaskDefinitions;
     private List<AtomicTaskDefinition> atomicTaskDefinitions;
+    private List<ArrivalProcess> arrivalProcesses = new ArrayList<>();
+    private int timelineCursor = 0;
+    private final Map<SituationOperation, AtomicTaskDefinition> atomicTaskIndex = new HashMap<>();
+    private final Map<String, CompiledCompositeTask> compositeTaskIndex = new HashMap<>();
+    private final Map<String, Integer> propertyIds = new HashMap<>();
+    private final PriorityQueue<ArrivalProcess> activeArrivalProcesses =
+            new PriorityQueue<>(Comparator.comparingLong((ArrivalProcess process) -> process.peek().getStartTime()));
     static private final Logger logger = Logger.getLogger(TaskArtifact.class.getName());
 
+    /** Load and compile a simulation script.
+     * @param inputStream YAML text of the simulation script
+     * @return compiled storybook; still to be sorted before releasing tasks
+     */
+    public static Storybook load(InputStream inputStream) {
+        Constructor constructor = new Constructor(Storybook.class);
+        TypeDescription storybookDesc = new TypeDescription(Storybook.class);
+        storybookDesc.addPropertyParameters("storybookTasks", StorybookTask.class);
+        storybookDesc.addPropertyParameters("compositeTasks", CompositeTaskDefinition.class);
+        storybookDesc.addPropertyParameters("atomicTasks", AtomicTaskDefinition.class);
+        storybookDesc.addPropertyParameters("arrivalProcesses", ArrivalProcess.class);
+        constructor.addTypeDescription(storybookDesc);
+        TypeDescription arrivalProcessDesc = new TypeDescription(ArrivalProcess.class);
+        arrivalProcessDesc.addPropertyParameters("bursts", BurstWindow.class);
+        constructor.addTypeDescription(arrivalProcessDesc);
+
+        Storybook storybook = new Yaml(constructor).load(inputStream);
+        storybook.compile();
+        return storybook;
+    }
+
     public CompositeTaskDefinition getCompositeTaskDefinition(String compositeTaskName) {
         return compositeTaskDefinitions.get(compositeTaskName);
     }
 
+    /**
+     * Compile the scenario after loading: compile the conditions of all atomic tasks, index atomic task definitions
+     * by situation-operation tuple (the first definition wins, as with a scan of the simulation script) and
+     * resolve the atomic tasks of all composite tasks.
+     */
+    public void compile() {
+        atomicTaskIndex.clear();
+        propertyIds.clear();
+        for (AtomicTaskDefinition atomicTaskDefinition : atomicTaskDefinitions) {
+            atomicTaskDefinition.compileConditions(propertyIds);
+            atomicTaskIndex.putIfAbsent(new SituationOperation(atomicTaskDefinition.getSituation(),
+                                                               atomicTaskDefinition.getOperation()),
+                                        atomicTaskDefinition);
+        }
+
+        compositeTaskIndex.clear();
+        for (Map.Entry<String, CompositeTaskDefinition> entry : compositeTaskDefinitions.entrySet()) {
+            ArrayList<AtomicTaskDefinition> atomicTaskList = new ArrayList<>();
+            for (SituationOperation situationOperation : entry.getValue().getAtomicTasks()) {
+                AtomicTaskDefinition atomicTaskDefinition = getAtomicTaskDefinition(situationOperation);
+                if (atomicTaskDefinition != null) {
+                    atomicTaskList.add(atomicTaskDefinition);
+                }
+            }
+            compositeTaskIndex.put(entry.getKey(),
+                                   new CompiledCompositeTask(atomicTaskList.toArray(new AtomicTaskDefinition[0]),
+                                                             propertyIds));
+        }
+    }
+
+    /** Retrieve the compiled form of a composite task, as required for instantiating it.
+     * @param compositeTaskName designation of composite task (descriptive string)
+     * @return compiled composite task; null if the composite task was not found in the simulation script
+     */
+    public CompiledCompositeTask getCompiledCompositeTask(String compositeTaskName) {
+        CompiledCompositeTask compiledCompositeTask = compositeTaskIndex.get(compositeTaskName);
+
+        if (compiledCompositeTask == null) {
+            logger.warning("Cannot find definition for composite task: "+compositeTaskName);
+        }
+        return compiledCompositeTask;
+    }
+
     /** Retrieve the full definition of an atomic task based on its Situation-Operation designation.
      * @param situationOperation Situation-Operation reference
      * @return definition of an atomic task - if found; null otherwise.
      */
     public AtomicTaskDefinition getAtomicTaskDefinition(SituationOperation situationOperation) {
-        for (AtomicTaskDefinition atomicTaskDefinition : atomicTaskDefinitions) {
-            if (situationOperation.equals(atomicTaskDefinition.getSituation(), atomicTaskDefinition.getOperation())) {
-                return atomicTaskDefinition;
-            }
+        AtomicTaskDefinition atomicTaskDefinition = atomicTaskIndex.get(situationOperation);
+        if (atomicTaskDefinition != null) {
+            return atomicTaskDefinition;
         }
         // else - if no atomic task found with that Situation-Operation signature:
         logger.warning("Atomic task definition for situation '"+situationOperation.getSituation()
@@ -44,26 +128,16 @@ public class Storybook {
         return null;
     }
 
-    /** Retrieve a list of all relevant atomic task definitions for a composite task.
+    /** Retrieve a list of all relevant atomic task definitions for a composite task. The list is a fresh copy
+     * of the compiled definitions, which the caller may modify.
      * @param compositeTaskName designation of composite task (descriptive string)
      * @return list of all atomic tasks that are part of that composite task; may be empty if the composite task
      * was not found in the simulation script (storybook)
      */
-    public ArrayList<AtomicTaskDefinition> getAtomicTaskDefinitions(String compositeTaskName) {
-        ArrayList<AtomicTaskDefinition> atomicTaskList = new ArrayList<>();
-
-        if (compositeTaskDefinitions.get(compositeTaskName) == null) {
-            logger.warning("Cannot find definition for composite task: "+compositeTaskName);
-            return atomicTaskList;
-        }
-
-        for (SituationOperation situationOperation : compositeTaskDefinitions.get(compositeTaskName).getAtomicTasks())
-
-            if (getAtomicTaskDefinition(situationOperation) != null) {
-                atomicTaskList.add(getAtomicTaskDefinition(situationOperation));
-            }
+    public List<AtomicTaskDefinition> getAtomicTaskDefinitions(String compositeTaskName) {
+        CompiledCompositeTask compiledCompositeTask = getCompiledCompositeTask(compositeTaskName);
 
-        return atomicTaskList;
+        return compiledCompositeTask == null ? new ArrayList<>() : compiledCompositeTask.getAtomicTasks();
     }
 
     public List<AtomicTaskDefinition> getAtomicTaskDefinitions() {
@@ -74,6 +148,10 @@ public class Storybook {
         return storybookTasks;
     }
 
+    public Map<String, CompositeTaskDefinition> getCompositeTaskDefinitions() {
+        return compositeTaskDefinitions;
+    }
+
     public void setCompositeTaskDefinitions(Map<String, CompositeTaskDefinition> compositeTaskDefinitions) {
         this.compositeTaskDefinitions = compositeTaskDefinitions;
     }
@@ -86,20 +164,89 @@ public class Storybook {
         this.storybookTasks = storybookTasks;
     }
 
-    /** Remove a number of storybook tasks from the overall storybook, useful once instantiated.
-     * @param storybookTasks list of storybook tasks to be removed from the overall storybook.
-     */
-    public void removeStorybookTask(ArrayList<StorybookTask> storybookTasks) {
-        for (StorybookTask storybookTask : storybookTasks)
-            this.storybookTasks.remove(storybookTask);
+    public List<ArrivalProcess> getArrivalProcesses() {
+        return arrivalProcesses;
+    }
+
+    public void setArrivalProcesses(List<ArrivalProcess> arrivalProcesses) {
+        this.arrivalProcesses = arrivalProcesses;
     }
 
     /**
-     * Sort all tasks in a simulation script along their start time.
+     * Sort all tasks in a simulation script along their start time and rewind the timeline, including all arrival
+     * processes. The sort is stable, so that tasks with identical start times are released in the order of the
+     * simulation script. Invalid arrival processes are skipped with a warning.
+     * @param seed seed of the run, from which arrival processes without seed of their own derive theirs
      */
-    public void sortStorybookTasks() {
+    public void sortStorybookTasks(long seed) {
         Comparator<StorybookTask> comp = Comparator.comparing(StorybookTask::getStartTime);
 
+        if (storybookTasks == null) {
+            storybookTasks = new ArrayList<>();
+        }
         storybookTasks.sort(comp);
+        timelineCursor = 0;
+
+        activeArrivalProcesses.clear();
+        if (arrivalProcesses == null) {
+            arrivalProcesses = new ArrayList<>();
+        }
+        for (int i = 0; i < arrivalProcesses.size(); i++) {
+            ArrivalProcess arrivalProcess = arrivalProcesses.get(i);
+            String problem = arrivalProcess.validate();
+            if (problem != null) {
+                logger.warning("Skipping arrival process " + (i + 1) + ": " + problem);
+                continue;
+            }
+            arrivalProcess.start(RandomStreams.seed(seed, RandomStreams.ARRIVAL_PROCESSES, i));
+            if (arrivalProcess.peek() != null) {
+                activeArrivalProcesses.add(arrivalProcess);
+            }
+        }
+    }
+
+    /** Release the next task of the timeline if it is due, i.e. move the cursor past it or let the arrival process
+     * it stems from generate its next task.
+     * @param simulationTime current simulation time in milliseconds
+     * @return next task if its start time has been reached; null otherwise
+     */
+    public StorybookTask pollDueTask(long simulationTime) {
+        ArrivalProcess arrivalProcess = activeArrivalProcesses.peek();
+
+        if (timelineCursor < storybookTasks.size()
+                && storybookTasks.get(timelineCursor).getStartTime() <= simulationTime
+                && (arrivalProcess == null
+                    || storybookTasks.get(timelineCursor).getStartTime() <= arrivalProcess.peek().getStartTime())) {
+            return storybookTasks.get(timelineCursor++);
+        }
+
+        if (arrivalProcess != null && arrivalProcess.peek().getStartTime() <= simulationTime) {
+            activeArrivalProcesses.poll();
+            StorybookTask storybookTask = arrivalProcess.poll();
+            if (arrivalProcess.peek() != null) {
+                activeArrivalProcesses.add(arrivalProcess);
+            }
+            return storybookTask;
+        }
+        return null;
+    }
+
+    /**
+     * @return start time of the next task to be released in milliseconds; Long.MAX_VALUE if there is none
+     */
+    public long getNextStartTime() {
+        long nextStartTime = timelineCursor < storybookTasks.size() ? storybookTasks.get(timelineCursor).getStartTime()
+                                                                    : Long.MAX_VALUE;
+        if (!activeArrivalProcesses.isEmpty()) {
+            nextStartTime = Math.min(nextStartTime, activeArrivalProcesses.peek().peek().getStartTime());
+        }
+        return nextStartTime;
+    }
+
+    /**
+     * @return true if there are tasks not yet released, either listed or to be generated
+     */
+    public boolean hasPendingTasks() {
+        return timelineCursor < storybookTasks.size() || !activeArrivalProcesses.isEmpty();
     }
 }
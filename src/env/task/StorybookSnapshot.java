@@ -0,0 +1,478 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+package task;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Cache of compiled simulation scripts: the storybook parsed from a script is stored as a binary snapshot, named
+ * by the SHA-256 hash of the script text, so that later runs of the same script skip YAML parsing and load the
+ * snapshot memory-mapped instead. A changed script has another hash and is parsed again, as is a script whose
+ * snapshot has another format version or cannot be read.
+ * <p>Snapshots are kept in the directory given by the system property {@code hi_simulator.storybook.cache}
+ * ({@value #DEFAULT_DIRECTORY} by default); an empty value disables the cache. A snapshot file starts with the
+ * magic bytes {@code HISIMSTB}, the format version (int) and the hash of the script (32 bytes); the storybook
+ * tasks, composite task definitions, atomic task definitions and arrival processes follow in the order of the
+ * script. Strings are stored as length (int, -1 for null) and UTF-8 bytes, lists as count (int, -1 for null) and
+ * their elements, boxed numbers and nested objects behind a presence byte; fixed-size values are big-endian.
+ */
+final class StorybookSnapshot {
+    static final byte[] MAGIC = "HISIMSTB".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final String DEFAULT_DIRECTORY = "log/storybook";
+    static private final Logger logger = Logger.getLogger(StorybookSnapshot.class.getName());
+
+    private StorybookSnapshot() {}
+
+    /** Load a simulation script from file, from its snapshot if there is one.
+     * @param fileName file name of the simulation script
+     * @return compiled storybook; still to be sorted before releasing tasks
+     */
+    static Storybook load(String fileName) {
+        try {
+            return load(Files.readAllBytes(Paths.get(fileName)));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Load a simulation script from its snapshot if there is one; otherwise, parse the YAML text and store a
+     * snapshot for the next run.
+     * @param script YAML text of the simulation script
+     * @return compiled storybook; still to be sorted before releasing tasks
+     */
+    static Storybook load(byte[] script) {
+        String directory = System.getProperty("hi_simulator.storybook.cache", DEFAULT_DIRECTORY);
+        if (directory.isEmpty()) {
+            return Storybook.load(new ByteArrayInputStream(script));
+        }
+
+        byte[] hash = hash(script);
+        Path snapshot = Paths.get(directory, toHex(hash) + ".storybook");
+
+        if (Files.isRegularFile(snapshot)) {
+            try {
+                Storybook storybook = read(snapshot, hash);
+                if (storybook != null) {
+                    storybook.compile();
+                    return storybook;
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warning("Cannot read storybook snapshot " + snapshot + ", parsing the script instead: " + e);
+            }
+        }
+
+        Storybook storybook = Storybook.load(new ByteArrayInputStream(script));
+        try {
+            write(storybook, hash, snapshot);
+        } catch (IOException e) {
+            logger.warning("Cannot write storybook snapshot " + snapshot + ": " + e);
+        }
+        return storybook;
+    }
+
+    static byte[] hash(byte[] script) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(script);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Write a snapshot of a freshly parsed storybook. The snapshot is written to a temporary file first and then
+     * moved in place, so that concurrent runs of the same script never see a partial snapshot.
+     */
+    static void write(Storybook storybook, byte[] hash, Path snapshot) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+        out.write(hash);
+
+        List<StorybookTask> storybookTasks = storybook.getStorybookTasks();
+        writeCount(out, storybookTasks);
+        if (storybookTasks != null) {
+            for (StorybookTask storybookTask : storybookTasks) {
+                writeString(out, storybookTask.getTaskName());
+                writeString(out, storybookTask.getCompositeTask());
+                writeDate(out, storybookTask.getStartTimeISO8601());
+            }
+        }
+
+        Map<String, CompositeTaskDefinition> compositeTaskDefinitions = storybook.getCompositeTaskDefinitions();
+        out.writeInt(compositeTaskDefinitions == null ? -1 : compositeTaskDefinitions.size());
+        if (compositeTaskDefinitions != null) {
+            for (Map.Entry<String, CompositeTaskDefinition> entry : compositeTaskDefinitions.entrySet()) {
+                writeString(out, entry.getKey());
+                writeInteger(out, entry.getValue().getTimeout());
+                List<SituationOperation> atomicTasks = entry.getValue().getAtomicTasks();
+                writeCount(out, atomicTasks);
+                if (atomicTasks != null) {
+                    for (SituationOperation situationOperation : atomicTasks) {
+                        writeString(out, situationOperation.getSituation());
+                        writeString(out, situationOperation.getOperation());
+                    }
+                }
+            }
+        }
+
+        List<AtomicTaskDefinition> atomicTaskDefinitions = storybook.getAtomicTaskDefinitions();
+        writeCount(out, atomicTaskDefinitions);
+        if (atomicTaskDefinitions != null) {
+            for (AtomicTaskDefinition atomicTask : atomicTaskDefinitions) {
+                writeString(out, atomicTask.getSituation());
+                writeString(out, atomicTask.getOperation());
+                writeInteger(out, atomicTask.getTimeout());
+                writeDouble(out, atomicTask.getMinimumQuality());
+                writeInteger(out, atomicTask.getMaximumRetries());
+                writeStrings(out, atomicTask.getPreConditions());
+                writeStrings(out, atomicTask.getPostConditions());
+                writeAgentConfig(out, atomicTask.getCaConfig());
+                writeAgentConfig(out, atomicTask.getHaConfig());
+            }
+        }
+
+        List<ArrivalProcess> arrivalProcesses = storybook.getArrivalProcesses();
+        writeCount(out, arrivalProcesses);
+        if (arrivalProcesses != null) {
+            for (ArrivalProcess arrivalProcess : arrivalProcesses) {
+                writeString(out, arrivalProcess.getTaskName());
+                writeString(out, arrivalProcess.getCompositeTask());
+                writeDate(out, arrivalProcess.getStartTimeISO8601());
+                writeDate(out, arrivalProcess.getEndTimeISO8601());
+                out.writeDouble(arrivalProcess.getRatePerHour());
+                List<Number> hourlyProfile = arrivalProcess.getHourlyProfile();
+                writeCount(out, hourlyProfile);
+                if (hourlyProfile != null) {
+                    for (Number factor : hourlyProfile) {
+                        out.writeDouble(factor.doubleValue());
+                    }
+                }
+                List<BurstWindow> bursts = arrivalProcess.getBursts();
+                writeCount(out, bursts);
+                if (bursts != null) {
+                    for (BurstWindow burst : bursts) {
+                        writeDate(out, burst.getStartTimeISO8601());
+                        writeDate(out, burst.getEndTimeISO8601());
+                        out.writeDouble(burst.getRateMultiplier());
+                    }
+                }
+                out.writeInt(arrivalProcess.getCount());
+                writeLong(out, arrivalProcess.getSeed());
+            }
+        }
+        out.flush();
+
+        Files.createDirectories(snapshot.toAbsolutePath().getParent());
+        Path temporary = Files.createTempFile(snapshot.toAbsolutePath().getParent(), "snapshot", ".tmp");
+        try {
+            Files.write(temporary, bytes.toByteArray());
+            Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Read a snapshot, memory-mapped.
+     * @return storybook as parsed from the script, not compiled yet; null if the snapshot has another format
+     * version or stems from another script
+     */
+    static Storybook read(Path snapshot, byte[] hash) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        byte[] magic = new byte[MAGIC.length];
+        byte[] snapshotHash = new byte[hash.length];
+        if (in.remaining() < magic.length + 4 + hash.length) {
+            return null;
+        }
+        in.get(magic);
+        int version = in.getInt();
+        in.get(snapshotHash);
+        if (!Arrays.equals(magic, MAGIC) || version != VERSION || !Arrays.equals(snapshotHash, hash)) {
+            return null;
+        }
+
+        Storybook storybook = new Storybook();
+
+        int count = in.getInt();
+        if (count >= 0) {
+            ArrayList<StorybookTask> storybookTasks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                StorybookTask storybookTask = new StorybookTask();
+                storybookTask.setTaskName(readString(in));
+                storybookTask.setCompositeTask(readString(in));
+                storybookTask.setStartTimeISO8601(readDate(in));
+                storybookTasks.add(storybookTask);
+            }
+            storybook.setStorybookTasks(storybookTasks);
+        }
+
+        count = in.getInt();
+        if (count >= 0) {
+            Map<String, CompositeTaskDefinition> compositeTaskDefinitions = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = readString(in);
+                CompositeTaskDefinition compositeTaskDefinition = new CompositeTaskDefinition();
+                compositeTaskDefinition.setTimeout(readInteger(in));
+                int atomicTaskCount = in.getInt();
+                if (atomicTaskCount >= 0) {
+                    List<SituationOperation> atomicTasks = new ArrayList<>(atomicTaskCount);
+                    for (int j = 0; j < atomicTaskCount; j++) {
+                        atomicTasks.add(new SituationOperation(readString(in), readString(in)));
+                    }
+                    compositeTaskDefinition.setAtomicTasks(atomicTasks);
+                }
+                compositeTaskDefinitions.put(name, compositeTaskDefinition);
+            }
+            storybook.setCompositeTaskDefinitions(compositeTaskDefinitions);
+        }
+
+        count = in.getInt();
+        if (count >= 0) {
+            List<AtomicTaskDefinition> atomicTaskDefinitions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                AtomicTaskDefinition atomicTask = new AtomicTaskDefinition();
+                atomicTask.setSituation(readString(in));
+                atomicTask.setOperation(readString(in));
+                atomicTask.setTimeout(readInteger(in));
+                atomicTask.setMinimumQuality(readDouble(in));
+                atomicTask.setMaximumRetries(readInteger(in));
+                atomicTask.setPreConditions(readStrings(in));
+                atomicTask.setPostConditions(readStrings(in));
+                atomicTask.setCaConfig(readAgentConfig(in));
+                atomicTask.setHaConfig(readAgentConfig(in));
+                atomicTaskDefinitions.add(atomicTask);
+            }
+            storybook.setAtomicTaskDefinitions(atomicTaskDefinitions);
+        }
+
+        count = in.getInt();
+        if (count >= 0) {
+            List<ArrivalProcess> arrivalProcesses = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                ArrivalProcess arrivalProcess = new ArrivalProcess();
+                arrivalProcess.setTaskName(readString(in));
+                arrivalProcess.setCompositeTask(readString(in));
+                arrivalProcess.setStartTimeISO8601(readDate(in));
+                arrivalProcess.setEndTimeISO8601(readDate(in));
+                arrivalProcess.setRatePerHour(in.getDouble());
+                int factorCount = in.getInt();
+                if (factorCount >= 0) {
+                    List<Number> hourlyProfile = new ArrayList<>(factorCount);
+                    for (int j = 0; j < factorCount; j++) {
+                        hourlyProfile.add(in.getDouble());
+                    }
+                    arrivalProcess.setHourlyProfile(hourlyProfile);
+                } else {
+                    arrivalProcess.setHourlyProfile(null);
+                }
+                int burstCount = in.getInt();
+                if (burstCount >= 0) {
+                    List<BurstWindow> bursts = new ArrayList<>(burstCount);
+                    for (int j = 0; j < burstCount; j++) {
+                        BurstWindow burst = new BurstWindow();
+                        burst.setStartTimeISO8601(readDate(in));
+                        burst.setEndTimeISO8601(readDate(in));
+                        burst.setRateMultiplier(in.getDouble());
+                        bursts.add(burst);
+                    }
+                    arrivalProcess.setBursts(bursts);
+                } else {
+                    arrivalProcess.setBursts(null);
+                }
+                arrivalProcess.setCount(in.getInt());
+                arrivalProcess.setSeed(readLong(in));
+                arrivalProcesses.add(arrivalProcess);
+            }
+            storybook.setArrivalProcesses(arrivalProcesses);
+        } else {
+            storybook.setArrivalProcesses(null);
+        }
+        return storybook;
+    }
+
+    /**
+     * Write the configuration of an agent type. Minimum time and optimal quality are written as effective values,
+     * which behave the same as the defaults they may stem from.
+     */
+    private static void writeAgentConfig(DataOutputStream out, AgentConfig agentConfig) throws IOException {
+        out.writeBoolean(agentConfig != null);
+        if (agentConfig == null) {
+            return;
+        }
+        writeBoolean(out, agentConfig.getInitialKnowledge());
+        for (AgentActionConfig action : new AgentActionConfig[]{agentConfig.getEvaluation(),
+                                                                 agentConfig.getExecution()}) {
+            out.writeBoolean(action != null);
+            if (action != null) {
+                writeInteger(out, action.getInitialTime());
+                writeInteger(out, action.getMinimumTime());
+                writeDouble(out, action.getInitialQuality());
+                writeDouble(out, action.getOptimalQuality());
+                writeInteger(out, action.getLearningCycles());
+                writeInteger(out, action.getLearningTime());
+                writeInteger(out, action.getTeachingTime());
+            }
+        }
+    }
+
+    private static AgentConfig readAgentConfig(ByteBuffer in) {
+        if (in.get() == 0) {
+            return null;
+        }
+        AgentConfig agentConfig = new AgentConfig();
+        agentConfig.setInitialKnowledge(readBoolean(in));
+        agentConfig.setEvaluation(readAgentActionConfig(in));
+        agentConfig.setExecution(readAgentActionConfig(in));
+        return agentConfig;
+    }
+
+    private static AgentActionConfig readAgentActionConfig(ByteBuffer in) {
+        if (in.get() == 0) {
+            return null;
+        }
+        AgentActionConfig action = new AgentActionConfig();
+        action.setInitialTime(readInteger(in));
+        action.setMinimumTime(readInteger(in));
+        action.setInitialQuality(readDouble(in));
+        action.setOptimalQuality(readDouble(in));
+        action.setLearningCycles(readInteger(in));
+        action.setLearningTime(readInteger(in));
+        action.setTeachingTime(readInteger(in));
+        return action;
+    }
+
+    private static void writeCount(DataOutputStream out, List<?> list) throws IOException {
+        out.writeInt(list == null ? -1 : list.size());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        writeCount(out, values);
+        if (values != null) {
+            for (String value : values) {
+                writeString(out, value);
+            }
+        }
+    }
+
+    private static List<String> readStrings(ByteBuffer in) {
+        int count = in.getInt();
+        if (count < 0) {
+            return null;
+        }
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+    private static void writeInteger(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static Integer readInteger(ByteBuffer in) {
+        return in.get() == 0 ? null : in.getInt();
+    }
+
+    private static void writeLong(DataOutputStream out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value);
+        }
+    }
+
+    private static Long readLong(ByteBuffer in) {
+        return in.get() == 0 ? null : in.getLong();
+    }
+
+    private static void writeDouble(DataOutputStream out, Double value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static Double readDouble(ByteBuffer in) {
+        return in.get() == 0 ? null : in.getDouble();
+    }
+
+    private static void writeBoolean(DataOutputStream out, Boolean value) throws IOException {
+        out.writeByte(value == null ? -1 : value ? 1 : 0);
+    }
+
+    private static Boolean readBoolean(ByteBuffer in) {
+        byte value = in.get();
+        return value < 0 ? null : value != 0;
+    }
+
+    private static void writeDate(DataOutputStream out, Date value) throws IOException {
+        writeLong(out, value == null ? null : value.getTime());
+    }
+
+    private static Date readDate(ByteBuffer in) {
+        Long time = readLong(in);
+        return time == null ? null : new Date(time);
+    }
+}
@@ -0,0 +1,440 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+package task;
+
+import control.CsvLogSink;
+import control.ReplicationRunner;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.Constructor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parameter sweep over the simulation script and the beliefs of the agents in the JaCaMo project file, as specified
+ * by a {@link SweepSpecification}: every combination of parameter values is run for every seed by a pool of worker
+ * processes, each running the multi-agent system in batch mode. The KPIs of all points are written to a single
+ * CSV table, {@code sweep.csv} in the output directory, one row per point.
+ * <p>Points are keyed by a hash of the varied simulation script, the varied project file and the seed. Points whose
+ * key is found in the table are skipped, so an interrupted sweep resumes where it stopped when run again; failed
+ * points, including points that do not report all KPIs, are not written to the table and are thus retried.
+ */
+public class SweepRunner {
+    static private final Logger logger = Logger.getLogger("hi_simulator");
+    static private final String JCM_PREFIX = "jcm:";
+    static private final Pattern SEGMENT = Pattern.compile("([^\\[]*)(?:\\[([^]]*)])?");
+    static private final Pattern TASK_SET_SCRIPT =
+            Pattern.compile("(task\\.TaskSetArtifact\\(\\s*)\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    private final SweepSpecification specification;
+    private final Path outputDirectory;
+    private final Path projectFile;
+    private final String projectText;
+    private final String scriptText;
+    private final List<String> header = new ArrayList<>();
+
+    /** A combination of parameter values run with a seed. */
+    private static class Point {
+        final List<Object> values;
+        final long seed;
+        String script;
+        String project;
+        String key;
+
+        Point(List<Object> values, long seed) {
+            this.values = values;
+            this.seed = seed;
+        }
+    }
+
+    /**
+     * @param specification sweep to run
+     * @throws IOException if the project file or simulation script cannot be read
+     */
+    public SweepRunner(SweepSpecification specification) throws IOException {
+        if (specification.getKpis().isEmpty()) {
+            throw new IllegalArgumentException("Sweep specification without KPIs");
+        }
+        this.specification = specification;
+        this.outputDirectory = Path.of(specification.getOutput());
+        this.projectFile = Path.of(specification.getProject()).toAbsolutePath();
+        this.projectText = Files.readString(projectFile);
+
+        String scriptFileName = specification.getScript();
+        if (scriptFileName == null) {
+            scriptFileName = getScriptFileName(projectText);
+        }
+        this.scriptText = Files.readString(Path.of(scriptFileName));
+
+        header.add("key");
+        header.add("seed");
+        header.addAll(specification.getParameters().keySet());
+        header.addAll(specification.getKpis());
+    }
+
+    /** Run all points of the sweep that are not yet in the table.
+     * @throws IOException if the table cannot be read or written
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public void run() throws IOException, InterruptedException {
+        Files.createDirectories(outputDirectory);
+        Path table = outputDirectory.resolve("sweep.csv");
+        Set<String> completed = readCompletedKeys(table);
+
+        List<Point> points = new ArrayList<>();
+        for (List<Object> values : cartesianProduct(new ArrayList<>(specification.getParameters().values()))) {
+            for (long seed : specification.getSeeds()) {
+                Point point = new Point(values, seed);
+                prepare(point);
+                if (!completed.contains(point.key)) {
+                    points.add(point);
+                }
+            }
+        }
+        logger.info("Sweep: " + points.size() + " points to run, " + completed.size() + " completed before");
+
+        AtomicInteger failures = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, specification.getWorkers()));
+        try (BufferedWriter writer = Files.newBufferedWriter(table, StandardCharsets.UTF_8,
+                                                             StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (Files.size(table) == 0) {
+                writer.write(csvLine(header));
+                writer.flush();
+            }
+            for (Point point : points) {
+                workers.execute(() -> {
+                    try {
+                        List<String> row = runPoint(point);
+                        synchronized (writer) {
+                            writer.write(csvLine(row));
+                            writer.flush();
+                        }
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                        logger.warning("Sweep point " + point.key + " failed: " + e);
+                    }
+                });
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } finally {
+            workers.shutdownNow();
+        }
+        if (failures.get() > 0) {
+            logger.warning("Sweep: " + failures.get() + " points failed; run the sweep again to retry them");
+        }
+    }
+
+    /**
+     * Apply the parameter values of a point to the simulation script and the project file, and derive its key.
+     */
+    @SuppressWarnings("unchecked")
+    private void prepare(Point point) {
+        Object script = new Yaml().load(scriptText);
+        String project = projectText;
+        int i = 0;
+        for (String path : specification.getParameters().keySet()) {
+            Object value = point.values.get(i++);
+            if (path.startsWith(JCM_PREFIX)) {
+                project = setBelief(project, path.substring(JCM_PREFIX.length()), value);
+            } else {
+                setPath(script, path, value);
+            }
+        }
+
+        DumperOptions options = new DumperOptions();
+        options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+        point.script = new Yaml(options).dump(script);
+        point.project = project;
+
+        // Fail early on parameters that turn the script invalid, rather than in every worker; this also leaves a
+        // snapshot of the script for the workers to load
+        StorybookSnapshot.load(point.script.getBytes(StandardCharsets.UTF_8));
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(point.script.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(point.project.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(Long.toString(point.seed).getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(String.format("%02x", b));
+            }
+            point.key = key.substring(0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Run the multi-agent system for a point in a worker process.
+     * @return row of the table
+     */
+    private List<String> runPoint(Point point) throws Exception {
+        Path pointDirectory = outputDirectory.resolve("points").resolve(point.key);
+        Files.createDirectories(pointDirectory);
+        Path script = pointDirectory.resolve("script.yaml").toAbsolutePath();
+        Files.writeString(script, point.script);
+
+        // The project file stays next to the original, so that agent sources are resolved as for the original
+        String escapedScript = script.toString().replace("\\", "\\\\");
+        String project = TASK_SET_SCRIPT.matcher(point.project)
+                .replaceFirst(Matcher.quoteReplacement("task.TaskSetArtifact(") + "\""
+                                      + Matcher.quoteReplacement(escapedScript) + "\"");
+        Files.writeString(pointDirectory.resolve("project.jcm"), project);
+        String projectName = projectFile.getFileName().toString().replaceFirst("\\.jcm$", "");
+        Path pointProject = projectFile.resolveSibling(projectName + "-sweep-" + point.key + ".jcm");
+        Files.writeString(pointProject, project);
+
+        Map<String, Double> kpis;
+        try {
+            logger.info("Sweep point " + point.key + ": " + point.values + ", seed " + point.seed);
+            kpis = new ReplicationRunner.JaCaMoReplication(pointProject.toString(), pointDirectory,
+                                                           specification.getJvmOptions())
+                    .run(point.seed, point.key);
+        } finally {
+            Files.deleteIfExists(pointProject);
+        }
+
+        List<String> row = new ArrayList<>();
+        row.add(point.key);
+        row.add(Long.toString(point.seed));
+        for (Object value : point.values) {
+            row.add(String.valueOf(value));
+        }
+        for (String kpi : specification.getKpis()) {
+            Double value = kpis.get(kpi);
+            if (value == null) {
+                throw new IOException("KPI " + kpi + " not reported");
+            }
+            row.add(value.toString());
+        }
+        return row;
+    }
+
+    /** Read the keys of the points in the table of an earlier run of the sweep.
+     * @param table CSV table of the sweep
+     * @return keys of completed points
+     * @throws IOException if the table cannot be read, or it has been written for different parameters or KPIs
+     */
+    private Set<String> readCompletedKeys(Path table) throws IOException {
+        Set<String> keys = new HashSet<>();
+        if (!Files.exists(table)) {
+            return keys;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(table, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null) {
+                return keys;
+            }
+            if (!line.equals(csvLine(header).stripTrailing())) {
+                throw new IOException(table + " has been written by a sweep with other parameters or KPIs");
+            }
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf(',');
+                if (separator > 0) {
+                    keys.add(line.substring(0, separator));
+                }
+            }
+        }
+        return keys;
+    }
+
+    /** Look up the simulation script of the task set artefact in a JaCaMo project file.
+     * @param project text of the project file
+     * @return file name of the simulation script
+     */
+    static String getScriptFileName(String project) {
+        Matcher matcher = TASK_SET_SCRIPT.matcher(project);
+        if (!matcher.find()) {
+            throw new IllegalArgumentException("No task set artefact in project file");
+        }
+        // Unescape the string term; forward slashes work for Windows paths on all platforms
+        return matcher.group(2).replaceAll("\\\\(.)", "$1").replace('\\', '/');
+    }
+
+    /** Set a value in the YAML tree of the simulation script.
+     * @param node  root of the tree
+     * @param path  path of the value, e.g. {@code atomicTaskDefinitions[situation=Client known]/timeout}
+     * @param value value to set
+     */
+    @SuppressWarnings("unchecked")
+    static void setPath(Object node, String path, Object value) {
+        List<Object> nodes = List.of(node);
+        String[] segments = path.split("/");
+        for (int i = 0; i < segments.length; i++) {
+            Matcher matcher = SEGMENT.matcher(segments[i]);
+            if (!matcher.matches()) {
+                throw new IllegalArgumentException("Invalid segment '" + segments[i] + "' in " + path);
+            }
+            String key = matcher.group(1);
+            String selector = matcher.group(2);
+            boolean last = i == segments.length - 1;
+            List<Object> next = new ArrayList<>();
+
+            for (Object current : nodes) {
+                if (!key.isEmpty()) {
+                    if (!(current instanceof Map)) {
+                        throw new IllegalArgumentException("'" + key + "' is not within a mapping in " + path);
+                    }
+                    Map<String, Object> map = (Map<String, Object>) current;
+                    if (last && selector == null) {
+                        map.put(key, value);
+                        continue;
+                    }
+                    current = map.computeIfAbsent(key, k -> new LinkedHashMap<String, Object>());
+                }
+                if (selector == null) {
+                    next.add(current);
+                } else if (current instanceof List) {
+                    next.addAll(select((List<Object>) current, selector, path));
+                } else {
+                    throw new IllegalArgumentException("'" + segments[i] + "' is not a list in " + path);
+                }
+            }
+            if (last && selector != null) {
+                throw new IllegalArgumentException("Path must end with a key: " + path);
+            }
+            if (!last && next.isEmpty()) {
+                throw new IllegalArgumentException("'" + segments[i] + "' selects nothing in " + path);
+            }
+            nodes = next;
+        }
+    }
+
+    /**
+     * Select list entries by {@code *}, index or {@code key=value}.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Object> select(List<Object> list, String selector, String path) {
+        if (selector.equals("*")) {
+            return list;
+        }
+        int separator = selector.indexOf('=');
+        if (separator < 0) {
+            try {
+                return List.of(list.get(Integer.parseInt(selector.trim())));
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Invalid selector [" + selector + "] in " + path);
+            }
+        }
+        String key = selector.substring(0, separator).trim();
+        String value = selector.substring(separator + 1).trim();
+        List<Object> selected = new ArrayList<>();
+        for (Object entry : list) {
+            if (entry instanceof Map && value.equals(String.valueOf(((Map<String, Object>) entry).get(key)))) {
+                selected.add(entry);
+            }
+        }
+        return selected;
+    }
+
+    /** Set the value of a belief of an agent in the text of a JaCaMo project file.
+     * @param project text of the project file
+     * @param path    agent and belief, e.g. {@code hsa/refocusing_time}
+     * @param value   value of the belief; strings are quoted
+     * @return text of the project file with the belief set
+     */
+    static String setBelief(String project, String path, Object value) {
+        int separator = path.indexOf('/');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Expected " + JCM_PREFIX + "<agent>/<belief>: " + path);
+        }
+        String agent = path.substring(0, separator);
+        String belief = path.substring(separator + 1);
+
+        Matcher agentMatcher = Pattern.compile("\\bagent\\s+" + Pattern.quote(agent) + "\\b[^{]*\\{([^}]*)}")
+                .matcher(project);
+        if (!agentMatcher.find()) {
+            throw new IllegalArgumentException("No agent " + agent + " in project file");
+        }
+        String block = agentMatcher.group(1);
+        Matcher beliefMatcher = Pattern.compile("\\b" + Pattern.quote(belief) + "\\(([^)]*)\\)").matcher(block);
+        if (!beliefMatcher.find()) {
+            throw new IllegalArgumentException("No belief " + belief + " of agent " + agent + " in project file");
+        }
+        String term = value instanceof Number || value instanceof Boolean
+                ? value.toString()
+                : "\"" + String.valueOf(value).replace("\"", "\\\"") + "\"";
+        String changed = block.substring(0, beliefMatcher.start(1)) + term + block.substring(beliefMatcher.end(1));
+        return project.substring(0, agentMatcher.start(1)) + changed + project.substring(agentMatcher.end(1));
+    }
+
+    /**
+     * @return all combinations of one value per grid, in the order of the grids
+     */
+    static List<List<Object>> cartesianProduct(List<List<Object>> grids) {
+        List<List<Object>> product = new ArrayList<>();
+        product.add(new ArrayList<>());
+        for (List<Object> grid : grids) {
+            List<List<Object>> extended = new ArrayList<>();
+            for (List<Object> combination : product) {
+                for (Object value : grid) {
+                    List<Object> next = new ArrayList<>(combination);
+                    next.add(value);
+                    extended.add(next);
+                }
+            }
+            product = extended;
+        }
+        return product;
+    }
+
+    private static String csvLine(List<String> fields) {
+        StringBuilder line = new StringBuilder();
+        for (String field : fields) {
+            if (line.length() > 0) {
+                line.append(',');
+            }
+            CsvLogSink.appendField(line, field);
+        }
+        return line.append(System.lineSeparator()).toString();
+    }
+
+    /**
+     * Run a parameter sweep.
+     * @param args sweep specification file
+     * @throws Exception if the sweep cannot be run
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: SweepRunner <sweep.yaml>");
+            System.exit(2);
+        }
+        SweepSpecification specification;
+        try (Reader reader = Files.newBufferedReader(new File(args[0]).toPath())) {
+            specification = new Yaml(new Constructor(SweepSpecification.class)).load(reader);
+        }
+        new SweepRunner(specification).run();
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+package task;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class holding a parameter sweep specification as run by the {@link SweepRunner}, e.g.:
+ * <pre>{@code
+ * project: hi_simulator.jcm
+ * script: cfg/simulation_script.yaml
+ * seeds: [1, 2, 3]
+ * workers: 4
+ * output: log/sweep
+ * parameters:
+ *   atomicTaskDefinitions[situation=Client is unidentified]/haConfig/execution/learningCycles: [5, 10, 20]
+ *   atomicTaskDefinitions[*]/maximumRetries: [0, 1, 2]
+ *   compositeTaskDefinitions/Customer modem software issue/timeout: [600, 1200]
+ *   jcm:hsa/refocusing_time: [10, 20, 40]
+ * kpis:
+ *   - composite_tasks/Customer modem software issue/duration_seconds/p95
+ *   - summary/mean_quality_completed
+ * }</pre>
+ * <p>Parameter paths lead through the simulation script: path segments are keys of YAML mappings; list entries
+ * are selected by index, by {@code [key=value]} or all of them by {@code [*]}. Missing keys are added. Paths starting
+ * with {@code jcm:} set the belief of an agent in the JaCaMo project file instead, as {@code jcm:<agent>/<belief>}.
+ * KPIs are paths into the KPI report of a run, with the run summary available under {@code summary}.
+ */
+public class SweepSpecification {
+    private String project = "hi_simulator.jcm";
+    private String script = null;
+    private List<Long> seeds = new ArrayList<>(List.of(1L));
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private String output = "log/sweep";
+    private List<String> jvmOptions = new ArrayList<>();
+    private Map<String, List<Object>> parameters = new LinkedHashMap<>();
+    private List<String> kpis = new ArrayList<>();
+
+    public String getProject() {
+        return project;
+    }
+
+    public void setProject(String project) {
+        this.project = project;
+    }
+
+    /**
+     * @return simulation script to vary; null for the one configured for the task set in the project file
+     */
+    public String getScript() {
+        return script;
+    }
+
+    public void setScript(String script) {
+        this.script = script;
+    }
+
+    public List<Long> getSeeds() {
+        return seeds;
+    }
+
+    public void setSeeds(List<Long> seeds) {
+        this.seeds = seeds;
+    }
+
+    /**
+     * @return number of worker processes running points concurrently
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public void setOutput(String output) {
+        this.output = output;
+    }
+
+    public List<String> getJvmOptions() {
+        return jvmOptions;
+    }
+
+    public void setJvmOptions(List<String> jvmOptions) {
+        this.jvmOptions = jvmOptions;
+    }
+
+    /**
+     * @return value grid by parameter path, in the order of the sweep specification
+     */
+    public Map<String, List<Object>> getParameters() {
+        return parameters;
+    }
+
+    public void setParameters(Map<String, List<Object>> parameters) {
+        this.parameters = parameters;
+    }
+
+    public List<String> getKpis() {
+        return kpis;
+    }
+
+    public void setKpis(List<String> kpis) {
+        this.kpis = kpis;
+    }
+}
@@ -8,43 +8,77 @@
 package task;
 
 import cartago.*;
-import control.LoggerArtifact;
-import control.TimerArtifact;
+import control.ScheduledEvent;
+import control.SimulationClock;
+import control.SimulationContext;
+import control.SimulationLog;
+import control.SimulationSleep;
 
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
 import java.util.logging.Logger;
 
 /**
- * Class representing a core artefact in the task environment: an instance of a composite task.
+ * Class representing a core artefact in the task environment: an instance of a composite task. The activation of
+ * atomic tasks is delegated to a {@link SituationEngine}, which keeps the task properties in a bitset; every change
+ * is mirrored into an observable {@code task_property} for the agents. The quality of executions is drawn from a
+ * random number stream of its own, derived from the seed of the run and the task number.
  */
 public class TaskArtifact extends Artifact {
     static private final Logger logger = Logger.getLogger(TaskArtifact.class.getName());
-    private final long startTime = TimerArtifact.getSimulationTime();
-    private final ArrayList<AtomicTaskInstance> activeAtomicTasks = new ArrayList<>();
+    private SimulationContext context;
+    private SimulationClock clock;
+    private SimulationLog log;
+    private long startTime;
+    private final AtomicTaskRegistry activeAtomicTasks = new AtomicTaskRegistry();
+    private final ArrayList<SimulationSleep> runningOperations = new ArrayList<>();
     private TaskStatus status = TaskStatus.OPEN;
-    private List<AtomicTaskDefinition> atomicTasks;
+    private SituationEngine situationEngine;
+    private final SituationEngine.Listener reviewListener = new ReviewListener();
     private String compositeTask;
     private Double totalQuality = 1.0;
+    private ScheduledEvent overallTimeoutEvent = null;
+    private ScheduledEvent atomicTaskTimeoutEvent = null;
+    private AtomicTaskInstance atomicTaskTimeoutInstance = null;
+    private RunSummary runSummary = null;
+    private SplittableRandom random;
 
     /**
      * Initialise the newly created task artefact:
      *
      * @param compositeTask           Human-readable name of task taken from simulation script
      * @param compositeTaskDefinition Composite task properties
-     * @param atomicTasks             List of atomic tasks that are part of this composite task
+     * @param compiledCompositeTask   Compiled atomic tasks that are part of this composite task; null if unknown
+     * @param runSummary              Bookkeeping of the run, to be notified upon disposal; null if not needed
+     * @param context                 Context of the run the task belongs to
+     * @param random                  Random number stream of this task, e.g. for the quality of executions
      */
-    void init(String compositeTask, CompositeTaskDefinition compositeTaskDefinition, List<AtomicTaskDefinition> atomicTasks) {
+    void init(String compositeTask, CompositeTaskDefinition compositeTaskDefinition,
+              CompiledCompositeTask compiledCompositeTask, RunSummary runSummary, SimulationContext context,
+              SplittableRandom random) {
+        this.context = context;
+        this.random = random;
+        this.clock = context.getClock();
+        this.log = context.getLog();
+        this.startTime = clock.getSimulationTime();
         this.compositeTask = compositeTask;
-        this.atomicTasks = atomicTasks;
+        this.runSummary = runSummary;
+        this.situationEngine = new SituationEngine(compiledCompositeTask != null ? compiledCompositeTask
+                : new CompiledCompositeTask(new AtomicTaskDefinition[0], Map.of()));
 
-        LoggerArtifact.env_log(getId().getName(), this.getClass().getName(), "New task: " + compositeTask);
+        log.env_log(getId().getName(), this.getClass().getName(), "New task: " + compositeTask);
 
         // Make sure we activate initial tasks which do not require any preconditions to be met:
         execInternalOp("reviewTasks");
 
-        // Start the loop for monitoring the timeout
-        execInternalOp("timerLoop", compositeTaskDefinition.getTimeout());
+        // Register the overall timeout with the scheduler, which signals it once due, and make the deadline known
+        // to the run, e.g. for claiming requests on the blackboard by deadline
+        if (compositeTaskDefinition.getTimeout() > 0) {
+            long deadline = startTime + 1000L * compositeTaskDefinition.getTimeout();
+            overallTimeoutEvent = context.getScheduler().schedule(deadline, () -> signalTimeout(null));
+            context.setTaskDeadline(getId().getName(), deadline);
+        }
     }
 
     /**
@@ -58,12 +92,31 @@ public class TaskArtifact extends Artifact {
             status = TaskStatus.DISPOSED;
         }
 
-        LoggerArtifact.env_log(getId().getName(),
-                               this.getClass().getName(),
-                               "Disposed: " + compositeTask,
-                               startTime,
-                               String.valueOf(status),
-                               totalQuality);
+        // Withdraw any pending timeouts from the scheduler
+        if (overallTimeoutEvent != null) {
+            overallTimeoutEvent.cancel();
+            context.removeTaskDeadline(getId().getName());
+        }
+        if (atomicTaskTimeoutEvent != null) {
+            atomicTaskTimeoutEvent.cancel();
+        }
+
+        // Operations still running end right away, failing with the status the task has been left with
+        for (SimulationSleep operationEnd : new ArrayList<>(runningOperations)) {
+            operationEnd.cancel();
+        }
+
+        log.env_log(getId().getName(),
+                    this.getClass().getName(),
+                    "Disposed: " + compositeTask,
+                    startTime,
+                    String.valueOf(status),
+                    totalQuality);
+
+        // Let the task set know, which ends the run once the last task is gone
+        if (runSummary != null) {
+            runSummary.taskEnded(status, totalQuality);
+        }
     }
 
     /**
@@ -104,107 +157,94 @@ public class TaskArtifact extends Artifact {
     }
 
     /**
-     * Review total list of pending atomic tasks to activate the ones with matching preconditions
+     * Review the pending atomic tasks to activate the ones with matching preconditions. Only atomic tasks affected
+     * by task property changes since the last review are evaluated again; situation transitions (atomic tasks
+     * without an operation) set their post-conditions right away, which may activate further atomic tasks.
      */
     @INTERNAL_OPERATION
     @OPERATION
     synchronized void reviewTasks() {
-
-        // Otherwise start the review of all atomic tasks
-        List<AtomicTaskDefinition> activatedTasks = new ArrayList<>();
-        boolean propertiesUpdated;
-
-        do {
-            propertiesUpdated = false;
-
-            atomicTaskReview:
-            for (AtomicTaskDefinition atomicTask : atomicTasks) {
-                // Review potentially required preconditions before activating an atomic task
-                if (atomicTask.getPreConditions() != null) {
-                    for (String condition : atomicTask.getPreConditions()) {
-                        if (condition.charAt(0) == '!') {
-                            String property = condition.substring(1).trim();
-                            if (getObsPropertyByTemplate("task_property", property) != null)
-                                continue atomicTaskReview;
-                        } else {
-                            String property = condition.trim();
-                            if (getObsPropertyByTemplate("task_property", property) == null)
-                                continue atomicTaskReview;
-                        }
-                    }
-                }
-
-                // Now process the atomic task that did not disqualify during pre-conditions check
-                LoggerArtifact.env_log(getId().getName(),
-                                       this.getClass().getName(),
-                                       "New situation: " + atomicTask.getSituation());
-
-                // If it is a regular atomic task requiring an operation as a response, activate it
-                if (atomicTask.getOperation() != null) {
-                    activeAtomicTasks.add(new AtomicTaskInstance(atomicTask));
-                }
-                // If it is a pure situation-transition (i.e. pre-conditions leading to post-conditions),
-                // just set the post-conditions and make sure another iteration through the task list is
-                // performed as the task properties might now be different and trigger other atomic tasks:
-                else {
-                    setPostConditions(atomicTask);
-                    propertiesUpdated = true;
-                }
-                // Let's take a note of the activated task for later removal from the list. This cannot
-                // be done within the loop.
-                activatedTasks.add(atomicTask);
-            }
-            atomicTasks.removeAll(activatedTasks);
-
-        } while (propertiesUpdated);
+        situationEngine.review(reviewListener);
+        scheduleAtomicTaskTimeout();
     }
 
     /** Set all task properties according to the definitions in an atomic task.
      * @param atomicTask basis for setting post-condition task properties.
      */
     private void setPostConditions(AtomicTaskDefinition atomicTask) {
-        if (atomicTask.getPostConditions() != null) {
-            for (String postCondition : atomicTask.getPostConditions()) {
-                switch (postCondition.charAt(0)) {
-                    case '-' -> safeRemoveObsProperty(postCondition.substring(1));
-                    case '+' -> safeDefineTaskProperty(postCondition.substring(1));
-                    default -> logger.warning("postCondition lacking +/-, operation "
-                                                      + atomicTask.getSituation());
-                }
-            }
+        situationEngine.applyPostConditions(atomicTask, reviewListener);
+    }
+
+    /**
+     * Keep a single timeout registered with the scheduler, for the atomic task with the earliest deadline. To be
+     * called whenever atomic tasks have been activated or removed.
+     */
+    private void scheduleAtomicTaskTimeout() {
+        AtomicTaskInstance earliest = activeAtomicTasks.getEarliestDeadline();
+        if (earliest == atomicTaskTimeoutInstance) {
+            return;
+        }
+        if (atomicTaskTimeoutEvent != null) {
+            atomicTaskTimeoutEvent.cancel();
+            atomicTaskTimeoutEvent = null;
+        }
+        atomicTaskTimeoutInstance = earliest;
+        if (earliest != null) {
+            atomicTaskTimeoutEvent = context.getScheduler().schedule(earliest.deadline, () -> signalTimeout(earliest));
         }
     }
 
-    /** Watch timeouts of atomic tasks and the overall composite task.
-     * @param overallTimeout overall composite task maximum running time in simulation-seconds
+    /** Called by the simulation scheduler once a timeout is due: hand the timeout over to the artefact as an
+     * internal operation, as the scheduler's thread is not a CArtAgO operation thread.
+     * @param atomicTaskInstance atomic task that timed out; null if the composite task timed out
+     */
+    private void signalTimeout(AtomicTaskInstance atomicTaskInstance) {
+        beginExternalSession();
+        try {
+            execInternalOp("handleTimeout", atomicTaskInstance);
+        } finally {
+            endExternalSession(true);
+        }
+    }
+
+    /** Handle a timeout of an atomic task or the overall composite task. As before, timeouts are only enforced
+     * while there are atomic tasks left to be activated.
+     * @param atomicTaskInstance atomic task that timed out; null if the composite task timed out
      */
     @INTERNAL_OPERATION
-    void timerLoop(Integer overallTimeout) {
-
-        while (status == TaskStatus.OPEN && atomicTasks.size() > 0) {
-
-            // Check if any active atomic task has reached its defined timeout value
-            for (AtomicTaskInstance atomicTaskInstance : activeAtomicTasks) {
-                if (atomicTaskInstance.atomicTaskDefinition.getTimeout() > 0
-                        && (TimerArtifact.getSimulationTime() - atomicTaskInstance.startTime) / 1000
-                        >= atomicTaskInstance.atomicTaskDefinition.getTimeout()) {
-                    LoggerArtifact.env_log(getId().getName(),
-                                           this.getClass().getName(),
-                                           "Situation timeout: " + atomicTaskInstance.atomicTaskDefinition.getSituation());
-                    status = TaskStatus.TIMEOUT;
-                    disposeTask();
-                }
-            }
+    void handleTimeout(AtomicTaskInstance atomicTaskInstance) {
 
-            // Check if the composite task has reached its defined timeout value
-            if (overallTimeout > 0 && (TimerArtifact.getSimulationTime() - startTime) / 1000 >= overallTimeout) {
-                status = TaskStatus.TIMEOUT;
-                disposeTask();
-            } else {
-                await_time(800 / TimerArtifact.getSimulationSpeed());
+        if (status != TaskStatus.OPEN || situationEngine.getPendingCount() == 0) {
+            return;
+        }
+
+        if (atomicTaskInstance != null) {
+            // The atomic task may have been completed while the timeout was being signalled
+            if (!activeAtomicTasks.contains(atomicTaskInstance)) {
+                return;
             }
+            log.env_log(getId().getName(),
+                        this.getClass().getName(),
+                        "Situation timeout: " + atomicTaskInstance.atomicTaskDefinition.getSituation());
         }
+        status = TaskStatus.TIMEOUT;
+        disposeTask();
+    }
 
+    /**
+     * Calculate the quality of a simulated execution of an operation based on an agent's profile
+     * @param agentActionConfig configured agent capability
+     * @param cycles experience cycles as maintained by an agent
+     * @param random random number stream of the task
+     * @return quality of the execution
+     */
+    static double calculateQuality(AgentActionConfig agentActionConfig, int cycles, SplittableRandom random) {
+        double qualityRange = (1 - agentActionConfig.getOptimalQuality())
+                + (agentActionConfig.getOptimalQuality() - agentActionConfig.getInitialQuality())
+                * Math.max(agentActionConfig.getLearningCycles() - cycles, 0)
+                / Math.max(1, agentActionConfig.getLearningCycles());
+
+        return 1 - random.nextDouble() * qualityRange;
     }
 
     /** Provide an agent-accessible operation for simulation the execution of an action to move an atomic task ahead.
@@ -219,79 +259,77 @@ public class TaskArtifact extends Artifact {
     void executeArtifactOperation(String operation, String agentType, int cycles, OpFeedbackParam<Double> execQuality, OpFeedbackParam<String> taskStatus) throws ArtifactNotAvailableException {
 
         // There was an operation executed while the task is being disposed
-        if (atomicTasks.size() == 0 && activeAtomicTasks.size() == 0) {
+        if (situationEngine.getPendingCount() == 0 && activeAtomicTasks.isEmpty()) {
             throw new ArtifactNotAvailableException();
         }
 
         // The assumption is that open tasks remain open...
         taskStatus.set(String.valueOf(this.status));
 
-        for (AtomicTaskInstance atomicTaskInstance : activeAtomicTasks) {
+        AtomicTaskInstance atomicTaskInstance = activeAtomicTasks.find(operation);
+        if (atomicTaskInstance != null) {
             AtomicTaskDefinition atomicTask = atomicTaskInstance.atomicTaskDefinition;
 
-            if (atomicTask.getOperation().equals(operation)) {
 
-                AgentActionConfig agentActionConfig;
-                if (agentType.equals("CA")) {
-                    agentActionConfig = atomicTask.getCaConfig().getExecution();
-                } else {
-                    agentActionConfig = atomicTask.getHaConfig().getExecution();
-                }
+            AgentActionConfig agentActionConfig;
+            if (agentType.equals("CA")) {
+                agentActionConfig = atomicTask.getCaConfig().getExecution();
+            } else {
+                agentActionConfig = atomicTask.getHaConfig().getExecution();
+            }
 
-                if (agentActionConfig.getInitialTime() < 0) {
-                    LoggerArtifact.env_log(getId().getName(), this.getClass().getName(), operation,
-                                           TimerArtifact.getSimulationTime(),
-                                           "Agent type " + agentType + " unable to perform this atomic task");
-                    failed("Agent type unable to perform this atomic task");
-                }
+            if (agentActionConfig.getInitialTime() < 0) {
+                log.env_log(getId().getName(), this.getClass().getName(), operation,
+                            clock.getSimulationTime(),
+                            "Agent type " + agentType + " unable to perform this atomic task");
+                failed("Agent type unable to perform this atomic task");
+            }
 
 
-                double qualityRange = (1 - agentActionConfig.getOptimalQuality())
-                        + (agentActionConfig.getOptimalQuality() - agentActionConfig.getInitialQuality())
-                        * Math.max(agentActionConfig.getLearningCycles() - cycles, 0)
-                        / Math.max(1, agentActionConfig.getLearningCycles());
+            double quality = calculateQuality(agentActionConfig, cycles, random);
 
-                double quality = 1 - Math.random() * qualityRange;
+            execQuality.set(quality);
+            totalQuality *= quality;
 
-                execQuality.set(quality);
-                totalQuality *= quality;
+            long endTime = TaskSetArtifact.calculateTime(agentActionConfig, cycles) + clock.getSimulationTime();
 
-                long endTime = 1000 * (agentActionConfig.getInitialTime()
-                        - (long) (agentActionConfig.getInitialTime() - agentActionConfig.getMinimumTime())
-                        * Math.min(cycles, agentActionConfig.getLearningCycles())
-                        / Math.max(1, agentActionConfig.getLearningCycles())) + TimerArtifact.getSimulationTime();
+            // Suspend until the end time, unless the task leaves OPEN before, which cancels the sleep
+            SimulationSleep operationEnd = clock.sleepUntil(endTime);
+            runningOperations.add(operationEnd);
+            clock.operationStarted();
+            try {
+                await(operationEnd);
+            } finally {
+                runningOperations.remove(operationEnd);
+                clock.operationFinished();
+            }
+            if (status != TaskStatus.OPEN) {
+                taskStatus.set(String.valueOf(this.status));
+                failed(status.toString());
+            }
 
-                while (endTime > TimerArtifact.getSimulationTime()) {
-                    await_time(1000L / TimerArtifact.getSimulationSpeed());
-                    if (status != TaskStatus.OPEN) {
-                        taskStatus.set(String.valueOf(this.status));
-                        failed(status.toString());
-                    }
+            if (quality < atomicTask.getMinimumQuality()) {
+                if (atomicTaskInstance.retries < atomicTask.getMaximumRetries()) {
+                    atomicTaskInstance.retries++;
+                    failed(String.format("QUALITY ISSUE:%f,%f", quality, atomicTask.getMinimumQuality()));
+                } else {
+                    this.status = TaskStatus.FAILED;
+                    taskStatus.set(String.valueOf(this.status));
+                    disposeTask();
+                    failed(String.format("QUALITY ISSUE:%f,%f", quality, atomicTask.getMinimumQuality()));
                 }
-
-                if (quality < atomicTask.getMinimumQuality()) {
-                    if (atomicTaskInstance.retries < atomicTask.getMaximumRetries()) {
-                        atomicTaskInstance.retries++;
-                        failed(String.format("QUALITY ISSUE:%f,%f", quality, atomicTask.getMinimumQuality()));
-                    } else {
-                        this.status = TaskStatus.FAILED;
-                        taskStatus.set(String.valueOf(this.status));
-                        disposeTask();
-                        failed(String.format("QUALITY ISSUE:%f,%f", quality, atomicTask.getMinimumQuality()));
-                    }
+            } else {
+                setPostConditions(atomicTask);
+                activeAtomicTasks.remove(atomicTaskInstance);
+                if (situationEngine.getPendingCount() == 0 && activeAtomicTasks.isEmpty()) {
+                    status = TaskStatus.COMPLETED;
+                    taskStatus.set(String.valueOf(status));
+                    disposeTask();
                 } else {
-                    setPostConditions(atomicTask);
-                    activeAtomicTasks.remove(atomicTaskInstance);
-                    if (atomicTasks.size() == 0 && activeAtomicTasks.size() == 0) {
-                        status = TaskStatus.COMPLETED;
-                        taskStatus.set(String.valueOf(status));
-                        disposeTask();
-                    } else {
-                        reviewTasks();
-                    }
+                    reviewTasks();
                 }
-                return;
             }
+            return;
         }
 
         // If no operation has matched, fail
@@ -307,7 +345,7 @@ public class TaskArtifact extends Artifact {
     void currentAtomicTasks(OpFeedbackParam<Object[]> situationOperations) {
         ArrayList<String[]> currentSituationOperations = new ArrayList<>();
 
-        for (AtomicTaskInstance atomicTaskInstance : activeAtomicTasks) {
+        for (AtomicTaskInstance atomicTaskInstance : activeAtomicTasks.list()) {
             currentSituationOperations.add(atomicTaskInstance.atomicTaskDefinition.getSituationOperation());
         }
         situationOperations.set(currentSituationOperations.toArray());
@@ -325,6 +363,7 @@ public class TaskArtifact extends Artifact {
     void updateTaskProperty(String property, Object[] value) {
         if (getObsPropertyByTemplate(property, value) == null) {
             defineObsProperty(property, value);
+            mirrorTaskProperty(property, value, true);
         }
     }
 
@@ -338,20 +377,63 @@ public class TaskArtifact extends Artifact {
     void removeTaskProperty(String property, Object[] value) {
         if (getObsPropertyByTemplate(property, value) != null) {
             removeObsPropertyByTemplate(property, value);
+            mirrorTaskProperty(property, value, false);
+        }
+    }
+
+    /** Keep the situation engine in line with "task_property" properties modified by agents. As before, this does
+     * not trigger a review of the task.
+     */
+    private void mirrorTaskProperty(String property, Object[] value, boolean set) {
+        if (property.equals("task_property") && value.length == 1 && value[0] instanceof String) {
+            situationEngine.setProperty(((String) value[0]).trim(), set);
+        }
+    }
+
+    /**
+     * Turns the effects of a review into log entries, active atomic task instances and observable task properties.
+     */
+    private class ReviewListener implements SituationEngine.Listener {
+
+        @Override
+        public void situationActivated(AtomicTaskDefinition atomicTask) {
+            log.env_log(getId().getName(),
+                        TaskArtifact.class.getName(),
+                        "New situation: " + atomicTask.getSituation());
+
+            // If it is a regular atomic task requiring an operation as a response, activate it; situation
+            // transitions get their post-conditions applied by the situation engine
+            if (atomicTask.getOperation() != null) {
+                activeAtomicTasks.add(new AtomicTaskInstance(atomicTask, clock.getSimulationTime()));
+            }
+        }
+
+        @Override
+        public void propertyChanged(String property, boolean set) {
+            if (set) {
+                safeDefineTaskProperty(property);
+            } else {
+                safeRemoveObsProperty(property);
+            }
         }
     }
 
     /**
-     * A helper class to track start time and retries of atomic tasks once activated.
+     * A helper class to track start time, deadline and retries of atomic tasks once activated.
      */
-    private static class AtomicTaskInstance {
-        final long startTime = TimerArtifact.getSimulationTime();
+    static class AtomicTaskInstance {
+        final long startTime;
+        final long deadline;
         int retries = 0;
+        long sequence;
 
         AtomicTaskDefinition atomicTaskDefinition;
 
-        public AtomicTaskInstance(AtomicTaskDefinition atomicTaskDefinition) {
+        public AtomicTaskInstance(AtomicTaskDefinition atomicTaskDefinition, long startTime) {
             this.atomicTaskDefinition = atomicTaskDefinition;
+            this.startTime = startTime;
+            this.deadline = atomicTaskDefinition.getTimeout() > 0
+                    ? startTime + 1000L * atomicTaskDefinition.getTimeout() : Long.MAX_VALUE;
         }
     }
 
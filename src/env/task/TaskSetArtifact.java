@@ -8,37 +8,70 @@
 package task;
 
 import cartago.*;
-import control.LoggerArtifact;
-import control.TimerArtifact;
+import control.SimulationClock;
+import control.SimulationContext;
+import control.SimulationLog;
+import control.SimulationSleep;
 import jacamo.infra.JaCaMoLauncher;
 import jacamo.platform.Cartago;
-import org.yaml.snakeyaml.TypeDescription;
-import org.yaml.snakeyaml.Yaml;
-import org.yaml.snakeyaml.constructor.Constructor;
 
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
 import java.util.logging.Logger;
 
 
 /**
  * Class for managing a task set as per specification in the simulation script.
+ * <p>The run ends the moment the last task artefact gets disposed after the storybook has been fully released:
+ * a JSON run summary is written (if configured) and JaCaMo is stopped with an exit code reflecting the outcome
+ * (see {@link RunSummary}). In batch mode, selected with the system property {@code -Dhi_simulator.batch=true},
+ * JaCaMo stops right away and the summary is written to {@code log/hi_simulator_summary.json} by default;
+ * otherwise, JaCaMo keeps running for another 2 minutes to allow taking screenshots of the GUI. The key performance
+ * indicators aggregated by the logger are written as JSON report to the file given by the system property
+ * {@code hi_simulator.kpi.report}, in batch mode by default to {@code log/hi_simulator_kpis.json}; the summary
+ * file may also be given by the system property {@code hi_simulator.summary}.
+ * <p>The task set belongs to the run given by the name of its workspace (see {@link SimulationContext}); file names
+ * taken from system properties or defaults get the run ID inserted for runs other than the default run. If several
+ * runs share one JVM, JaCaMo is only stopped once the last of them has ended, with the exit code of that run.
+ * <p>All random numbers of a run are drawn from streams derived from the seed of the run (see
+ * {@link RandomStreams}): one per task artefact, one per agent evaluating situations, and one per arrival process
+ * without seed of its own. The seed may be passed as fifth parameter or as system property
+ * {@code hi_simulator.seed}, which takes precedence so that replications of one project file can be run with
+ * different seeds; otherwise, a random seed is chosen. The seed is logged and included in the run summary, so that
+ * any run can be reproduced as far as the scheduling of agents permits.
  */
 public class TaskSetArtifact extends Artifact {
     static Logger logger = Logger.getLogger(Cartago.class.getName());
+    private static final int DEFAULT_LINGER_SECONDS = 120;
+    private static final String DEFAULT_BATCH_SUMMARY_FILE = "log/hi_simulator_summary.json";
+    private static final String DEFAULT_BATCH_KPI_REPORT_FILE = "log/hi_simulator_kpis.json";
+    private SimulationContext context;
+    private SimulationClock clock;
+    private SimulationLog log;
     private Storybook storybook = null;
+    private RunSummary runSummary = null;
+    private String summaryFileName;
+    private String kpiReportFileName;
+    private int lingerSeconds;
+    private long seed;
+    private final Map<String, SplittableRandom> agentRandoms = new HashMap<>();
 //    private Workspace taskWorkspace;
 
     /**
      * Calculate the evaluation quality for a simulated evaluation based on an agent's profile
      * @param agentActionConfig configured agent capability
      * @param cycles experience cycles as maintained by an agent
+     * @param random random number stream of the evaluating agent
      * @return estimated quality of the evaluation
      */
-    static private double calculateQuality(AgentActionConfig agentActionConfig, int cycles) {
+    static double calculateQuality(AgentActionConfig agentActionConfig, int cycles, SplittableRandom random) {
 
-        return 1 - Math.random() * (1 - agentActionConfig.getInitialQuality()
+        return 1 - random.nextDouble() * (1 - agentActionConfig.getInitialQuality()
                 + (agentActionConfig.getOptimalQuality() - agentActionConfig.getInitialQuality())
                 * Math.max(agentActionConfig.getLearningCycles() - cycles, 0)
                 / Math.max(1, agentActionConfig.getLearningCycles()));
@@ -46,12 +79,12 @@ public class TaskSetArtifact extends Artifact {
     }
 
     /**
-     * Calculate the time required for a simulated evaluation of a situation
+     * Calculate the time required for a simulated evaluation of a situation or execution of an operation
      * @param agentActionConfig  configured agent capability
      * @param cycles experience cycles as maintained by the agent
      * @return (simulation) time required to perform the evaluation
      */
-    static private long calculateTime(AgentActionConfig agentActionConfig, int cycles) {
+    static long calculateTime(AgentActionConfig agentActionConfig, int cycles) {
 
         return 1000 * (agentActionConfig.getInitialTime()
                 - (long) (agentActionConfig.getInitialTime() - agentActionConfig.getMinimumTime())
@@ -68,9 +101,54 @@ public class TaskSetArtifact extends Artifact {
      * @param artefactPrefix prefix to be used when creating artefact names
      */
     void init(String fileName, String artefactPrefix) {
+        init(fileName, artefactPrefix, "", -1);
+    }
+
+    /**
+     * Initialisation of a task set with explicit end-of-run handling, e.g. for batch runs:
+     * <p>{@code
+     * artifact taskSet: task.TaskSetArtifact("cfg\simulation_script.yaml", "task_", "log\summary.json", 0)
+     * }
+     * @param fileName filename, optionally including path, to the simulation script with storybook and tasks.
+     * @param artefactPrefix prefix to be used when creating artefact names
+     * @param summaryFileName file to write the JSON run summary to; "" for the default (none unless in batch mode)
+     * @param lingerSeconds real world seconds to keep JaCaMo running at the end of the run; negative for the
+     *                      default (0 in batch mode, 120 otherwise)
+     */
+    void init(String fileName, String artefactPrefix, String summaryFileName, int lingerSeconds) {
+        init(fileName, artefactPrefix, summaryFileName, lingerSeconds, new SplittableRandom().nextInt());
+    }
+
+    /**
+     * Initialisation of a task set with a seed, for reproducible runs:
+     * <p>{@code
+     * artifact taskSet: task.TaskSetArtifact("cfg\simulation_script.yaml", "task_", "", -1, 42)
+     * }
+     * @param fileName filename, optionally including path, to the simulation script with storybook and tasks.
+     * @param artefactPrefix prefix to be used when creating artefact names
+     * @param summaryFileName file to write the JSON run summary to; "" for the default (none unless in batch mode)
+     * @param lingerSeconds real world seconds to keep JaCaMo running at the end of the run; negative for the
+     *                      default (0 in batch mode, 120 otherwise)
+     * @param seed seed of all random number streams of the run, unless overridden by system property
+     */
+    void init(String fileName, String artefactPrefix, String summaryFileName, int lingerSeconds, int seed) {
+        boolean batchMode = Boolean.getBoolean("hi_simulator.batch");
+        context = SimulationContext.of(getId());
+        clock = context.getClock();
+        log = context.getLog();
+        this.seed = Long.getLong("hi_simulator.seed", seed);
+        this.summaryFileName = !summaryFileName.equals("") ? summaryFileName
+                : context.fileName(System.getProperty("hi_simulator.summary",
+                                                      batchMode ? DEFAULT_BATCH_SUMMARY_FILE : null));
+        this.lingerSeconds = lingerSeconds >= 0 ? lingerSeconds : batchMode ? 0 : DEFAULT_LINGER_SECONDS;
+        this.kpiReportFileName = context.fileName(System.getProperty("hi_simulator.kpi.report",
+                                                                     batchMode ? DEFAULT_BATCH_KPI_REPORT_FILE : null));
+
         defineObsProperty("fileName", fileName);
         defineObsProperty("artefactPrefix", artefactPrefix.equals("") ? "task_" : artefactPrefix);
         loadTasks();
+        runSummary = new RunSummary(fileName, clock.getSimulationTime(), this.seed);
+        context.runStarted();
         execInternalOp("taskSetUpdate");
     }
 
@@ -83,33 +161,29 @@ public class TaskSetArtifact extends Artifact {
     }
 
     /**
-     * Periodical operation that instantiates new task artefacts in CArtAgO when the start time has been reached.
+     * Operation that instantiates new task artefacts in CArtAgO when the start time has been reached. Only the
+     * due tasks at the head of the timeline are looked at; in between, the operation sleeps until the next start
+     * time.
      */
     @INTERNAL_OPERATION
     void taskSetUpdate() {
         int Task_id = 0;
 
-        while (storybook.getStorybookTasks().size() > 0) {
-
-            ArrayList<StorybookTask> openedTasks = new ArrayList<>();
-
-            // Note that the following could be much more efficient by not walking through full list of tasks;
-            // that could be implemented by initial sort by start time, removing completed tasks, and a while loop
+        while (storybook.hasPendingTasks()) {
 
-            for (StorybookTask storybookTask : storybook.getStorybookTasks()) {
+            StorybookTask storybookTask;
 
-                // as the storybook is ordered by start time, we can stop looping once reaching
-                // tasks beyond current simulation time
-                if (storybookTask.getStartTime() > TimerArtifact.getSimulationTime()) {
-                    break;
-                }
+            while ((storybookTask = storybook.pollDueTask(clock.getSimulationTime())) != null) {
                 Task_id++;
                 try {
                     String taskName = String.format("%s%04d", getObsProperty("artefactPrefix").stringValue(), Task_id);
+                    runSummary.taskCreated();
                     makeArtifact(taskName, "task.TaskArtifact",
                                  new ArtifactConfig(storybookTask.getCompositeTask(),
                                                     storybook.getCompositeTaskDefinition(storybookTask.getCompositeTask()),
-                                                    storybook.getAtomicTaskDefinitions(storybookTask.getCompositeTask())));
+                                                    storybook.getCompiledCompositeTask(storybookTask.getCompositeTask()),
+                                                    runSummary, context,
+                                                    RandomStreams.of(seed, RandomStreams.TASKS, Task_id)));
 
                     // Let listeners know that a task got created
                     signal("task_created", taskName);
@@ -118,14 +192,12 @@ public class TaskSetArtifact extends Artifact {
                 } catch (OperationException e) {
                     throw new RuntimeException(e);
                 }
-                // Take a note of created tasks so they can be removed from the storybook
-                openedTasks.add(storybookTask);
             }
 
-            // Remove created tasks from storybook outside the loop, as this otherwise is a concurrent modification
-            storybook.removeStorybookTask(openedTasks);
-
-            await_time(800 / TimerArtifact.getSimulationSpeed());
+            // Sleep until the next task is due, which lets a discrete-event clock jump right to it
+            if (storybook.hasPendingTasks()) {
+                await(clock.sleepUntil(storybook.getNextStartTime()));
+            }
         }
 
         logger.info("No further tasks in the storybook: Waiting for tasks to be completed.");
@@ -134,64 +206,51 @@ public class TaskSetArtifact extends Artifact {
 
     /**
      * Load the simulation script consisting of a storybook (timeline of tasks), composite and atomic task definitions.
+     * A snapshot of the compiled script is used if the script is unchanged since it was last parsed.
      */
     @OPERATION
     void loadTasks() {
-        Constructor constructor = new Constructor(Storybook.class);
-        TypeDescription storybookDesc = new TypeDescription(Storybook.class);
-        storybookDesc.addPropertyParameters("storybookTasks", StorybookTask.class);
-        storybookDesc.addPropertyParameters("compositeTasks", CompositeTaskDefinition.class);
-        storybookDesc.addPropertyParameters("atomicTasks", AtomicTaskDefinition.class);
-        constructor.addTypeDescription(storybookDesc);
-        Yaml yaml = new Yaml(constructor);
-        FileInputStream inputStream;
-
-        try {
-            inputStream = new FileInputStream(getObsProperty("fileName").stringValue());
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-
-        storybook = yaml.load(inputStream);
-        storybook.sortStorybookTasks();
+        storybook = StorybookSnapshot.load(getObsProperty("fileName").stringValue());
+        storybook.sortStorybookTasks(seed);
 
-        LoggerArtifact.env_log(this.getClass().getName(), storybook.getStorybookTasks().size() + " tasks loaded");
+        log.env_log(this.getClass().getName(), storybook.getStorybookTasks().size() + " tasks and "
+                + storybook.getArrivalProcesses().size() + " arrival processes loaded, seed " + seed);
     }
 
     /**
-     * Wait for disappearance of all task.TaskArtifacts: this indicated that the simulation has ended.
+     * Wait for the disposal of all task.TaskArtifacts, which is signalled by the run summary: this indicates that
+     * the simulation has ended. Then write the run summary and stop JaCaMo.
      */
     @INTERNAL_OPERATION
     void waitForTasksToComplete()  {
-        String workspacePath = this.getId().getWorkspaceId().getFullName();
-        Workspace taskWorkspace;
-
-        try {
-            taskWorkspace =  CartagoEnvironment.getInstance().resolveWSP(workspacePath).getWorkspace();
-        } catch (WorkspaceNotFoundException e) {
-            return; // if the workspace disappears (for a strange reason), there are no tasks surviving anyway
-        }
+        SimulationSleep endOfRun = clock.sleepUntil(Long.MAX_VALUE);
+        runSummary.releaseCompleted(endOfRun::cancel);
+        await(endOfRun);
 
-        outerloop:
-        while (true) {
-            await_time(1000);
+        long simulationEndTime = clock.getSimulationTime();
+        log.env_log(this.getClass().getName(), "Simulation ended: " + runSummary.getCreatedTasks()
+                + " tasks, exit code " + runSummary.getExitCode());
+        log.flushBuffers();
 
-            for (ArtifactId artifactId : taskWorkspace.getArtifactIdList()) {
-                try {
-                    if (artifactId.getArtifactType().equals("task.TaskArtifact")) {
-                        continue outerloop;
-                    }
-                } catch (Exception e) {
-                    // no need for logging the exception: this may happen if a task artefact disappears during evaluation
-                }
+        if (summaryFileName != null) {
+            try {
+                Files.writeString(Path.of(summaryFileName), runSummary.toJson(simulationEndTime));
+            } catch (IOException e) {
+                logger.warning("Unable to write run summary to " + summaryFileName + ": " + e);
+            }
+        }
+        if (kpiReportFileName != null) {
+            try {
+                log.writeKpiReport(kpiReportFileName);
+            } catch (IOException e) {
+                logger.warning("Unable to write KPI report to " + kpiReportFileName + ": " + e);
             }
-            break;
         }
 
-        LoggerArtifact.flushBuffers();
-
-        // Keep JaCaMo running for another 2 minutes to allow taking screenshots of GUI
-        JaCaMoLauncher.getJaCaMoRunner().finish(120000, true, 0);
+        // Keep JaCaMo running as configured, e.g. to allow taking screenshots of GUI, unless other runs go on
+        if (context.runEnded()) {
+            JaCaMoLauncher.getJaCaMoRunner().finish(lingerSeconds * 1000, true, runSummary.getExitCode());
+        }
     }
 
     /** Provide agents with a list of situation-operation tuples that should be known from the beginning, to
@@ -228,7 +287,7 @@ public class TaskSetArtifact extends Artifact {
         AtomicTaskDefinition atomicTask = storybook.getAtomicTaskDefinition(new SituationOperation(situation, operation));
 
         if (atomicTask == null) {
-            LoggerArtifact.env_log(this.getClass().getName(), this.getCurrentOpAgentId().getAgentName() + " requested simulated evaluation of unknown situation '" + situation + "' operation '" + operation + "'");
+            log.env_log(this.getClass().getName(), this.getCurrentOpAgentId().getAgentName() + " requested simulated evaluation of unknown situation '" + situation + "' operation '" + operation + "'");
             failed("Unknown atomic task for situation '" + situation + "' operation '" + operation + "'");
         } else {
 
@@ -241,12 +300,20 @@ public class TaskSetArtifact extends Artifact {
             }
 
             if (agentActionConfig.getInitialTime() < 0) {
-                LoggerArtifact.env_log(this.getClass().getName(),
-                                       "Agent type " + agentType + " unable to evaluate this situation/operation");
+                log.env_log(this.getClass().getName(),
+                            "Agent type " + agentType + " unable to evaluate this situation/operation");
                 failed("Agent type unable to evaluate this situation/operation");
             } else {
-                evalQuality.set(calculateQuality(agentActionConfig, cycles));
-                await_time(calculateTime(agentActionConfig, cycles) / TimerArtifact.getSimulationSpeed());
+                String agentName = this.getCurrentOpAgentId().getAgentName();
+                SplittableRandom random = agentRandoms.computeIfAbsent(
+                        agentName, name -> RandomStreams.of(seed, RandomStreams.AGENTS, name.hashCode()));
+                evalQuality.set(calculateQuality(agentActionConfig, cycles, random));
+                clock.operationStarted();
+                try {
+                    await(clock.sleepFor(calculateTime(agentActionConfig, cycles)));
+                } finally {
+                    clock.operationFinished();
+                }
             }
         }
     }
@@ -292,19 +359,8 @@ public class TaskSetArtifact extends Artifact {
 
         AtomicTaskDefinition atomicTask = storybook.getAtomicTaskDefinition(new SituationOperation(situation, operation));
 
-        ArrayList<String> mTriggers = new ArrayList<>();
-        ArrayList<String> mnTriggers = new ArrayList<>();
-
-        for (String condition : atomicTask.getPreConditions()) {
-            if (condition.charAt(0) == '!') {
-                mnTriggers.add(condition.substring(1).trim());
-            } else {
-                mTriggers.add(condition.trim());
-            }
-        }
-
-        mustTriggers.set(mTriggers.toArray());
-        mustNotTriggers.set(mnTriggers.toArray());
+        mustTriggers.set(atomicTask.requiredProperties().clone());
+        mustNotTriggers.set(atomicTask.forbiddenProperties().clone());
 
         if (agentType.equals("CA")) {
             evaluation.set(atomicTask.getCaConfig().getEvaluation().getConfig());
@@ -0,0 +1,66 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+package control;
+
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the formatting of log entries written via {@link LoggerArtifact#log}: the fields are turned into
+ * strings by the log writer and escaped into a line of the CSV log. Results of evaluations are lists of situations,
+ * which contain commas and quotes and therefore need escaping.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogFormattingBenchmark {
+    @Param({"SUCCESS", "[\"Client known\",\"Internet service affected\"]"})
+    private String result;
+
+    private final DateTimeFormatter timeFormatter = AsyncLogWriter.timeFormatter(ZoneOffset.UTC);
+    private long logTime = 1672729200000L;
+
+    private String[] format() {
+        logTime += 1500;
+        return AsyncLogWriter.format(timeFormatter, "DOMAIN", "task_0001", "Evaluated situations", "csa",
+                                     logTime, logTime - 45250, result, 0.937);
+    }
+
+    @Benchmark
+    public String[] formatEntry() {
+        return format();
+    }
+
+    @Benchmark
+    public String formatCsvLine() {
+        String[] logEntry = format();
+        StringBuilder line = new StringBuilder(128);
+        for (int i = 0; i < logEntry.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            CsvLogSink.appendField(line, logEntry[i]);
+        }
+        return line.toString();
+    }
+}
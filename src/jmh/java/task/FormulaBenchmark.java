@@ -0,0 +1,67 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+package task;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the quality and time formulas applied whenever an agent evaluates a situation or executes an
+ * operation. The experience of the agent runs through the learning phase and beyond.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormulaBenchmark {
+    private final AgentActionConfig agentActionConfig = new AgentActionConfig();
+    private final SplittableRandom random = new SplittableRandom(1);
+    private int cycles = 0;
+
+    @Setup
+    public void setup() {
+        agentActionConfig.setInitialTime(30);
+        agentActionConfig.setMinimumTime(10);
+        agentActionConfig.setInitialQuality(0.8);
+        agentActionConfig.setOptimalQuality(0.99);
+        agentActionConfig.setLearningCycles(10);
+    }
+
+    private int nextCycles() {
+        cycles = cycles < 20 ? cycles + 1 : 0;
+        return cycles;
+    }
+
+    @Benchmark
+    public double evaluationQuality() {
+        return TaskSetArtifact.calculateQuality(agentActionConfig, nextCycles(), random);
+    }
+
+    @Benchmark
+    public double executionQuality() {
+        return TaskArtifact.calculateQuality(agentActionConfig, nextCycles(), random);
+    }
+
+    @Benchmark
+    public long time() {
+        return TaskSetArtifact.calculateTime(agentActionConfig, nextCycles());
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+package task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark of the review of atomic tasks as done by {@link TaskArtifact#reviewTasks()}, on synthetic composite
+ * tasks of a growing number of atomic tasks. The situation engine is benchmarked directly, as the task artefact
+ * itself requires a running CArtAgO environment; the listener stands in for the log entries and observable
+ * properties of the artefact.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReviewTasksBenchmark {
+    @Param({"10", "100", "1000"})
+    private int atomicTasks;
+
+    private CompiledCompositeTask compositeTask;
+    private final List<AtomicTaskDefinition> operations = new ArrayList<>();
+    private SituationEngine.Listener listener;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        compositeTask = SyntheticScript.load(atomicTasks, 1).getCompiledCompositeTask(SyntheticScript.COMPOSITE_TASK);
+        for (AtomicTaskDefinition atomicTask : compositeTask.getAtomicTasks()) {
+            if (atomicTask.getOperation() != null) {
+                operations.add(atomicTask);
+            }
+        }
+        listener = new SituationEngine.Listener() {
+            @Override
+            public void situationActivated(AtomicTaskDefinition atomicTask) {
+                blackhole.consume(atomicTask);
+            }
+
+            @Override
+            public void propertyChanged(String property, boolean set) {
+                blackhole.consume(property);
+            }
+        };
+    }
+
+    /**
+     * Initial review of a new task instance, which runs through the whole chain of situation transitions.
+     */
+    @Benchmark
+    public int reviewNewTask() {
+        return new SituationEngine(compositeTask).review(listener);
+    }
+
+    /**
+     * Life cycle of a task instance: the initial review, then a review after completion of every operation.
+     */
+    @Benchmark
+    public int completeAllOperations() {
+        SituationEngine situationEngine = new SituationEngine(compositeTask);
+        int activated = situationEngine.review(listener);
+        for (AtomicTaskDefinition operation : operations) {
+            situationEngine.applyPostConditions(operation, listener);
+            activated += situationEngine.review(listener);
+        }
+        return activated;
+    }
+}
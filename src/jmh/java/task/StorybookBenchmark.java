@@ -0,0 +1,82 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+package task;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the storybook: lookups of atomic task definitions as done by agents and task artefacts, and loading
+ * of a simulation script as done by {@link TaskSetArtifact#loadTasks()}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorybookBenchmark {
+    @Param({"10", "100", "1000"})
+    private int atomicTasks;
+
+    private byte[] script;
+    private Storybook storybook;
+    private SituationOperation[] situationOperations;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        script = SyntheticScript.yaml(atomicTasks, 100).getBytes(StandardCharsets.UTF_8);
+        storybook = SyntheticScript.load(atomicTasks, 100);
+
+        // Fresh tuples as passed in by agents, alternating between operations and situation transitions
+        int steps = Math.max(1, atomicTasks / 2);
+        situationOperations = new SituationOperation[2 * steps];
+        for (int i = 0; i < steps; i++) {
+            situationOperations[2 * i] = new SituationOperation(SyntheticScript.situation(i),
+                                                                SyntheticScript.operation(i));
+            situationOperations[2 * i + 1] = new SituationOperation(SyntheticScript.situation(i), null);
+        }
+    }
+
+    @Benchmark
+    public AtomicTaskDefinition getAtomicTaskDefinition() {
+        next = next + 1 < situationOperations.length ? next + 1 : 0;
+        return storybook.getAtomicTaskDefinition(situationOperations[next]);
+    }
+
+    @Benchmark
+    public List<AtomicTaskDefinition> getAtomicTaskDefinitions() {
+        return storybook.getAtomicTaskDefinitions(SyntheticScript.COMPOSITE_TASK);
+    }
+
+    /**
+     * Loading of a script with 100 tasks: YAML parsing, compilation and sorting of the timeline.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Storybook loadTasks() {
+        Storybook loaded = Storybook.load(new ByteArrayInputStream(script));
+        loaded.sortStorybookTasks(1);
+        return loaded;
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Code part of hi_simulator, a specification-driven task environment to simulate Hybrid Intelligent Systems
+ * on the basis of JaCaMo.
+ *
+ * Benjamin Schlup, Student ID 200050007
+ * (ben.schlup@schlup.com
+ */
+package task;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Generator of synthetic simulation scripts for the benchmarks: one composite task made of a chain of situations.
+ * Each step of the chain is a situation transition, which leads to the next step, plus an atomic task with an
+ * operation in the same situation, so that a single review activates the whole chain. Conditions refer to the
+ * previous step and to a property that is never set, so that both required and forbidden properties are checked.
+ */
+final class SyntheticScript {
+    static final String COMPOSITE_TASK = "Synthetic task";
+
+    private SyntheticScript() {}
+
+    /** Generate the YAML text of a simulation script.
+     * @param atomicTasks number of atomic tasks of the composite task; half of them are situation transitions
+     * @param storybookTasks number of tasks instantiating the composite task
+     * @return YAML text of the simulation script
+     */
+    static String yaml(int atomicTasks, int storybookTasks) {
+        int steps = Math.max(1, atomicTasks / 2);
+        StringBuilder yaml = new StringBuilder();
+
+        yaml.append("storybookTasks:\n");
+        for (int i = 0; i < storybookTasks; i++) {
+            yaml.append("- taskName: Synthetic request ").append(i).append('\n')
+                .append("  compositeTask: ").append(COMPOSITE_TASK).append('\n')
+                .append(String.format("  startTimeISO8601: 2023-01-03T%02d:%02d:00Z%n", 7 + i / 60 % 12, i % 60));
+        }
+
+        yaml.append("compositeTaskDefinitions:\n")
+            .append("  ").append(COMPOSITE_TASK).append(":\n")
+            .append("    atomicTasks:\n");
+        for (int i = 0; i < steps; i++) {
+            yaml.append("      - situation: ").append(situation(i)).append('\n')
+                .append("        operation: ").append(operation(i)).append('\n')
+                .append("      - situation: ").append(situation(i)).append('\n');
+        }
+        yaml.append("    timeout: 3600\n");
+
+        yaml.append("atomicTaskDefinitions:\n");
+        for (int i = 0; i < steps; i++) {
+            yaml.append("  - situation: ").append(situation(i)).append('\n')
+                .append("    preConditions:\n")
+                .append(i == 0 ? "" : "      - 'step_" + (i - 1) + "'\n")
+                .append("      - '! executed_").append(i).append("'\n")
+                .append("      - '! aborted'\n")
+                .append("    operation: ").append(operation(i)).append('\n')
+                .append("    minimumQuality: 0.9\n")
+                .append("    postConditions:\n")
+                .append("      - '+ executed_").append(i).append("'\n")
+                .append("    caConfig:\n")
+                .append("      evaluation: {initialTime: 2, minimumTime: 1, initialQuality: 0.7,")
+                .append(" optimalQuality: 0.95, learningCycles: 10}\n")
+                .append("      execution: {initialTime: 30, minimumTime: 10, initialQuality: 0.8,")
+                .append(" optimalQuality: 0.99, learningCycles: 10, learningTime: 60}\n")
+                .append("    haConfig:\n")
+                .append("      initialKnowledge: true\n")
+                .append("      execution: {initialTime: 60, initialQuality: 0.95, teachingTime: 120}\n")
+                .append("    maximumRetries: 1\n")
+                .append("    timeout: 300\n");
+            yaml.append("  - situation: ").append(situation(i)).append('\n')
+                .append("    preConditions:\n")
+                .append(i == 0 ? "" : "      - 'step_" + (i - 1) + "'\n")
+                .append("      - '! aborted'\n")
+                .append("    postConditions:\n")
+                .append("      - '+ step_").append(i).append("'\n");
+        }
+        return yaml.toString();
+    }
+
+    /** Load a synthetic simulation script the way the task set artefact does.
+     * @param atomicTasks number of atomic tasks of the composite task
+     * @param storybookTasks number of tasks instantiating the composite task
+     * @return compiled storybook
+     */
+    static Storybook load(int atomicTasks, int storybookTasks) {
+        Storybook storybook = Storybook.load(new ByteArrayInputStream(
+                yaml(atomicTasks, storybookTasks).getBytes(StandardCharsets.UTF_8)));
+        storybook.sortStorybookTasks(1);
+        return storybook;
+    }
+
+    static String situation(int step) {
+        return "Situation " + step;
+    }
+
+    static String operation(int step) {
+        return "Operation " + step;
+    }
+}